@@ -0,0 +1,184 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.object.h5.H5File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packets per second converted from a zip or gzip compressed tar archive of
+ * {@value #PACKETS} JSON packets, either streamed straight from the archive
+ * ({@code stream}) or extracted to a directory first and converted from
+ * there ({@code extract}), the way archives had to be converted before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ArchiveInputBenchmark {
+
+    static final int PACKETS = 100;
+
+    @Param({"zip", "tar.gz"})
+    public String archive;
+
+    @Param({"stream", "extract"})
+    public String mode;
+
+    @Param({"4"})
+    public int threads;
+
+    @Param({"4096", "32768"})
+    public int microphoneSamples;
+
+    private Path directory;
+    private Path archivePath;
+    private Path extracted;
+    private ConversionOptions options;
+    private String output;
+
+    @Setup(Level.Trial)
+    public void writeArchive() throws Exception {
+        directory = Files.createTempDirectory("redvox-benchmark");
+        Path input = Files.createDirectory(directory.resolve("input"));
+        List<Path> packetFiles = SyntheticPackets.corpus(input, PACKETS, microphoneSamples, true, PacketFormat.JSON);
+        archivePath = directory.resolve("packets." + archive);
+        try (OutputStream out = Files.newOutputStream(archivePath)) {
+            if (archive.equals("zip")) {
+                writeZip(out, packetFiles);
+            } else {
+                writeTarGz(out, packetFiles);
+            }
+        }
+        for (Path packetFile : packetFiles) {
+            Files.delete(packetFile);
+        }
+        extracted = input;
+        output = directory.resolve("output.h5").toString();
+        options = ConversionOptions.parse(new String[]{"--threads", Integer.toString(threads), archivePath.toString(), output});
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteArchive() throws Exception {
+        delete(directory, true);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void convert() throws Exception {
+        H5File file;
+        if (mode.equals("stream")) {
+            file = PackageRedvoxToHdf5.createHdf5File(output, new PacketArchive(archivePath, (String fileName) -> true), options);
+        } else {
+            List<Path> packetFiles = new ArrayList<>();
+            for (PacketSource source : new PacketArchive(archivePath, (String fileName) -> true)) {
+                Path packetFile = extracted.resolve(source.fileName());
+                Files.write(packetFile, source.contents());
+                packetFiles.add(packetFile);
+            }
+            file = PackageRedvoxToHdf5.createHdf5File(output, PacketSource.of(packetFiles), options);
+            delete(extracted, false);
+        }
+        if (file == null) {
+            throw new IllegalStateException("The conversion failed, see the log.");
+        }
+    }
+
+    private static void delete(Path root, boolean includingRoot) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> paths = new ArrayList<>();
+            files.forEach(paths::add);
+            for (int i = paths.size() - 1; i >= (includingRoot ? 0 : 1); i--) {
+                Files.delete(paths.get(i));
+            }
+        }
+    }
+
+    private static void writeZip(OutputStream out, List<Path> packetFiles) throws IOException {
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            for (Path packetFile : packetFiles) {
+                zip.putNextEntry(new ZipEntry("packets/" + packetFile.getFileName()));
+                zip.write(Files.readAllBytes(packetFile));
+                zip.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Writes a ustar archive, the format of GNU and BSD tar.
+     */
+    private static void writeTarGz(OutputStream out, List<Path> packetFiles) throws IOException {
+        try (GZIPOutputStream tar = new GZIPOutputStream(out, 1 << 16)) {
+            for (Path packetFile : packetFiles) {
+                byte[] contents = Files.readAllBytes(packetFile);
+                byte[] header = new byte[512];
+                field(header, 0, 100, "packets/" + packetFile.getFileName());
+                field(header, 100, 8, "0000644");
+                field(header, 108, 8, "0000000");
+                field(header, 116, 8, "0000000");
+                field(header, 124, 12, String.format("%011o", contents.length));
+                field(header, 136, 12, String.format("%011o", Files.getLastModifiedTime(packetFile).toMillis() / 1000));
+                header[156] = '0';
+                field(header, 257, 6, "ustar");
+                field(header, 263, 2, "00");
+                // The checksum is computed with its own field as spaces.
+                field(header, 148, 8, "        ");
+                int checksum = 0;
+                for (byte b : header) {
+                    checksum += b & 0xff;
+                }
+                field(header, 148, 8, String.format("%06o", checksum) + "\0 ");
+                tar.write(header);
+                tar.write(contents);
+                tar.write(new byte[(512 - contents.length % 512) % 512]);
+            }
+            tar.write(new byte[1024]);
+        }
+    }
+
+    private static void field(byte[] header, int offset, int length, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, Math.min(length, bytes.length));
+    }
+}
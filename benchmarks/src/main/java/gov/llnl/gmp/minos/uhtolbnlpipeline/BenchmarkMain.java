@@ -0,0 +1,71 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The entry point of benchmarks.jar. Takes the JMH command line and, unless
+ * a result format is given with {@code -rf}, writes the results as JSON to
+ * {@code results/<version>-<time>.json} so runs of different releases can
+ * be compared, e.g. with the JMH Visualizer.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine;
+        try {
+            commandLine = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            // Nothing to record, let the JMH main print what was asked for
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        Options options = commandLine;
+        if (!commandLine.getResultFormat().hasValue()) {
+            String version = BenchmarkMain.class.getPackage().getImplementationVersion();
+            String time = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            File result = new File("results", (version == null ? "dev" : version) + "-" + time + ".json");
+            result.getParentFile().mkdirs();
+            options = new OptionsBuilder()
+                    .parent(commandLine)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath())
+                    .build();
+            System.out.println("Results will be written to " + result);
+        }
+        new Runner(options).run();
+    }
+}
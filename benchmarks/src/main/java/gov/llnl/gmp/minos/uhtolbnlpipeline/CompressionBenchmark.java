@@ -0,0 +1,168 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.object.FileFormat;
+import hdf.object.h5.H5File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write throughput, output size and read back throughput of the microphone
+ * storage settings, on a synthetic corpus of {@value #PACKETS} packets. Both
+ * benchmarks report packets per second; the output size and compression
+ * ratio of every setting are printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    static final int PACKETS = 200;
+
+    @Param({"packet", "device"})
+    public String layout;
+
+    /**
+     * Microphone storage settings, see {@link DatasetStorage#with(String)}.
+     */
+    @Param({"none", "types=native", "types=narrow", "deflate=1", "deflate=6", "shuffle,deflate=1", "shuffle,deflate=6", "shuffle,deflate=9",
+        "types=narrow,shuffle,deflate=1", "szip", "shuffle,szip"})
+    public String storage;
+
+    @Param({"4096"})
+    public int microphoneSamples;
+
+    private Path directory;
+    private List<DecodedPacket> corpus;
+    private ConversionOptions options;
+    private Path writeFile;
+    private Path readFile;
+    private long[] readBuffer;
+
+    @Setup(Level.Trial)
+    public void createCorpus() throws Exception {
+        directory = Files.createTempDirectory("redvox-compression");
+        corpus = SyntheticPackets.decodedCorpus(directory, PACKETS, microphoneSamples);
+
+        List<String> args = new ArrayList<>();
+        args.add("--layout");
+        args.add(layout);
+        if (!storage.equals("none")) {
+            args.add("--storage");
+            args.add("microphone:" + storage);
+        }
+        args.add(directory.toString());
+        args.add("unused.h5");
+        options = ConversionOptions.parse(args.toArray(new String[0]));
+
+        readFile = directory.resolve("read.h5");
+        writeCorpus(readFile);
+        readBuffer = new long[layout.equals("device") ? PACKETS * microphoneSamples : microphoneSamples];
+    }
+
+    @TearDown(Level.Trial)
+    public void reportSize() throws IOException {
+        long rawBytes = 8L * PACKETS * microphoneSamples;
+        long fileBytes = Files.size(readFile);
+        System.out.printf("%n%s layout, microphone %s: %d bytes, %.2f x smaller than the raw samples%n",
+                layout, storage, fileBytes, (double) rawBytes / fileBytes);
+
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void newWriteFile() throws IOException {
+        writeFile = directory.resolve("write.h5");
+        Files.deleteIfExists(writeFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void write() throws Exception {
+        writeCorpus(writeFile);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public long readBack() throws Exception {
+        long fileId = H5.H5Fopen(readFile.toString(), HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT);
+        long checksum = 0;
+        try {
+            if (layout.equals("device")) {
+                checksum += readMicrophone(fileId, "/" + corpus.get(0).redvoxId + "/microphone");
+            } else {
+                for (DecodedPacket packet : corpus) {
+                    checksum += readMicrophone(fileId, "/" + packet.name + "/microphone");
+                }
+            }
+        } finally {
+            H5.H5Fclose(fileId);
+        }
+        return checksum;
+    }
+
+    private long readMicrophone(long fileId, String path) throws Exception {
+        long datasetId = H5.H5Dopen(fileId, path, HDF5Constants.H5P_DEFAULT);
+        try {
+            H5.H5Dread_long(datasetId, HDF5Constants.H5T_NATIVE_INT64, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, HDF5Constants.H5P_DEFAULT, readBuffer);
+        } finally {
+            H5.H5Dclose(datasetId);
+        }
+        return readBuffer[0];
+    }
+
+    private void writeCorpus(Path path) throws Exception {
+        H5File file = new H5File(path.toString(), FileFormat.CREATE);
+        file = (H5File) file.createFile(path.toString(), FileFormat.FILE_CREATE_OPEN);
+        file.open();
+        try (PacketWriter writer = PackageRedvoxToHdf5.createWriter(file, options)) {
+            for (DecodedPacket packet : corpus) {
+                writer.write(packet);
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
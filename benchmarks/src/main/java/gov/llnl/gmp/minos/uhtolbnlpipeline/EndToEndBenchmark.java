@@ -0,0 +1,105 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packets per second converted end to end, from packet files on disk to a
+ * closed HDF5 file, through the same code path as the command line on a
+ * synthetic corpus of {@value #PACKETS} packets of one device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    static final int PACKETS = 100;
+
+    @Param({"JSON", "RDVXZ"})
+    public String format;
+
+    @Param({"packet", "device"})
+    public String layout;
+
+    @Param({"attributes", "table"})
+    public String metadata;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"4096", "32768"})
+    public int microphoneSamples;
+
+    @Param({"true"})
+    public boolean optionalSensors;
+
+    private Path directory;
+    private List<Path> packetFiles;
+    private ConversionOptions options;
+    private String output;
+
+    @Setup(Level.Trial)
+    public void writeCorpus() throws Exception {
+        directory = Files.createTempDirectory("redvox-benchmark");
+        Path input = Files.createDirectory(directory.resolve("input"));
+        packetFiles = SyntheticPackets.corpus(input, PACKETS, microphoneSamples, optionalSensors, PacketFormat.valueOf(format));
+        output = directory.resolve("output.h5").toString();
+        options = ConversionOptions.parse(new String[]{"--threads", Integer.toString(threads), "--layout", layout, "--metadata", metadata, input.toString(), output});
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCorpus() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = new ArrayList<>();
+            files.forEach(paths::add);
+            for (int i = paths.size() - 1; i >= 0; i--) {
+                Files.delete(paths.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKETS)
+    public void convert() {
+        if (PackageRedvoxToHdf5.createHdf5File(output, PacketSource.of(packetFiles), options) == null) {
+            throw new IllegalStateException("The conversion failed, see the log.");
+        }
+    }
+}
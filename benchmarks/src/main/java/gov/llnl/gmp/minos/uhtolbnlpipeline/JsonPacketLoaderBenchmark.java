@@ -0,0 +1,117 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the original readAllLines/replace packet loading against
+ * {@link JsonPacketLoader}. Run with {@code -prof gc} to see the bytes
+ * allocated per packet ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonPacketLoaderBenchmark {
+
+    /**
+     * Roughly one packet at 80 Hz, 800 Hz and 8 kHz.
+     */
+    @Param({"4096", "32768", "262144"})
+    public int microphoneSamples;
+
+    private Path packetFile;
+
+    @Setup(Level.Trial)
+    public void writePacket() throws IOException {
+        packetFile = Files.createTempFile("redvox-benchmark", ".json");
+        Files.write(packetFile, escapedPacketJson(microphoneSamples).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePacket() throws IOException {
+        Files.deleteIfExists(packetFile);
+    }
+
+    @Benchmark
+    public String readAllLinesAndReplace() throws IOException {
+        List<String> allLines = Files.readAllLines(packetFile);
+        StringBuilder appendedLines = new StringBuilder();
+        allLines.forEach((line) -> {
+            appendedLines.append(line.replace("\\n", "").replace("\\", ""));
+        });
+
+        String json = appendedLines.toString();
+        if (json.startsWith("\"")) {
+            json = json.replaceFirst("\"", "");
+        }
+        if (json.endsWith("\"")) {
+            json = json.substring(0, json.length() - 1);
+        }
+        return json;
+    }
+
+    @Benchmark
+    public String singlePassLoader() throws IOException {
+        return JsonPacketLoader.forCurrentThread().readJson(packetFile);
+    }
+
+    /**
+     * Builds a packet file the way the Redvox servers write them: a JSON
+     * document escaped into a string literal, one array element per line.
+     */
+    static String escapedPacketJson(int microphoneSamples) {
+        Random random = new Random(42);
+        StringBuilder json = new StringBuilder("\"{\\n");
+        json.append("  \\\"api\\\": 900,\\n");
+        json.append("  \\\"uuid\\\": \\\"1234567890\\\",\\n");
+        json.append("  \\\"redvoxId\\\": \\\"0000000001\\\",\\n");
+        json.append("  \\\"evenlySampledChannels\\\": [{\\n");
+        json.append("    \\\"channelTypes\\\": [\\\"MICROPHONE\\\"],\\n");
+        json.append("    \\\"sensorName\\\": \\\"I/INTERNAL MIC\\\",\\n");
+        json.append("    \\\"sampleRateHz\\\": 80.0,\\n");
+        json.append("    \\\"int32Payload\\\": {\\n");
+        json.append("      \\\"payload\\\": [");
+        for (int i = 0; i < microphoneSamples; i++) {
+            json.append(i == 0 ? "" : ",").append("\\n        ").append(random.nextInt(65536) - 32768);
+        }
+        json.append("]\\n    }\\n  }]\\n}\"\n");
+        return json.toString();
+    }
+}
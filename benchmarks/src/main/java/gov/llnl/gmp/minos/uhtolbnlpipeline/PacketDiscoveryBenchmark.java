@@ -0,0 +1,113 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Packet files per second found in a tree of {@value #FILES} empty packet
+ * files, {@value #FILES_PER_DIRECTORY} per directory, by listing the whole
+ * tree and reading the attributes of every file afterwards the way the
+ * converter used to ({@code list}), or by the {@link PacketDiscovery} in the
+ * order the files are found ({@code discover}) and ordered within a window
+ * of 1000 packets ({@code ordered}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PacketDiscoveryBenchmark {
+
+    static final int FILES = 100000;
+    static final int FILES_PER_DIRECTORY = 1000;
+
+    @Param({"list", "discover", "ordered"})
+    public String mode;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void writeTree() throws IOException {
+        directory = Files.createTempDirectory("redvox-benchmark");
+        for (int i = 0; i < FILES; i++) {
+            Path day = directory.resolve(String.format("%03d", i / FILES_PER_DIRECTORY));
+            if (i % FILES_PER_DIRECTORY == 0) {
+                Files.createDirectory(day);
+            }
+            // 50 devices, each with a packet every 51.2 seconds.
+            Files.createFile(day.resolve(String.format("%010d_%d.rdvxz", 1000000000L + i % 50, 1564664400000L + i / 50 * 51200L)));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTree() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> paths = new ArrayList<>();
+            files.forEach(paths::add);
+            for (int i = paths.size() - 1; i >= 0; i--) {
+                Files.delete(paths.get(i));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FILES)
+    public void find(Blackhole blackhole) throws IOException {
+        if (mode.equals("list")) {
+            List<Path> filePaths = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.filter((Path path) -> path.toFile().isFile()).forEach((Path path) -> {
+                    if (PacketFormat.isPacketFile(path)) {
+                        filePaths.add(path);
+                    }
+                });
+            }
+            for (Path filePath : filePaths) {
+                PacketSource source = PacketSource.of(filePath);
+                source.readAttributes();
+                blackhole.consume(source);
+            }
+        } else {
+            for (PacketSource source : new PacketDiscovery(directory, (String fileName) -> true, mode.equals("ordered") ? 1000 : 0, true)) {
+                blackhole.consume(source);
+            }
+        }
+    }
+}
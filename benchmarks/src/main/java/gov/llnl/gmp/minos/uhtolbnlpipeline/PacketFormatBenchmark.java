@@ -0,0 +1,75 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Packets per second decoded by {@link PacketDecoder} for each input format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketFormatBenchmark {
+
+    @Param({"JSON", "RDVXZ", "PROTOBUF"})
+    public String format;
+
+    /**
+     * Roughly one packet at 80 Hz, 800 Hz and 8 kHz.
+     */
+    @Param({"4096", "32768", "262144"})
+    public int microphoneSamples;
+
+    private Path packetFile;
+
+    @Setup(Level.Trial)
+    public void writePacket() throws IOException {
+        PacketFormat packetFormat = PacketFormat.valueOf(format);
+        packetFile = Files.createTempFile("redvox-benchmark", packetFormat.extension());
+        SyntheticPackets.write(SyntheticPackets.microphonePacket(microphoneSamples, 42), packetFormat, packetFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void deletePacket() throws IOException {
+        Files.deleteIfExists(packetFile);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        return PacketDecoder.decode(packetFile);
+    }
+}
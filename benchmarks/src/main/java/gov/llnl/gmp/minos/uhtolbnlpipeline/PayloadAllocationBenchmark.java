@@ -0,0 +1,145 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.object.Datatype;
+import hdf.object.FileFormat;
+import hdf.object.Group;
+import hdf.object.h5.H5Datatype;
+import hdf.object.h5.H5File;
+import io.redvox.api900.WrappedRedvoxPacket;
+import io.redvox.apis.Api900;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.apache.commons.lang.ArrayUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The garbage produced per packet by turning protobuf payloads into sample
+ * arrays and writing them, comparing the boxed path through the api900
+ * sensor wrappers and the object API against {@link PayloadReader} and the
+ * low-level writes. Run with {@code -prof gc} and compare the
+ * {@code gc.alloc.rate.norm} rows, the bytes allocated per packet.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadAllocationBenchmark {
+
+    private static final Datatype LONG_TYPE = new H5Datatype(Datatype.CLASS_INTEGER, 8, Datatype.ORDER_BE, Datatype.NATIVE);
+
+    /**
+     * Roughly one packet at 80 Hz, 800 Hz and 8 kHz.
+     */
+    @Param({"4096", "32768", "262144"})
+    public int microphoneSamples;
+
+    private Api900.RedvoxPacket packet;
+    private Path directory;
+    private BasicFileAttributes attributes;
+    private H5File h5File;
+    private Group root;
+    private long[] samples;
+    private int datasets;
+
+    @Setup(Level.Trial)
+    public void createPacket() throws Exception {
+        packet = SyntheticPackets.microphonePacket(microphoneSamples, 1);
+        directory = Files.createTempDirectory("redvox-benchmark");
+        Path packetFile = directory.resolve("packet.pb");
+        SyntheticPackets.write(packet, PacketFormat.PROTOBUF, packetFile);
+        attributes = Files.readAttributes(packetFile, BasicFileAttributes.class);
+
+        Path output = directory.resolve("output.h5");
+        h5File = new H5File(output.toString(), FileFormat.CREATE);
+        h5File = (H5File) h5File.createFile(output.toString(), FileFormat.FILE_CREATE_OPEN);
+        h5File.open();
+        root = (Group) h5File.getRootObject();
+        samples = PayloadReader.allLongs(packet, Api900.ChannelType.MICROPHONE);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws Exception {
+        h5File.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * The decoding of the microphone before {@link PayloadReader}: a boxed
+     * list from the wrapper, copied to a boxed array, then unboxed.
+     */
+    @Benchmark
+    public long[] boxedDecode() {
+        List<Long> values = new WrappedRedvoxPacket(packet).microphoneChannel().get().payloadValues();
+        return ArrayUtils.toPrimitive(values.toArray(new Long[0]));
+    }
+
+    /**
+     * Decoding as the pipeline does it, with the sample arrays released to
+     * the pool once the packet is written.
+     */
+    @Benchmark
+    public int primitiveDecode() throws Exception {
+        DecodedPacket decoded = PacketDecoder.decode(directory, attributes, "packet", packet);
+        int sensors = decoded.sensors().size();
+        decoded.release();
+        return sensors;
+    }
+
+    /**
+     * Writing the microphone dataset through the object API, as the packet
+     * layout did.
+     */
+    @Benchmark
+    public Object objectApiWrite() throws Exception {
+        long[] dims = {1, samples.length};
+        return h5File.createScalarDS("object-" + datasets++, root, LONG_TYPE, dims, dims, null, 0, samples);
+    }
+
+    /**
+     * Writing the microphone dataset through the low-level API, as the
+     * packet layout does now.
+     */
+    @Benchmark
+    public Object lowLevelWrite() throws Exception {
+        return PackageRedvoxToHdf5.createSensorDataset(h5File, "low-level-" + datasets++, root, samples, DatasetStorage.UNFILTERED);
+    }
+}
@@ -0,0 +1,181 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import gov.llnl.gmp.minos.uhtolbnlpipeline.DecodedPacket.SensorPayload;
+import hdf.object.FileFormat;
+import hdf.object.Group;
+import hdf.object.h5.H5File;
+import io.redvox.api900.Reader;
+import io.redvox.apis.Api900;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The time per packet of each stage of converting a JSON packet, in the
+ * order the converter runs them: reading the file, unescaping the JSON
+ * document, parsing it with {@link Reader#readJson(String)}, converting
+ * the payloads to sample arrays, and writing the metadata attributes and
+ * the sensor datasets of the packet layout.
+ *
+ * The write benchmarks create new groups on every call, the output file is
+ * replaced after each iteration so it does not grow without bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StageBenchmark {
+
+    /**
+     * One packet at 80 Hz, 800 Hz and 8 kHz.
+     */
+    @Param({"4096", "32768", "262144"})
+    public int microphoneSamples;
+
+    @Param({"false", "true"})
+    public boolean optionalSensors;
+
+    private Path directory;
+    private Path packetFile;
+    private BasicFileAttributes attributes;
+    private ByteBuffer rawJson;
+    private String json;
+    private Api900.RedvoxPacket packet;
+    private DecodedPacket decoded;
+    private Map<String, String> metadata;
+    private H5File h5File;
+    private Group root;
+    private int groups;
+
+    @Setup(Level.Trial)
+    public void writePacket() throws Exception {
+        directory = Files.createTempDirectory("redvox-benchmark");
+        packet = SyntheticPackets.packet(microphoneSamples, optionalSensors, 1);
+        packetFile = directory.resolve("0000000001_000001" + PacketFormat.JSON.extension());
+        SyntheticPackets.write(packet, PacketFormat.JSON, packetFile);
+        attributes = Files.readAttributes(packetFile, BasicFileAttributes.class);
+        rawJson = ByteBuffer.wrap(Files.readAllBytes(packetFile));
+        json = JsonPacketLoader.forCurrentThread().readJson(packetFile);
+        decoded = PacketDecoder.decode(packetFile);
+
+        // The packet attributes plus the metadata of a typical sensor
+        metadata = new LinkedHashMap<>();
+        metadata.put("acquisitionServer", "wss://redvox.io/acquisition/v900");
+        metadata.put("appVersion", "2.5.0");
+        metadata.put("deviceMake", "Synthetic");
+        metadata.put("deviceModel", "Benchmark");
+        metadata.put("deviceOs", "Android");
+        metadata.put("deviceOsVersion", "9");
+        metadata.put("redvoxId", "0000000001");
+        metadata.put("timeSynchronizationServer", "wss://redvox.io/synch/v2");
+        metadata.put("uuid", "1");
+        for (SensorPayload sensor : decoded.sensors()) {
+            metadata.putAll(sensor.metadata);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createFile() throws Exception {
+        Path output = directory.resolve("output.h5");
+        h5File = PackageRedvoxToHdf5.openOutputFile(output, false);
+        root = (Group) h5File.getRootObject();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeFile() throws Exception {
+        h5File.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public ByteBuffer fileRead() throws Exception {
+        return JsonPacketLoader.forCurrentThread().read(packetFile);
+    }
+
+    @Benchmark
+    public String jsonUnescape() {
+        return JsonPacketLoader.forCurrentThread().unescape(rawJson);
+    }
+
+    @Benchmark
+    public Optional<Api900.RedvoxPacket> readJson() {
+        return Reader.readJson(json);
+    }
+
+    @Benchmark
+    public int payloadConversion() throws Exception {
+        DecodedPacket converted = PacketDecoder.decode(packetFile, attributes, "packet", packet);
+        int sensors = converted.sensors().size();
+        converted.release();
+        return sensors;
+    }
+
+    @Benchmark
+    public Group attributeWrites() throws Exception {
+        Group group = h5File.createGroup("attributes-" + groups++, root);
+        PackageRedvoxToHdf5.MetadataMapToAttribute(h5File, group, metadata);
+        return group;
+    }
+
+    @Benchmark
+    public Group datasetWrites() throws Exception {
+        Group group = h5File.createGroup("datasets-" + groups++, root);
+        for (SensorPayload sensor : decoded.sensors()) {
+            if (sensor.isGrouped()) {
+                Group sensorGroup = h5File.createGroup(sensor.name, group);
+                for (Map.Entry<String, Object> channel : sensor.channels.entrySet()) {
+                    PackageRedvoxToHdf5.createSensorDataset(h5File, channel.getKey(), sensorGroup, channel.getValue(), DatasetStorage.UNFILTERED);
+                }
+            } else {
+                PackageRedvoxToHdf5.createSensorDataset(h5File, sensor.name, group, sensor.data, DatasetStorage.UNFILTERED);
+            }
+        }
+        return group;
+    }
+}
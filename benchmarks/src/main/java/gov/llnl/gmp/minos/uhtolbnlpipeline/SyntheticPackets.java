@@ -0,0 +1,231 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import com.google.protobuf.util.JsonFormat;
+import io.redvox.apis.Api900;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Generates synthetic Redvox packets so the benchmarks run without any real
+ * data.
+ */
+final class SyntheticPackets {
+
+    private SyntheticPackets() {
+    }
+
+    /**
+     * @param microphoneSamples The number of microphone samples.
+     * @param seed The seed of the random sample values.
+     * @return A packet holding only a microphone channel.
+     */
+    static Api900.RedvoxPacket microphonePacket(int microphoneSamples, long seed) {
+        return packet(microphoneSamples, false, seed);
+    }
+
+    /**
+     * @param microphoneSamples The number of microphone samples: 4096,
+     * 32768 or 262144 for the 80 Hz, 800 Hz and 8 kHz packets of the Redvox
+     * app.
+     * @return The microphone sample rate of a packet of that many samples.
+     */
+    static double sampleRateHz(int microphoneSamples) {
+        if (microphoneSamples <= 4096) {
+            return 80.0;
+        } else if (microphoneSamples <= 32768) {
+            return 800.0;
+        }
+        return 8000.0;
+    }
+
+    /**
+     * @param microphoneSamples The number of microphone samples, see
+     * {@link #sampleRateHz(int)}.
+     * @param optionalSensors True to add the sensors of a typical phone over
+     * the duration of the packet: barometer, accelerometer, gyroscope,
+     * magnetometer, light, location and time synchronization.
+     * @param seed The seed of the random sample values.
+     * @return The packet.
+     */
+    static Api900.RedvoxPacket packet(int microphoneSamples, boolean optionalSensors, long seed) {
+        // A low frequency tone under broadband noise, about as compressible as
+        // real infrasound recordings
+        double sampleRateHz = sampleRateHz(microphoneSamples);
+        Random random = new Random(seed);
+        Api900.Int32Payload.Builder payload = Api900.Int32Payload.newBuilder();
+        for (int i = 0; i < microphoneSamples; i++) {
+            double tone = 2000 * Math.sin(2 * Math.PI * 0.5 * (seed * microphoneSamples + i) / sampleRateHz);
+            payload.addPayload((int) Math.round(tone + 60 * random.nextGaussian()));
+        }
+
+        // Consecutive seeds are consecutive packets of the device
+        double seconds = microphoneSamples / sampleRateHz;
+        long startMicroseconds = 1_546_300_800_000_000L + Math.round(seed * seconds * 1e6);
+        Api900.RedvoxPacket.Builder packet = Api900.RedvoxPacket.newBuilder()
+                .setApi(900)
+                .setUuid(Long.toString(seed))
+                .setRedvoxId("0000000001")
+                .setDeviceMake("Synthetic")
+                .setDeviceModel("Benchmark")
+                .setDeviceOs("Android")
+                .setDeviceOsVersion("9")
+                .setAppVersion("2.5.0")
+                .setAppFileStartTimestampEpochMicrosecondsUtc(startMicroseconds)
+                .addEvenlySampledChannels(Api900.EvenlySampledChannel.newBuilder()
+                        .addChannelTypes(Api900.ChannelType.MICROPHONE)
+                        .setSensorName("I/INTERNAL MIC")
+                        .setSampleRateHz(sampleRateHz)
+                        .setFirstSampleTimestampEpochMicrosecondsUtc(startMicroseconds)
+                        .setInt32Payload(payload));
+
+        if (optionalSensors) {
+            packet.addUnevenlySampledChannels(unevenChannel("BMP280 pressure", startMicroseconds, seconds, 1.0, random,
+                    new double[]{101.3}, new double[]{0.01}, Api900.ChannelType.BAROMETER));
+            packet.addUnevenlySampledChannels(unevenChannel("LSM6DSL accelerometer", startMicroseconds, seconds, 50.0, random,
+                    new double[]{0.0, 0.0, 9.81}, new double[]{0.05, 0.05, 0.05},
+                    Api900.ChannelType.ACCELEROMETER_X, Api900.ChannelType.ACCELEROMETER_Y, Api900.ChannelType.ACCELEROMETER_Z));
+            packet.addUnevenlySampledChannels(unevenChannel("LSM6DSL gyroscope", startMicroseconds, seconds, 50.0, random,
+                    new double[]{0.0, 0.0, 0.0}, new double[]{0.01, 0.01, 0.01},
+                    Api900.ChannelType.GYROSCOPE_X, Api900.ChannelType.GYROSCOPE_Y, Api900.ChannelType.GYROSCOPE_Z));
+            packet.addUnevenlySampledChannels(unevenChannel("AK09916 magnetometer", startMicroseconds, seconds, 50.0, random,
+                    new double[]{22.0, -5.0, -40.0}, new double[]{0.5, 0.5, 0.5},
+                    Api900.ChannelType.MAGNETOMETER_X, Api900.ChannelType.MAGNETOMETER_Y, Api900.ChannelType.MAGNETOMETER_Z));
+            packet.addUnevenlySampledChannels(unevenChannel("TMD3725 light", startMicroseconds, seconds, 5.0, random,
+                    new double[]{320.0}, new double[]{4.0}, Api900.ChannelType.LIGHT));
+            packet.addUnevenlySampledChannels(unevenChannel("gps", startMicroseconds, seconds, 0.1, random,
+                    new double[]{21.2975, -157.8163, 20.0, 0.0, 8.0}, new double[]{0.00001, 0.00001, 2.0, 0.1, 1.0},
+                    Api900.ChannelType.LATITUDE, Api900.ChannelType.LONGITUDE, Api900.ChannelType.ALTITUDE,
+                    Api900.ChannelType.SPEED, Api900.ChannelType.ACCURACY));
+
+            // Six timestamps per exchange with the synchronization server
+            Api900.Int64Payload.Builder exchanges = Api900.Int64Payload.newBuilder();
+            for (int i = 0; i < 6 * 8; i++) {
+                exchanges.addPayload(startMicroseconds + i * 125_000L + random.nextInt(1000));
+            }
+            packet.addUnevenlySampledChannels(Api900.UnevenlySampledChannel.newBuilder()
+                    .addChannelTypes(Api900.ChannelType.TIME_SYNCHRONIZATION)
+                    .setSensorName("")
+                    .setInt64Payload(exchanges));
+        }
+        return packet.build();
+    }
+
+    /**
+     * An unevenly sampled channel of normally distributed values, the
+     * samples of all channel types interleaved.
+     */
+    private static Api900.UnevenlySampledChannel.Builder unevenChannel(String sensorName, long startMicroseconds, double seconds,
+            double rateHz, Random random, double[] means, double[] deviations, Api900.ChannelType... types) {
+        Api900.UnevenlySampledChannel.Builder channel = Api900.UnevenlySampledChannel.newBuilder().setSensorName(sensorName);
+        for (Api900.ChannelType type : types) {
+            channel.addChannelTypes(type);
+        }
+        Api900.Float64Payload.Builder payload = Api900.Float64Payload.newBuilder();
+        int samples = Math.max(1, (int) (seconds * rateHz));
+        for (int i = 0; i < samples; i++) {
+            // Phone sensors deliver samples with a few milliseconds of jitter
+            channel.addTimestampsMicrosecondsUtc(startMicroseconds + (long) (i * 1e6 / rateHz) + random.nextInt(5000));
+            for (int j = 0; j < types.length; j++) {
+                payload.addPayload(means[j] + deviations[j] * random.nextGaussian());
+            }
+        }
+        return channel.setFloat64Payload(payload);
+    }
+
+    /**
+     * Writes synthetic microphone packets to a directory and decodes them, as
+     * the writer stage receives them.
+     *
+     * @param directory Where to write the packet files.
+     * @param packets The number of packets.
+     * @param microphoneSamples The number of microphone samples per packet.
+     * @return The decoded packets.
+     * @throws Exception If a packet could not be written or decoded.
+     */
+    static List<DecodedPacket> decodedCorpus(Path directory, int packets, int microphoneSamples) throws Exception {
+        List<DecodedPacket> corpus = new ArrayList<>();
+        for (Path packetFile : corpus(directory, packets, microphoneSamples, false, PacketFormat.PROTOBUF)) {
+            corpus.add(PacketDecoder.decode(packetFile));
+        }
+        return corpus;
+    }
+
+    /**
+     * Writes synthetic packets of one device to a directory, named like the
+     * files of the Redvox infrastructure.
+     *
+     * @param directory Where to write the packet files.
+     * @param packets The number of packets.
+     * @param microphoneSamples The number of microphone samples per packet.
+     * @param optionalSensors True to add the sensors besides the microphone.
+     * @param format The file format.
+     * @return The packet files.
+     * @throws IOException If a packet could not be written.
+     */
+    static List<Path> corpus(Path directory, int packets, int microphoneSamples, boolean optionalSensors, PacketFormat format) throws IOException {
+        List<Path> packetFiles = new ArrayList<>();
+        for (int i = 0; i < packets; i++) {
+            Path packetFile = directory.resolve(String.format("0000000001_%06d%s", i, format.extension()));
+            write(packet(microphoneSamples, optionalSensors, i), format, packetFile);
+            packetFiles.add(packetFile);
+        }
+        return packetFiles;
+    }
+
+    /**
+     * Writes a packet the way it arrives from the Redvox infrastructure.
+     *
+     * @param packet The packet to write.
+     * @param format The file format.
+     * @param path Where to write the packet.
+     * @throws IOException If the file could not be written.
+     */
+    static void write(Api900.RedvoxPacket packet, PacketFormat format, Path path) throws IOException {
+        switch (format) {
+            case JSON:
+                // The JSON document escaped into a string literal
+                String json = JsonFormat.printer().print(packet);
+                String escaped = "\"" + json.replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+                Files.write(path, escaped.getBytes(StandardCharsets.UTF_8));
+                break;
+            case RDVXZ:
+                byte[] serialized = packet.toByteArray();
+                byte[] compressed = LZ4Factory.fastestInstance().fastCompressor().compress(serialized);
+                byte[] rdvxz = new byte[compressed.length + 4];
+                rdvxz[0] = (byte) (serialized.length >>> 24);
+                rdvxz[1] = (byte) (serialized.length >>> 16);
+                rdvxz[2] = (byte) (serialized.length >>> 8);
+                rdvxz[3] = (byte) serialized.length;
+                System.arraycopy(compressed, 0, rdvxz, 4, compressed.length);
+                Files.write(path, rdvxz);
+                break;
+            case PROTOBUF:
+                Files.write(path, packet.toByteArray());
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown packet format " + format);
+        }
+    }
+}
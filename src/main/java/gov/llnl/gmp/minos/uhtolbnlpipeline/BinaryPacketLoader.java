@@ -0,0 +1,173 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import com.google.protobuf.CodedInputStream;
+import io.redvox.apis.Api900;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Loads binary Redvox packets straight into protobuf messages, without going
+ * through JSON.
+ *
+ * A .rdvxz file is a 4 byte big-endian uncompressed length followed by an
+ * LZ4 block holding the serialized protobuf packet. A .pb file is the
+ * serialized packet alone. The LZ4 decompressor is the lz4-java library
+ * api900's own reader decompresses packets with, taken from api900's
+ * dependencies so both always agree on the version.
+ *
+ * The file and the decompressed packet are read into buffers the loader
+ * keeps between packets instead of arrays allocated for every packet, so a
+ * decoder thread converting thousands of packets allocates little besides
+ * the parsed message.
+ *
+ * Instances are not thread safe, use {@link #forCurrentThread()}.
+ */
+final class BinaryPacketLoader {
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+
+    private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+    private static final ThreadLocal<BinaryPacketLoader> LOADERS = ThreadLocal.withInitial(BinaryPacketLoader::new);
+
+    private byte[] fileBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private byte[] packetBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * @return The loader owned by the calling thread.
+     */
+    static BinaryPacketLoader forCurrentThread() {
+        return LOADERS.get();
+    }
+
+    /**
+     * A method to read a Redvox packet from a binary file.
+     *
+     * @param filePath The path to the packet on disk.
+     * @param format {@link PacketFormat#RDVXZ} or
+     * {@link PacketFormat#PROTOBUF}.
+     * @return The Redvox packet.
+     * @throws IOException If the file could not be read or decoded.
+     */
+    Api900.RedvoxPacket load(Path filePath, PacketFormat format) throws IOException {
+        return parse(read(filePath), format);
+    }
+
+    /**
+     * Parses the packet last read by {@link #read(PacketSource)} or
+     * {@link #read(Path)}.
+     *
+     * @param length The number of bytes read.
+     * @param format {@link PacketFormat#RDVXZ} or
+     * {@link PacketFormat#PROTOBUF}.
+     * @return The Redvox packet.
+     * @throws IOException If the packet could not be decoded.
+     */
+    Api900.RedvoxPacket parse(int length, PacketFormat format) throws IOException {
+        if (format == PacketFormat.PROTOBUF) {
+            return Api900.RedvoxPacket.parseFrom(CodedInputStream.newInstance(fileBuffer, 0, length));
+        }
+        return decompress(fileBuffer, length);
+    }
+
+    /**
+     * Decompresses and parses an .rdvxz packet.
+     *
+     * @param compressed The contents of the .rdvxz file.
+     * @param length The number of valid bytes in {@code compressed}.
+     * @return The Redvox packet.
+     * @throws IOException If the packet could not be decoded.
+     */
+    Api900.RedvoxPacket decompress(byte[] compressed, int length) throws IOException {
+        if (length < 4) {
+            throw new IOException("Truncated .rdvxz packet, only " + length + " bytes");
+        }
+        int uncompressedLength = ((compressed[0] & 0xff) << 24)
+                | ((compressed[1] & 0xff) << 16)
+                | ((compressed[2] & 0xff) << 8)
+                | (compressed[3] & 0xff);
+        if (uncompressedLength < 0) {
+            throw new IOException("Invalid .rdvxz packet length " + uncompressedLength);
+        }
+        if (packetBuffer.length < uncompressedLength) {
+            packetBuffer = new byte[grow(uncompressedLength)];
+        }
+        try {
+            DECOMPRESSOR.decompress(compressed, 4, packetBuffer, 0, uncompressedLength);
+        } catch (RuntimeException e) {
+            throw new IOException("Could not decompress .rdvxz packet", e);
+        }
+        return Api900.RedvoxPacket.parseFrom(CodedInputStream.newInstance(packetBuffer, 0, uncompressedLength));
+    }
+
+    /**
+     * Reads a packet into the loader's file buffer.
+     *
+     * @param source A packet file or archive entry.
+     * @return The number of bytes read.
+     * @throws IOException If the file could not be read.
+     */
+    int read(PacketSource source) throws IOException {
+        byte[] contents = source.contents();
+        if (contents == null) {
+            return read(source.path());
+        }
+        if (fileBuffer.length < contents.length) {
+            fileBuffer = new byte[grow(contents.length)];
+        }
+        System.arraycopy(contents, 0, fileBuffer, 0, contents.length);
+        return contents.length;
+    }
+
+    /**
+     * Reads a packet file into the loader's file buffer.
+     *
+     * @param filePath The path to the packet on disk.
+     * @return The number of bytes read.
+     * @throws IOException If the file could not be read.
+     */
+    int read(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Packet file too large: " + filePath);
+            }
+            if (fileBuffer.length < size) {
+                fileBuffer = new byte[grow((int) size)];
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(fileBuffer, 0, (int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        }
+    }
+
+    private static int grow(int required) {
+        int capacity = Integer.highestOneBit(required) << 1;
+        return capacity > required ? capacity : required;
+    }
+}
@@ -0,0 +1,208 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.Group;
+import hdf.object.HObject;
+import hdf.object.h5.H5File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A table stored as a group of equally long extendible datasets, one per
+ * column. Columns hold {@code long}, {@code double} or variable length
+ * string values, the type of a column is set by the first value it is given.
+ * Rows are buffered and written in batches; columns that first appear after
+ * some rows have been written are zero filled for the earlier rows.
+ */
+final class ColumnTable implements AutoCloseable {
+
+    private static final int BATCH_ROWS = 1024;
+
+    private final long groupId;
+    private final Map<String, ExtendibleDataset> columns = new LinkedHashMap<>();
+    private final Map<String, Object> pending = new LinkedHashMap<>();
+    private long writtenRows;
+    private int pendingRows;
+
+    private ColumnTable(long groupId) {
+        this.groupId = groupId;
+    }
+
+    /**
+     * Opens the table's group below a parent group, creating it if it does not
+     * exist yet. The columns of an existing table are opened as well, so rows
+     * appended later stay aligned.
+     *
+     * @param h5File The file holding the table.
+     * @param parentPath The full path of the parent group, empty for the root.
+     * @param name The name of the table's group.
+     * @param auxiliary Datasets kept in the table's group by its owner that
+     * are not columns. Groups in the table's group are never columns.
+     * @return The open table.
+     * @throws Exception If the table could not be opened or created.
+     */
+    static ColumnTable openOrCreate(H5File h5File, String parentPath, String name, String... auxiliary) throws Exception {
+        long fileId = h5File.getFID();
+        String path = parentPath + "/" + name;
+        if (!H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)) {
+            long groupId = H5.H5Gcreate(fileId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+            return new ColumnTable(groupId);
+        }
+
+        ColumnTable table = new ColumnTable(H5.H5Gopen(fileId, path, HDF5Constants.H5P_DEFAULT));
+        List<String> excluded = Arrays.asList(auxiliary);
+        for (HObject member : ((Group) h5File.get(path)).getMemberList()) {
+            if (member instanceof Group || excluded.contains(member.getName())) {
+                continue;
+            }
+            ExtendibleDataset column = ExtendibleDataset.openOrCreate(table.groupId, member.getName(), SampleType.INT64, DatasetStorage.UNFILTERED, BATCH_ROWS);
+            table.columns.put(member.getName(), column);
+            table.pending.put(member.getName(), column.type().newArray(BATCH_ROWS));
+            table.writtenRows = Math.max(table.writtenRows, column.length());
+        }
+        return table;
+    }
+
+    /**
+     * @return The number of rows in the table, including buffered rows.
+     */
+    long rows() {
+        return writtenRows + pendingRows;
+    }
+
+    /**
+     * Reads a whole {@code long} column as it was when the table was opened.
+     * Must be called before any rows are added.
+     *
+     * @param column The column name.
+     * @return The values of the column, all zero if the column does not
+     * exist.
+     * @throws HDF5Exception If the column could not be read.
+     */
+    long[] read(String column) throws HDF5Exception {
+        if (pendingRows > 0) {
+            throw new IllegalStateException("Columns can only be read before rows are added.");
+        }
+        long[] values = new long[Math.toIntExact(writtenRows)];
+        ExtendibleDataset dataset = columns.get(column);
+        if (dataset != null && values.length > 0) {
+            dataset.read(values);
+        }
+        return values;
+    }
+
+    /**
+     * Sets a {@code long} column of the current row.
+     *
+     * @param column The column name.
+     * @param value The value.
+     * @throws HDF5Exception If a new column could not be created.
+     */
+    void set(String column, long value) throws HDF5Exception {
+        ((long[]) pending(column, SampleType.INT64))[pendingRows] = value;
+    }
+
+    /**
+     * Sets a {@code double} column of the current row.
+     *
+     * @param column The column name.
+     * @param value The value.
+     * @throws HDF5Exception If a new column could not be created.
+     */
+    void set(String column, double value) throws HDF5Exception {
+        ((double[]) pending(column, SampleType.FLOAT64))[pendingRows] = value;
+    }
+
+    /**
+     * Sets a string column of the current row.
+     *
+     * @param column The column name.
+     * @param value The value, null is stored as an empty string.
+     * @throws HDF5Exception If a new column could not be created.
+     */
+    void set(String column, String value) throws HDF5Exception {
+        ((String[]) pending(column, SampleType.STRING))[pendingRows] = value == null ? "" : value;
+    }
+
+    /**
+     * @return The buffered values of a column, creating the column if it
+     * does not exist yet.
+     */
+    private Object pending(String column, SampleType type) throws HDF5Exception {
+        Object values = pending.get(column);
+        if (values == null) {
+            ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(groupId, column, type, DatasetStorage.UNFILTERED, BATCH_ROWS);
+            dataset.extendTo(writtenRows);
+            columns.put(column, dataset);
+            values = type.newArray(BATCH_ROWS);
+            pending.put(column, values);
+        }
+        if (SampleType.of(values) != type) {
+            throw new IllegalArgumentException("Column " + column + " holds " + SampleType.of(values) + " values, not " + type + ".");
+        }
+        return values;
+    }
+
+    /**
+     * Completes the current row. Columns not set for the row are zero.
+     *
+     * @throws HDF5Exception If a full batch could not be written.
+     */
+    void endRow() throws HDF5Exception {
+        pendingRows++;
+        if (pendingRows == BATCH_ROWS) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered rows to the file.
+     *
+     * @throws HDF5Exception If the rows could not be written.
+     */
+    void flush() throws HDF5Exception {
+        if (pendingRows == 0) {
+            return;
+        }
+        for (Map.Entry<String, ExtendibleDataset> column : columns.entrySet()) {
+            Object values = pending.get(column.getKey());
+            column.getValue().extendTo(writtenRows);
+            column.getValue().append(values, pendingRows);
+            SampleType.clear(values, pendingRows);
+        }
+        writtenRows += pendingRows;
+        pendingRows = 0;
+    }
+
+    @Override
+    public void close() throws HDF5Exception {
+        try {
+            flush();
+        } finally {
+            for (ExtendibleDataset column : columns.values()) {
+                column.close();
+            }
+            H5.H5Gclose(groupId);
+        }
+    }
+}
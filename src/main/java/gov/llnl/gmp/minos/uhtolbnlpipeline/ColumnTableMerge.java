@@ -0,0 +1,321 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.FileFormat;
+import hdf.object.Group;
+import hdf.object.HObject;
+import hdf.object.h5.H5File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges the {@link ColumnTable}s of the same name in several shard files
+ * into one table of the master file of a {@link ShardedConversion}, holding
+ * the rows of every shard in shard order.
+ *
+ * Number columns are virtual datasets mapping the columns of the shards, so
+ * their values stay in the shard files and are not copied. String columns,
+ * dictionary encoded columns, whose codes are translated to a dictionary of
+ * all shards, and offset columns, which are shifted by the length of the
+ * datasets of the earlier shards they point into, are copied. A column
+ * missing from a shard reads as zero, or the empty string, for its rows.
+ *
+ * Virtual datasets need HDF5 1.10 or later to be read, and the shard files
+ * in the same directory as the master file.
+ */
+final class ColumnTableMerge {
+
+    private static final long CHUNK_ROWS = 1024;
+
+    private ColumnTableMerge() {
+    }
+
+    /**
+     * @param master The master file.
+     * @param shardPaths The shard files, in the same directory as the master.
+     * @param group The name of the table's group at the root of the shards.
+     * @param dictionaries The group in the table holding the
+     * {@link StringDictionary} of each dictionary encoded column, or null.
+     * @param offsets The columns holding offsets into another dataset of the
+     * table, e.g. the text of the {@link ConversionManifest}, by column. The
+     * datasets pointed into are concatenated like columns.
+     * @return The number of rows of the merged table, -1 if no shard has
+     * the table.
+     * @throws Exception If a shard could not be read or the master not
+     * written.
+     */
+    static long merge(H5File master, List<Path> shardPaths, String group, String dictionaries, Map<String, String> offsets) throws Exception {
+        List<Shard> shards = new ArrayList<>();
+        try {
+            for (Path shardPath : shardPaths) {
+                Shard shard = Shard.open(shardPath, group, offsets.values());
+                if (shard != null) {
+                    shards.add(shard);
+                }
+            }
+            if (shards.isEmpty()) {
+                return -1;
+            }
+
+            Map<String, SampleType> columns = new LinkedHashMap<>();
+            for (Shard shard : shards) {
+                for (Map.Entry<String, SampleType> column : shard.types.entrySet()) {
+                    columns.putIfAbsent(column.getKey(), column.getValue());
+                }
+            }
+
+            long rows = 0;
+            long groupId = H5.H5Gcreate(master.getFID(), "/" + group, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+            try {
+                Map<String, long[]> bases = new HashMap<>();
+                for (String dataset : offsets.values()) {
+                    if (!bases.containsKey(dataset) && columns.containsKey(dataset)) {
+                        bases.put(dataset, createVirtual(groupId, dataset, group, shards, false));
+                    }
+                }
+                long dictionariesGroupId = -1;
+                try {
+                    for (Map.Entry<String, SampleType> column : columns.entrySet()) {
+                        String name = column.getKey();
+                        if (offsets.containsValue(name)) {
+                            continue;
+                        }
+                        boolean encoded = false;
+                        for (Shard shard : shards) {
+                            encoded |= dictionaries != null && shard.hasDataset("/" + group + "/" + dictionaries + "/" + name);
+                        }
+                        if (encoded) {
+                            if (dictionariesGroupId < 0) {
+                                dictionariesGroupId = H5.H5Gcreate(groupId, dictionaries, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+                            }
+                            copyEncoded(groupId, dictionariesGroupId, name, group, dictionaries, shards);
+                        } else if (offsets.containsKey(name)) {
+                            copy(groupId, name, column.getValue(), group, shards, bases.get(offsets.get(name)));
+                        } else if (column.getValue() == SampleType.STRING) {
+                            copy(groupId, name, column.getValue(), group, shards, null);
+                        } else {
+                            createVirtual(groupId, name, group, shards, true);
+                        }
+                    }
+                } finally {
+                    if (dictionariesGroupId >= 0) {
+                        H5.H5Gclose(dictionariesGroupId);
+                    }
+                }
+            } finally {
+                H5.H5Gclose(groupId);
+            }
+            for (Shard shard : shards) {
+                rows += shard.rows;
+            }
+            return rows;
+        } finally {
+            for (Shard shard : shards) {
+                shard.file.close();
+            }
+        }
+    }
+
+    /**
+     * Creates a virtual dataset concatenating a dataset of every shard.
+     *
+     * @param rowAligned True for columns, whose part of the merged column is
+     * as long as the shard's table even if the shard lacks the column.
+     * @return The offset of each shard's part.
+     */
+    private static long[] createVirtual(long groupId, String name, String group, List<Shard> shards, boolean rowAligned) throws HDF5Exception {
+        String sourcePath = "/" + group + "/" + name;
+        long[] bases = new long[shards.size()];
+        long length = 0;
+        for (int i = 0; i < shards.size(); i++) {
+            bases[i] = length;
+            length += rowAligned ? shards.get(i).rows : shards.get(i).length(name);
+        }
+
+        long typeId = -1;
+        long propertiesId = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+        long spaceId = H5.H5Screate_simple(1, new long[]{length}, new long[]{length});
+        try {
+            for (int i = 0; i < shards.size(); i++) {
+                Shard shard = shards.get(i);
+                long count = Math.min(shard.length(name), rowAligned ? shard.rows : Long.MAX_VALUE);
+                if (count <= 0) {
+                    continue;
+                }
+                if (typeId < 0) {
+                    long datasetId = H5.H5Dopen(shard.file.getFID(), sourcePath, HDF5Constants.H5P_DEFAULT);
+                    try {
+                        typeId = H5.H5Dget_type(datasetId);
+                    } finally {
+                        H5.H5Dclose(datasetId);
+                    }
+                }
+                H5.H5Sselect_hyperslab(spaceId, HDF5Constants.H5S_SELECT_SET, new long[]{bases[i]}, null, new long[]{count}, null);
+                long sourceSpaceId = H5.H5Screate_simple(1, new long[]{count}, null);
+                try {
+                    H5.H5Pset_virtual(propertiesId, spaceId, shard.fileName, sourcePath, sourceSpaceId);
+                } finally {
+                    H5.H5Sclose(sourceSpaceId);
+                }
+            }
+            if (typeId < 0) {
+                typeId = H5.H5Tcopy(SampleType.INT64.fileType());
+            }
+            H5.H5Sselect_all(spaceId);
+            H5.H5Dclose(H5.H5Dcreate(groupId, name, typeId, spaceId, HDF5Constants.H5P_DEFAULT, propertiesId, HDF5Constants.H5P_DEFAULT));
+        } finally {
+            if (typeId >= 0) {
+                H5.H5Tclose(typeId);
+            }
+            H5.H5Sclose(spaceId);
+            H5.H5Pclose(propertiesId);
+        }
+        return bases;
+    }
+
+    /**
+     * Copies a column of every shard, adding the base of the shard to the
+     * values of offset columns.
+     */
+    private static void copy(long groupId, String name, SampleType type, String group, List<Shard> shards, long[] bases) throws HDF5Exception {
+        try (ExtendibleDataset merged = ExtendibleDataset.openOrCreate(groupId, name, type, DatasetStorage.UNFILTERED, CHUNK_ROWS)) {
+            for (int i = 0; i < shards.size(); i++) {
+                Object values = shards.get(i).read(group, name, type);
+                if (bases != null) {
+                    long[] offsets = (long[]) values;
+                    for (int row = 0; row < offsets.length; row++) {
+                        offsets[row] += bases[i];
+                    }
+                }
+                merged.append(values);
+            }
+        }
+    }
+
+    /**
+     * Copies a dictionary encoded column of every shard, translating the
+     * codes to a dictionary of the values of all shards.
+     */
+    private static void copyEncoded(long groupId, long dictionariesGroupId, String name, String group, String dictionaries, List<Shard> shards) throws HDF5Exception {
+        try (StringDictionary dictionary = StringDictionary.openOrCreate(dictionariesGroupId, name);
+                ExtendibleDataset merged = ExtendibleDataset.openOrCreate(groupId, name, SampleType.INT64, DatasetStorage.UNFILTERED, CHUNK_ROWS)) {
+            for (Shard shard : shards) {
+                long[] codes = (long[]) shard.read(group, name, SampleType.INT64);
+                String[] values = (String[]) shard.read(group + "/" + dictionaries, name, SampleType.STRING);
+                long[] mergedCodes = new long[values.length];
+                for (int code = 0; code < values.length; code++) {
+                    mergedCodes[code] = dictionary.encode(values[code]);
+                }
+                long missing = shard.length(name) < 0 ? dictionary.encode("") : 0;
+                for (int row = 0; row < codes.length; row++) {
+                    codes[row] = shard.length(name) < 0 || codes[row] >= mergedCodes.length ? missing : mergedCodes[(int) codes[row]];
+                }
+                merged.append(codes);
+            }
+        }
+    }
+
+    /**
+     * The table of one shard file, kept open while the tables are merged.
+     */
+    private static final class Shard {
+
+        final String fileName;
+        final H5File file;
+        final Map<String, SampleType> types = new LinkedHashMap<>();
+        final Map<String, Long> lengths = new HashMap<>();
+        long rows;
+
+        private Shard(Path path, H5File file) {
+            this.fileName = path.getFileName().toString();
+            this.file = file;
+        }
+
+        /**
+         * @param auxiliary Datasets of the table that are not columns.
+         * @return The shard, or null if it has no table of this name.
+         */
+        static Shard open(Path path, String group, Collection<String> auxiliary) throws Exception {
+            H5File file = new H5File(path.toString(), FileFormat.READ);
+            file.open();
+            try {
+                if (!H5.H5Lexists(file.getFID(), "/" + group, HDF5Constants.H5P_DEFAULT)) {
+                    file.close();
+                    return null;
+                }
+                Shard shard = new Shard(path, file);
+                for (HObject member : ((Group) file.get("/" + group)).getMemberList()) {
+                    if (member instanceof Group) {
+                        continue;
+                    }
+                    try (ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(file.getFID(), "/" + group + "/" + member.getName(),
+                            SampleType.INT64, DatasetStorage.UNFILTERED, CHUNK_ROWS)) {
+                        shard.types.put(member.getName(), dataset.type());
+                        shard.lengths.put(member.getName(), dataset.length());
+                        if (!auxiliary.contains(member.getName())) {
+                            shard.rows = Math.max(shard.rows, dataset.length());
+                        }
+                    }
+                }
+                return shard;
+            } catch (Exception e) {
+                file.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return The length of a dataset of the table, -1 if the shard
+         * does not have it.
+         */
+        long length(String name) {
+            Long length = lengths.get(name);
+            return length == null ? -1 : length;
+        }
+
+        boolean hasDataset(String path) throws HDF5Exception {
+            return H5.H5Lexists(file.getFID(), path, HDF5Constants.H5P_DEFAULT);
+        }
+
+        /**
+         * Reads a whole dataset below the table's group, or for a column the
+         * shard lacks an array of zeros or empty strings, one per row.
+         */
+        Object read(String group, String name, SampleType type) throws HDF5Exception {
+            String path = "/" + group + "/" + name;
+            if (!hasDataset(path)) {
+                return type.newArray(Math.toIntExact(rows));
+            }
+            try (ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(file.getFID(), path, type, DatasetStorage.UNFILTERED, CHUNK_ROWS)) {
+                Object values = dataset.type().newArray(Math.toIntExact(dataset.length()));
+                if (dataset.length() > 0) {
+                    dataset.read(values);
+                }
+                return values;
+            }
+        }
+    }
+}
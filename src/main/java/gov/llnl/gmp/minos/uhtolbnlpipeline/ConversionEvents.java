@@ -0,0 +1,59 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+/**
+ * Emits {@link PacketConversionEvent}s when the JVM has Flight Recorder
+ * (JDK 11, or 8u262 and later) and does nothing otherwise. Events are only
+ * handled as Objects here, so the event class is never loaded on JVMs
+ * without Flight Recorder.
+ */
+final class ConversionEvents {
+
+    private static final boolean AVAILABLE = isFlightRecorderAvailable();
+
+    private ConversionEvents() {
+    }
+
+    /**
+     * @return A started event, or null without Flight Recorder.
+     */
+    static Object begin() {
+        return AVAILABLE ? PacketConversionEvent.startEvent() : null;
+    }
+
+    /**
+     * Ends and commits an event if Flight Recorder is recording it.
+     *
+     * @param event The event returned by {@link #begin()}.
+     * @param packet The converted packet.
+     */
+    static void commit(Object event, DecodedPacket packet) {
+        if (event != null) {
+            PacketConversionEvent.commitEvent(event, packet);
+        }
+    }
+
+    private static boolean isFlightRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
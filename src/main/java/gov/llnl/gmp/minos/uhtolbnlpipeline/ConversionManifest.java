@@ -0,0 +1,380 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.h5.H5File;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The record of every packet converted into an HDF5 file, stored in the file
+ * itself so later runs can convert only the packets they have not seen.
+ *
+ * The manifest is a {@link ColumnTable} named {@value #GROUP} at the root of
+ * the file with one row per packet: a 64 bit hash of the packet file's
+ * absolute path (or {@code <archive path>!/<entry>} for a packet read from a
+ * {@link PacketArchive}), its size and modification time, a hash of the packet uuid
+ * and the packet's start timestamp. The path and uuid themselves are kept
+ * as UTF-8 text in the {@code text} dataset of the table, referenced by the
+ * {@code pathOffset}/{@code pathLength} and {@code uuidOffset}/
+ * {@code uuidLength} columns.
+ *
+ * When the file is opened the hash columns are loaded and sorted, so every
+ * lookup is a binary search however many packets the file holds. Each sorted
+ * entry is a single long, the high bits of the hash with the row in the low
+ * bits, so sorting allocates nothing per packet. The text stays in the file:
+ * a hash found is only taken as a match if the stored path or uuid, read
+ * from the text dataset, equals the one looked up, so two packets whose
+ * hashes collide are both converted.
+ *
+ * As a {@link PacketWriter} the manifest wraps the writer of the layout:
+ * packets whose uuid is already in the file are skipped, every other packet
+ * is recorded once it has been written.
+ */
+final class ConversionManifest implements PacketWriter {
+
+    static final String GROUP = "conversionManifest";
+
+    static final String TEXT = "text";
+    private static final int TEXT_FLUSH_BYTES = 1 << 16;
+
+    private final ColumnTable table;
+    private final ExtendibleDataset text;
+    private final ByteArrayOutputStream pendingText = new ByteArrayOutputStream();
+    private final PacketWriter writer;
+
+    /**
+     * The path keys of the converted packets in ascending order, see
+     * {@link #keys(long[], long)}, and the size, modification time and path
+     * text of each file by row.
+     */
+    private final long[] pathKeys;
+    private final long[] sizes;
+    private final long[] lastModifiedMillis;
+    private final long[] pathOffsets;
+    private final long[] pathLengths;
+    /**
+     * The uuid keys of the converted packets in ascending order, and the
+     * uuid text of each packet by row.
+     */
+    private final long[] uuidKeys;
+    private final long[] uuidOffsets;
+    private final long[] uuidLengths;
+    private final long rowMask;
+    /**
+     * The length of the text of the packets converted before the file was
+     * opened.
+     */
+    private final long storedTextLength;
+    private final Set<String> newUuids = new HashSet<>();
+
+    private ConversionManifest(ColumnTable table, ExtendibleDataset text, PacketWriter writer) throws HDF5Exception {
+        this.table = table;
+        this.text = text;
+        this.writer = writer;
+
+        rowMask = rowMask(table.rows());
+        pathKeys = keys(table.read("pathHash"), rowMask);
+        sizes = table.read("size");
+        lastModifiedMillis = table.read("lastModifiedMillis");
+        pathOffsets = table.read("pathOffset");
+        pathLengths = table.read("pathLength");
+        uuidKeys = keys(table.read("uuidHash"), rowMask);
+        uuidOffsets = table.read("uuidOffset");
+        uuidLengths = table.read("uuidLength");
+        storedTextLength = text.length();
+    }
+
+    /**
+     * @param rows The number of rows of the manifest.
+     * @return The mask of the low bits of a key holding the row.
+     */
+    private static long rowMask(long rows) {
+        return (1L << (64 - Long.numberOfLeadingZeros(Math.max(1, rows - 1)))) - 1;
+    }
+
+    /**
+     * @param hashes The hashes of every row.
+     * @param rowMask The mask of the row bits.
+     * @return A key per row in ascending order: the bits of the hash above
+     * the mask and the row below it. Keys sort by hash, and rows whose
+     * hashes only differ in the low bits share a prefix, so every hit is
+     * confirmed by its text.
+     */
+    private static long[] keys(long[] hashes, long rowMask) {
+        long[] keys = new long[hashes.length];
+        for (int row = 0; row < keys.length; row++) {
+            keys[row] = (hashes[row] & ~rowMask) | row;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * @param keys Keys in ascending order.
+     * @param hash A hash.
+     * @param rowMask The mask of the row bits.
+     * @return The index of the first key with the prefix of the hash, the
+     * file may hold several, or of the first key above it.
+     */
+    private static int first(long[] keys, long hash, long rowMask) {
+        int index = Arrays.binarySearch(keys, hash & ~rowMask);
+        return index < 0 ? -index - 1 : index;
+    }
+
+    /**
+     * Reads only the stored bytes of one path or uuid.
+     *
+     * @param text The text dataset of the manifest.
+     * @param textLength The length of the text that may be read.
+     * @return True if the stored text at the offset is the bytes.
+     * @throws HDF5Exception If the text could not be read.
+     */
+    private static boolean textEquals(ExtendibleDataset text, long textLength, long offset, long length, byte[] bytes) throws HDF5Exception {
+        if (length != bytes.length || offset < 0 || offset + length > textLength) {
+            return false;
+        }
+        if (bytes.length == 0) {
+            return true;
+        }
+        byte[] stored = new byte[bytes.length];
+        // The writer thread appends to the text while others look packets up.
+        synchronized (text) {
+            text.read(offset, stored, stored.length);
+        }
+        return Arrays.equals(stored, bytes);
+    }
+
+    /**
+     * Opens the manifest of a file, creating an empty one if the file has
+     * none.
+     *
+     * @param h5File The open HDF5 file.
+     * @param writer The writer packets are passed on to.
+     * @return The manifest.
+     * @throws Exception If the manifest could not be opened or created.
+     */
+    static ConversionManifest openOrCreate(H5File h5File, PacketWriter writer) throws Exception {
+        ColumnTable table = ColumnTable.openOrCreate(h5File, "", GROUP, TEXT);
+        ExtendibleDataset text = ExtendibleDataset.openOrCreate(h5File.getFID(), "/" + GROUP + "/" + TEXT,
+                SampleType.INT8, DatasetStorage.UNFILTERED, TEXT_FLUSH_BYTES);
+        return new ConversionManifest(table, text, writer);
+    }
+
+    /**
+     * @param h5File An open HDF5 file.
+     * @return True if the file holds converted packets but no manifest, so
+     * which packets it holds is unknown.
+     * @throws HDF5Exception If the file could not be read.
+     */
+    static boolean isMissing(H5File h5File) throws HDF5Exception {
+        long fileId = h5File.getFID();
+        if (H5.H5Lexists(fileId, "/" + GROUP, HDF5Constants.H5P_DEFAULT)) {
+            return false;
+        }
+        long groupId = H5.H5Gopen(fileId, "/", HDF5Constants.H5P_DEFAULT);
+        try {
+            return H5.H5Gget_info(groupId).nlinks > 0;
+        } finally {
+            H5.H5Gclose(groupId);
+        }
+    }
+
+    /**
+     * Finds which of a set of packets the manifest of a file records as
+     * converted and unchanged since: same location, size and modification
+     * time. Locations are compared as text, not by their hash.
+     *
+     * @param h5File An open HDF5 file, which may be read only.
+     * @param sources The packets to look for by location, with their
+     * attributes read.
+     * @return The packets of {@code sources} recorded in the manifest, empty
+     * if the file has no manifest.
+     * @throws Exception If the manifest could not be read.
+     */
+    static List<PacketSource> converted(H5File h5File, Map<String, PacketSource> sources) throws Exception {
+        List<PacketSource> converted = new ArrayList<>();
+        if (!H5.H5Lexists(h5File.getFID(), "/" + GROUP, HDF5Constants.H5P_DEFAULT)) {
+            return converted;
+        }
+        try (ColumnTable table = ColumnTable.openOrCreate(h5File, "", GROUP, TEXT);
+                ExtendibleDataset text = ExtendibleDataset.openOrCreate(h5File.getFID(), "/" + GROUP + "/" + TEXT,
+                        SampleType.INT8, DatasetStorage.UNFILTERED, TEXT_FLUSH_BYTES)) {
+            long rowMask = rowMask(table.rows());
+            long[] pathKeys = keys(table.read("pathHash"), rowMask);
+            long[] pathOffsets = table.read("pathOffset");
+            long[] pathLengths = table.read("pathLength");
+            long[] sizes = table.read("size");
+            long[] lastModifiedMillis = table.read("lastModifiedMillis");
+            long textLength = text.length();
+            for (PacketSource source : sources.values()) {
+                long pathHash = hash(source.location());
+                byte[] path = source.location().getBytes(StandardCharsets.UTF_8);
+                for (int index = first(pathKeys, pathHash, rowMask); index < pathKeys.length
+                        && (pathKeys[index] & ~rowMask) == (pathHash & ~rowMask); index++) {
+                    int row = (int) (pathKeys[index] & rowMask);
+                    if (source.size() == sizes[row] && source.lastModifiedMillis() == lastModifiedMillis[row]
+                            && textEquals(text, textLength, pathOffsets[row], pathLengths[row], path)) {
+                        converted.add(source);
+                        break;
+                    }
+                }
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * @return The number of packets recorded in the manifest.
+     */
+    long size() {
+        return table.rows();
+    }
+
+    /**
+     * May be called from any thread, the manifest only changes on
+     * {@link #write(DecodedPacket)}.
+     *
+     * @param source A packet file or archive entry.
+     * @return True if the packet was converted before and has not changed
+     * since: same location, size and modification time.
+     * @throws IOException If the file attributes could not be read.
+     */
+    boolean isConverted(PacketSource source) throws IOException {
+        if (pathKeys.length == 0) {
+            return false;
+        }
+        source.readAttributes();
+        long pathHash = hash(source.location());
+        byte[] path = source.location().getBytes(StandardCharsets.UTF_8);
+        try {
+            // The file may have been converted again after it changed.
+            for (int index = first(pathKeys, pathHash, rowMask); index < pathKeys.length
+                    && (pathKeys[index] & ~rowMask) == (pathHash & ~rowMask); index++) {
+                int row = (int) (pathKeys[index] & rowMask);
+                if (sizes[row] == source.size() && lastModifiedMillis[row] == source.lastModifiedMillis()
+                        && textEquals(text, storedTextLength, pathOffsets[row], pathLengths[row], path)) {
+                    return true;
+                }
+            }
+        } catch (HDF5Exception e) {
+            throw new IOException("Could not read the conversion manifest", e);
+        }
+        return false;
+    }
+
+    private boolean isStoredUuid(long uuidHash, String uuid) throws HDF5Exception {
+        byte[] bytes = uuid.getBytes(StandardCharsets.UTF_8);
+        for (int index = first(uuidKeys, uuidHash, rowMask); index < uuidKeys.length
+                && (uuidKeys[index] & ~rowMask) == (uuidHash & ~rowMask); index++) {
+            int row = (int) (uuidKeys[index] & rowMask);
+            if (textEquals(text, storedTextLength, uuidOffsets[row], uuidLengths[row], bytes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        long uuidHash = hash(packet.uuid);
+        if (isStoredUuid(uuidHash, packet.uuid) || !newUuids.add(packet.uuid)) {
+            System.out.println("Skipping packet " + packet.uuid + ", it was already converted: " + packet.source);
+            return;
+        }
+
+        writer.write(packet);
+
+        String path = packet.source.location();
+        table.set("pathHash", hash(path));
+        table.set("size", packet.sourceSize);
+        table.set("lastModifiedMillis", packet.sourceLastModifiedMillis);
+        table.set("uuidHash", uuidHash);
+        table.set("appFileStartTimestampEpochMicrosecondsUtc", packet.appFileStartTimestampEpochMicrosecondsUtc);
+        appendText("path", path);
+        appendText("uuid", packet.uuid);
+        table.endRow();
+
+        if (pendingText.size() >= TEXT_FLUSH_BYTES) {
+            flushText();
+        }
+    }
+
+    private void appendText(String column, String value) throws HDF5Exception {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        table.set(column + "Offset", text.length() + pendingText.size());
+        table.set(column + "Length", bytes.length);
+        pendingText.write(bytes, 0, bytes.length);
+    }
+
+    private void flushText() throws HDF5Exception {
+        if (pendingText.size() > 0) {
+            synchronized (text) {
+                text.append(pendingText.toByteArray());
+            }
+            pendingText.reset();
+        }
+    }
+
+    @Override
+    public void flush() throws Exception {
+        writer.flush();
+        flushText();
+        table.flush();
+    }
+
+    @Override
+    public void idle() throws Exception {
+        writer.idle();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            writer.close();
+        } finally {
+            try {
+                flushText();
+                table.close();
+            } finally {
+                text.close();
+            }
+        }
+    }
+
+    /**
+     * The 64 bit FNV-1a hash of a string's UTF-16 code units.
+     */
+    static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and per-stage latency histograms of a conversion run. The
+ * pipeline records every packet, a progress line can be printed while the
+ * run is going and a JSON summary once it is done.
+ *
+ * The read, parse and convert stages run on the decoder threads, so their
+ * times add up to more than the elapsed time of a run with several decoder
+ * threads. The write stages run on the one writer thread: if their total is
+ * close to the elapsed time the run is bound by HDF5 writes, and more
+ * decoder threads will not help.
+ */
+final class ConversionMetrics {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double BYTES_PER_MEGABYTE = 1 << 20;
+
+    private final long startNanos = System.nanoTime();
+    private final Map<ConversionStage, LatencyHistogram> stages = new EnumMap<>(ConversionStage.class);
+    private final AtomicLong expected = new AtomicLong(-1);
+    private final AtomicLong found = new AtomicLong();
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong inputBytes = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong sampleBytes = new AtomicLong();
+
+    ConversionMetrics() {
+        for (ConversionStage stage : ConversionStage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Sets the number of packets the run will convert, to estimate when it
+     * completes. Runs that do not call this, e.g. watch mode, have no
+     * estimate.
+     *
+     * @param packets The number of packet files to convert.
+     */
+    void expect(long packets) {
+        expected.set(packets);
+    }
+
+    /**
+     * Records a packet to convert found by a discovery still going on, see
+     * {@link #discoveryComplete()}.
+     */
+    void found() {
+        found.incrementAndGet();
+    }
+
+    /**
+     * Sets the number of packets the run will convert to the number
+     * {@link #found()} once the discovery has found them all.
+     */
+    void discoveryComplete() {
+        expected.set(found.get());
+    }
+
+    /**
+     * @param packets The number of packet files skipped because they were
+     * already converted.
+     */
+    void skipped(long packets) {
+        skipped.addAndGet(packets);
+    }
+
+    /**
+     * Records a packet that was written to the output file.
+     *
+     * @param packet The packet, with all its stages timed.
+     */
+    void converted(DecodedPacket packet) {
+        for (Map.Entry<ConversionStage, LatencyHistogram> stage : stages.entrySet()) {
+            stage.getValue().record(packet.stageNanos(stage.getKey()));
+        }
+        inputBytes.addAndGet(packet.sourceSize);
+        samples.addAndGet(packet.samples());
+        sampleBytes.addAndGet(packet.sampleBytes());
+        converted.incrementAndGet();
+    }
+
+    /**
+     * Records a packet that could not be decoded or written.
+     */
+    void failed() {
+        failed.incrementAndGet();
+    }
+
+    long convertedPackets() {
+        return converted.get();
+    }
+
+    long failedPackets() {
+        return failed.get();
+    }
+
+    long skippedPackets() {
+        return skipped.get();
+    }
+
+    /**
+     * @return A line such as
+     * {@code 1200/5000 packets (24.0%), 0 failed, 41.3 packets/s, 12.7 MB/s, ETA 0:01:32},
+     * or {@code 1200 packets of 3100 found so far, ...} while the packets
+     * are still being discovered.
+     */
+    String progress() {
+        double seconds = elapsedSeconds();
+        long done = converted.get() + failed.get();
+        long total = expected.get();
+        double packetsPerSecond = seconds > 0 ? converted.get() / seconds : 0;
+        StringBuilder line = new StringBuilder();
+        if (total >= 0) {
+            line.append(String.format(Locale.ROOT, "%d/%d packets (%.1f%%)", done, total, total == 0 ? 100.0 : 100.0 * done / total));
+        } else if (found.get() > 0) {
+            line.append(done).append(" packets of ").append(found.get()).append(" found so far");
+        } else {
+            line.append(done).append(" packets");
+        }
+        line.append(String.format(Locale.ROOT, ", %d failed, %.1f packets/s, %.1f MB/s", failed.get(), packetsPerSecond,
+                seconds > 0 ? inputBytes.get() / BYTES_PER_MEGABYTE / seconds : 0));
+        if (total >= 0 && done > 0) {
+            long remainingSeconds = (long) Math.ceil((total - done) * seconds / done);
+            line.append(String.format(Locale.ROOT, ", ETA %d:%02d:%02d", remainingSeconds / 3600, remainingSeconds / 60 % 60, remainingSeconds % 60));
+        }
+        return line.toString();
+    }
+
+    /**
+     * Prints {@link #progress()} at a fixed interval from a daemon thread
+     * until the returned handle is closed.
+     *
+     * @param interval The time between progress lines.
+     * @param out Where to print them.
+     * @return The handle stopping the progress lines.
+     */
+    Progress startProgress(Duration interval, PrintStream out) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redvox-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        scheduler.scheduleAtFixedRate(() -> out.println(progress()), millis, millis, TimeUnit.MILLISECONDS);
+        return scheduler::shutdownNow;
+    }
+
+    /**
+     * @return The summary of the run as a single line JSON object: packet
+     * counts, throughput, and the latency distribution of every stage in
+     * milliseconds.
+     */
+    String toJson() {
+        double seconds = elapsedSeconds();
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"elapsedSeconds\":").append(number(seconds));
+        json.append(",\"packets\":{\"converted\":").append(converted.get())
+                .append(",\"failed\":").append(failed.get())
+                .append(",\"skipped\":").append(skipped.get()).append('}');
+        json.append(",\"inputBytes\":").append(inputBytes.get());
+        json.append(",\"samples\":").append(samples.get());
+        json.append(",\"sampleBytes\":").append(sampleBytes.get());
+        json.append(",\"packetsPerSecond\":").append(number(seconds > 0 ? converted.get() / seconds : 0));
+        json.append(",\"megabytesPerSecond\":").append(number(seconds > 0 ? inputBytes.get() / BYTES_PER_MEGABYTE / seconds : 0));
+        json.append(",\"stages\":{");
+        String separator = "";
+        for (Map.Entry<ConversionStage, LatencyHistogram> stage : stages.entrySet()) {
+            LatencyHistogram histogram = stage.getValue();
+            json.append(separator).append('"').append(stage.getKey().key).append("\":{")
+                    .append("\"totalSeconds\":").append(number(histogram.totalNanos() / NANOS_PER_SECOND))
+                    .append(",\"meanMillis\":").append(number(histogram.meanNanos() / NANOS_PER_MILLI))
+                    .append(",\"p50Millis\":").append(millis(histogram.percentileNanos(50)))
+                    .append(",\"p90Millis\":").append(millis(histogram.percentileNanos(90)))
+                    .append(",\"p99Millis\":").append(millis(histogram.percentileNanos(99)))
+                    .append(",\"maxMillis\":").append(millis(histogram.maxNanos()))
+                    .append('}');
+            separator = ",";
+        }
+        return json.append("}}").toString();
+    }
+
+    private double elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+    }
+
+    private static String millis(long nanos) {
+        return number(nanos / NANOS_PER_MILLI);
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Stops the progress lines started by
+     * {@link #startProgress(Duration, PrintStream)}.
+     */
+    interface Progress extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,505 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The command line options of the converter.
+ */
+final class ConversionOptions {
+
+    static final String USAGE = "Usage: java -Djava.library.path=<path to hdf5 library> -jar PackageMavenToHdf5-1.0.0.jar [options] <input directory> <output filename>\n"
+            + "The input directory may also be a .zip, .tar, .tar.gz or .tgz archive of packets, and archives in the input\n"
+            + "directory are converted without extracting them.\n"
+            + "Options:\n"
+            + "  --threads <n>         Number of packet decoding threads (default: available processors - 1).\n"
+            + "  --queue-capacity <n>  Maximum number of decoded packets waiting to be written (default: 4 x threads).\n"
+            + "  --order-window <n>    Hold back up to n packets to convert the packets of each device in the time order\n"
+            + "                        of their file names instead of the order they are found (default: 0).\n"
+            + "  --append              Add the packets not yet converted to an existing output file instead of\n"
+            + "                        overwriting it. Unchanged packet files and known packet uuids are skipped. A file\n"
+            + "                        written without --append, --manifest or --watch can not be appended to.\n"
+            + "  --manifest            Record the converted packets in the output file, so a later --append skips them.\n"
+            + "                        Implied by --append and --watch.\n"
+            + "  --watch               Keep running and convert packets as they arrive in the input directory, into one\n"
+            + "                        output file per time window named <output filename>-<window start>.h5.\n"
+            + "  --roll <duration>     Time window of each output file in watch mode, e.g. 15m, 1h or PT1H (default: 1h).\n"
+            + "  --poll                Scan the input directory for new packets instead of relying on file system events.\n"
+            + "  --poll-interval <duration>\n"
+            + "                        How long a new packet must be unchanged before it is converted, and how often the\n"
+            + "                        input directory is scanned when polling (default: 1s).\n"
+            + "  --shards <n>          Convert with n worker processes, each writing a shard file, then link the shards\n"
+            + "                        into the output file. Packets are assigned to shards by device.\n"
+            + "  --shard <k>/<n>       Convert only shard k (0 to n - 1) of n into <output filename>-shard-<k>-of-<n>.h5.\n"
+            + "  --shard-archives      Also convert tar archives in sharded conversions. Every shard reads and decompresses\n"
+            + "                        the whole of every tar archive to find its packets.\n"
+            + "  --progress <duration> How often to print the number of converted packets, throughput and estimated time\n"
+            + "                        remaining (default: 10s).\n"
+            + "  --report <file>       Also write the JSON summary of the run (packet counts, throughput, per stage\n"
+            + "                        latencies) printed at the end to this file.\n"
+            + "  --layout <layout>     packet: one group per packet (default).\n"
+            + "                        device: one group per device with the packets appended to extendible datasets.\n"
+            + "  --metadata <metadata> attributes: packet metadata as attributes of each packet group (default).\n"
+            + "                        table: packet metadata as one row per packet in the /packetMetadata table.\n"
+            + "                        both: attributes and table.\n"
+            + "  --time-index          Also write the /timeIndex of the microphone samples of every device, needed by\n"
+            + "                        QueryRedvoxHdf5 and RedvoxHdf5Reader.\n"
+            + "  --statistics          Also write the /packetStatistics table of the sample statistics of every packet.\n"
+            + "  --overviews <factors> Also write min/max/mean overview levels of the microphone and barometer samples of\n"
+            + "                        every device, one per comma separated decimation factor, each a multiple of the one\n"
+            + "                        before, e.g. 10,100,1000.\n"
+            + "  --types <types>       big-endian: 64 bit big-endian samples (default).\n"
+            + "                        native: 64 bit samples in the byte order of this machine.\n"
+            + "                        narrow: native byte order and the narrowest type holding each dataset's samples\n"
+            + "                        without loss, e.g. 32 bit microphone samples.\n"
+            + "  --chunk <n>           Samples per chunk of every sensor dataset.\n"
+            + "  --shuffle             Apply the shuffle filter to every sensor dataset.\n"
+            + "  --deflate <0-9>       Deflate (gzip) level of every sensor dataset (default: 0, uncompressed).\n"
+            + "  --szip                Compress every sensor dataset with szip instead of deflate.\n"
+            + "  --storage <sensor>:<settings>\n"
+            + "                        Storage of one sensor type, e.g. microphone:chunk=65536,shuffle,deflate=6.\n"
+            + "                        Settings are types=<types>, chunk=<n>, shuffle, deflate=<0-9> and szip. May be\n"
+            + "                        repeated.";
+
+    private static final Set<String> VALUED_OPTIONS = new HashSet<>(Arrays.asList(
+            "--threads",
+            "--queue-capacity",
+            "--order-window",
+            "--roll",
+            "--poll-interval",
+            "--shards",
+            "--shard",
+            "--progress",
+            "--report",
+            "--layout",
+            "--metadata",
+            "--overviews",
+            "--types",
+            "--chunk",
+            "--deflate",
+            "--storage"));
+
+    private String inputDirectory;
+    private String outputFilename;
+    private int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int queueCapacity = -1;
+    private int orderWindow;
+    private boolean append;
+    private boolean manifest;
+    private boolean watch;
+    private Duration rollInterval = Duration.ofHours(1);
+    private boolean poll;
+    private Duration pollInterval = Duration.ofSeconds(1);
+    private int shards = 1;
+    private int shard = -1;
+    private boolean shardArchives;
+    private boolean timeIndex;
+    private boolean statistics;
+    private Duration progressInterval = Duration.ofSeconds(10);
+    private String report;
+    private Layout layout = Layout.PACKET;
+    private PacketMetadata metadata = PacketMetadata.ATTRIBUTES;
+    private int[] overviews = new int[0];
+    private StorageSettings storage;
+
+    private ConversionOptions() {
+    }
+
+    /**
+     * Parses the command line. Options may be given as {@code --name value}
+     * or {@code --name=value} and may appear anywhere on the command line.
+     *
+     * @param args The command line arguments.
+     * @return The parsed options.
+     * @throws IllegalArgumentException If the arguments are not valid.
+     */
+    static ConversionOptions parse(String[] args) {
+        ConversionOptions options = new ConversionOptions();
+        List<String> positional = new ArrayList<>();
+        List<String> defaultStorage = new ArrayList<>();
+        List<String> sensorStorage = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+
+            String name = arg;
+            String value = null;
+            int equals = arg.indexOf('=');
+            if (equals > 0) {
+                name = arg.substring(0, equals);
+                value = arg.substring(equals + 1);
+            }
+            if (value == null && VALUED_OPTIONS.contains(name)) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for option " + name);
+                }
+                value = args[++i];
+            }
+
+            switch (name) {
+                case "--threads":
+                    options.threads = parsePositiveInt(name, value);
+                    break;
+                case "--queue-capacity":
+                    options.queueCapacity = parsePositiveInt(name, value);
+                    break;
+                case "--order-window":
+                    options.orderWindow = parsePositiveInt(name, value);
+                    break;
+                case "--append":
+                    options.append = true;
+                    break;
+                case "--manifest":
+                    options.manifest = true;
+                    break;
+                case "--watch":
+                    options.watch = true;
+                    break;
+                case "--roll":
+                    options.rollInterval = parseDuration(name, value);
+                    break;
+                case "--poll":
+                    options.poll = true;
+                    break;
+                case "--poll-interval":
+                    options.pollInterval = parseDuration(name, value);
+                    break;
+                case "--shards":
+                    options.shards = parsePositiveInt(name, value);
+                    break;
+                case "--shard":
+                    int separator = value.indexOf('/');
+                    options.shard = parseShard(name, separator < 0 ? value : value.substring(0, separator));
+                    options.shards = parsePositiveInt(name, value.substring(separator + 1));
+                    break;
+                case "--shard-archives":
+                    options.shardArchives = true;
+                    break;
+                case "--progress":
+                    options.progressInterval = parseDuration(name, value);
+                    break;
+                case "--report":
+                    options.report = value;
+                    break;
+                case "--layout":
+                    options.layout = parseEnum(Layout.class, name, value);
+                    break;
+                case "--metadata":
+                    options.metadata = parseEnum(PacketMetadata.class, name, value);
+                    break;
+                case "--time-index":
+                    options.timeIndex = true;
+                    break;
+                case "--statistics":
+                    options.statistics = true;
+                    break;
+                case "--overviews":
+                    options.overviews = parseFactors(name, value);
+                    break;
+                case "--types":
+                    defaultStorage.add("types=" + SampleEncoding.parse(value));
+                    break;
+                case "--chunk":
+                    defaultStorage.add("chunk=" + parsePositiveInt(name, value));
+                    break;
+                case "--deflate":
+                    defaultStorage.add("deflate=" + value);
+                    break;
+                case "--shuffle":
+                    defaultStorage.add("shuffle");
+                    break;
+                case "--szip":
+                    defaultStorage.add("szip");
+                    break;
+                case "--storage":
+                    sensorStorage.add(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + name);
+            }
+        }
+
+        if (positional.size() != 2) {
+            throw new IllegalArgumentException("Expected an input directory and an output filename.");
+        }
+        if (options.shard >= options.shards) {
+            throw new IllegalArgumentException("Shard " + options.shard + " does not exist, shards are numbered 0 to " + (options.shards - 1) + ".");
+        }
+        if (options.watch && options.shards > 1) {
+            throw new IllegalArgumentException("Sharded conversion can not be combined with --watch.");
+        }
+        if (options.shards > 1 && !options.shardArchives && PacketArchive.isStreamed(Paths.get(positional.get(0)))) {
+            throw new IllegalArgumentException("Every shard would decompress the whole tar archive, convert it without --shards or pass --shard-archives.");
+        }
+        options.inputDirectory = positional.get(0);
+        options.outputFilename = positional.get(1);
+        options.storage = StorageSettings.parse(String.join(",", defaultStorage), sensorStorage);
+        return options;
+    }
+
+    private static int parsePositiveInt(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Option " + name + " expects a positive integer but was: " + value);
+    }
+
+    /**
+     * Parses a comma separated list of increasing positive integers.
+     */
+    private static int[] parseFactors(String name, String value) {
+        String[] values = value.split(",");
+        int[] factors = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            factors[i] = parsePositiveInt(name, values[i].trim());
+            if (factors[i] < 2 || (i > 0 && (factors[i] <= factors[i - 1] || factors[i] % factors[i - 1] != 0))) {
+                throw new IllegalArgumentException("Option " + name + " expects increasing factors of at least 2, each a multiple of the one"
+                        + " before, such as 10,100,1000 but was: " + value);
+            }
+        }
+        return factors;
+    }
+
+    private static int parseShard(String name, String value) {
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed >= 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Option " + name + " expects <shard>/<shards> such as 0/4 but was: " + value);
+    }
+
+    /**
+     * Parses a duration given as a number followed by a unit, s, m, h or d,
+     * or in ISO-8601 form (PT1H).
+     */
+    private static Duration parseDuration(String name, String value) {
+        try {
+            Duration parsed;
+            char unit = value.matches("\\d+[sSmMhHdD]") ? Character.toLowerCase(value.charAt(value.length() - 1)) : ' ';
+            String amount = unit == ' ' ? value : value.substring(0, value.length() - 1);
+            switch (unit) {
+                case 's':
+                    parsed = Duration.ofSeconds(Long.parseLong(amount));
+                    break;
+                case 'm':
+                    parsed = Duration.ofMinutes(Long.parseLong(amount));
+                    break;
+                case 'h':
+                    parsed = Duration.ofHours(Long.parseLong(amount));
+                    break;
+                case 'd':
+                    parsed = Duration.ofDays(Long.parseLong(amount));
+                    break;
+                default:
+                    parsed = Duration.parse(value);
+            }
+            if (!parsed.isNegative() && !parsed.isZero()) {
+                return parsed;
+            }
+        } catch (NumberFormatException | DateTimeParseException e) {
+            // Reported below.
+        }
+        throw new IllegalArgumentException("Option " + name + " expects a positive duration such as 30s, 15m or 1h but was: " + value);
+    }
+
+    private static <E extends Enum<E>> E parseEnum(Class<E> type, String name, String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Option " + name + " expects one of " + Arrays.toString(type.getEnumConstants()).toLowerCase(Locale.ROOT) + " but was: " + value);
+        }
+    }
+
+    String inputDirectory() {
+        return inputDirectory;
+    }
+
+    String outputFilename() {
+        return outputFilename;
+    }
+
+    int threads() {
+        return threads;
+    }
+
+    int queueCapacity() {
+        return queueCapacity > 0 ? queueCapacity : 4 * threads;
+    }
+
+    /**
+     * @return The number of packets the {@link PacketDiscovery} holds back
+     * to put them in order, 0 to convert them in the order they are found.
+     */
+    int orderWindow() {
+        return orderWindow;
+    }
+
+    boolean append() {
+        return append;
+    }
+
+    /**
+     * @return True to write the {@link ConversionManifest} of a batch
+     * conversion without --append, which always writes it.
+     */
+    boolean manifest() {
+        return manifest;
+    }
+
+    boolean watch() {
+        return watch;
+    }
+
+    Duration rollInterval() {
+        return rollInterval;
+    }
+
+    boolean poll() {
+        return poll;
+    }
+
+    Duration pollInterval() {
+        return pollInterval;
+    }
+
+    int shards() {
+        return shards;
+    }
+
+    /**
+     * @return The shard to convert, or -1 to convert all packets.
+     */
+    int shard() {
+        return shard;
+    }
+
+    /**
+     * @return True if sharded conversions read tar archives.
+     */
+    boolean shardArchives() {
+        return shardArchives;
+    }
+
+    Duration progressInterval() {
+        return progressInterval;
+    }
+
+    /**
+     * @return The file to write the JSON summary of the run to, or null.
+     */
+    String report() {
+        return report;
+    }
+
+    Layout layout() {
+        return layout;
+    }
+
+    PacketMetadata metadata() {
+        return metadata;
+    }
+
+    /**
+     * @return True to write the {@link TimeIndex}.
+     */
+    boolean timeIndex() {
+        return timeIndex;
+    }
+
+    /**
+     * @return True to write the {@link PacketStatisticsTable}.
+     */
+    boolean statistics() {
+        return statistics;
+    }
+
+    /**
+     * @return The decimation factors of the {@link OverviewPyramid} levels,
+     * empty to write no overviews.
+     */
+    int[] overviews() {
+        return overviews.clone();
+    }
+
+    StorageSettings storage() {
+        return storage;
+    }
+
+    /**
+     * How packets are arranged in the HDF5 file.
+     */
+    enum Layout {
+        /**
+         * One group per packet, named after the packet file.
+         */
+        PACKET,
+        /**
+         * One group per device, see {@link DeviceLayoutWriter}.
+         */
+        DEVICE
+    }
+
+    /**
+     * Where the packet level metadata (device, app, timestamps, battery...)
+     * is written.
+     */
+    enum PacketMetadata {
+        /**
+         * As attributes of each packet group in the packet layout. The device
+         * layout has no per-packet attributes.
+         */
+        ATTRIBUTES,
+        /**
+         * As a row of the {@link PacketMetadataTable}.
+         */
+        TABLE,
+        /**
+         * Both.
+         */
+        BOTH;
+
+        boolean attributes() {
+            return this != TABLE;
+        }
+
+        boolean table() {
+            return this != ATTRIBUTES;
+        }
+    }
+}
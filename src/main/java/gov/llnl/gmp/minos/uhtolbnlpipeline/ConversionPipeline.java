@@ -0,0 +1,198 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A staged conversion pipeline. A pool of decoder threads reads and decodes
+ * packets in parallel while the calling thread, which owns the HDF5 file,
+ * writes the decoded packets one at a time.
+ *
+ * Decoded packets are handed to the writer through a bounded queue of futures
+ * kept in input order, so at most {@code queueCapacity} decoded packets are
+ * held in memory at once and the output is written in the same order as the
+ * input.
+ */
+final class ConversionPipeline {
+
+    /**
+     * The longest time the writer waits for a packet before calling
+     * {@link PacketWriter#idle()}.
+     */
+    static final long IDLE_MILLIS = 1000;
+
+    private static final Future<DecodedPacket> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private final int decoderThreads;
+    private final int queueCapacity;
+    private final ConversionMetrics metrics;
+    private final boolean statistics;
+
+    /**
+     * @param decoderThreads The number of threads decoding packets.
+     * @param queueCapacity The maximum number of packets decoded ahead of the
+     * writer.
+     * @param metrics Records every converted and failed packet.
+     * @param statistics True to compute the statistics of every packet on
+     * the decoder threads, see {@link DecodedPacket#computeStatistics()}.
+     */
+    ConversionPipeline(int decoderThreads, int queueCapacity, ConversionMetrics metrics, boolean statistics) {
+        this.decoderThreads = decoderThreads;
+        this.queueCapacity = queueCapacity;
+        this.metrics = metrics;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Decodes every packet and passes it to the writer. Packets that fail to
+     * decode or write are reported, counted as failed and skipped. The input
+     * may block between packets, e.g. a {@link DirectoryWatcher}, the writer
+     * is kept {@link PacketWriter#idle() busy} meanwhile.
+     *
+     * If iterating the input fails, the packets found before the failure are
+     * still written and the failure is then thrown.
+     *
+     * @param sources The Redvox packets to convert. Iterated by a producer
+     * thread, so reading an archive overlaps with decoding its packets.
+     * @param writer The writer that owns the HDF5 file.
+     * @throws InterruptedException If the calling thread is interrupted.
+     * @throws IllegalStateException If iterating the input failed.
+     */
+    void run(Iterable<PacketSource> sources, PacketWriter writer) throws InterruptedException {
+        BlockingQueue<Future<DecodedPacket>> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        ExecutorService decoders = Executors.newFixedThreadPool(decoderThreads, new NamedDaemonThreadFactory("redvox-decoder"));
+        AtomicReference<Throwable> inputError = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            try {
+                for (PacketSource source : sources) {
+                    decoded.put(decoders.submit(() -> decode(source)));
+                }
+            } catch (InterruptedException ex) {
+                // The writer gave up, nobody is waiting for the end of input.
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                inputError.set(t);
+            } finally {
+                // Without the end of input the writer would wait forever.
+                if (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        decoded.put(END_OF_INPUT);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "redvox-producer");
+        producer.setDaemon(true);
+        producer.start();
+
+        try {
+            for (Future<DecodedPacket> future = decoded.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS); future != END_OF_INPUT;
+                    future = decoded.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS)) {
+                try {
+                    if (future != null) {
+                        write(future.get(), writer);
+                    }
+                    if (decoded.isEmpty()) {
+                        writer.idle();
+                    }
+                } catch (ExecutionException e) {
+                    metrics.failed();
+                    System.err.println(e.getCause());
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    System.err.println(e);
+                }
+            }
+        } finally {
+            producer.interrupt();
+            decoders.shutdownNow();
+        }
+        Throwable error = inputError.get();
+        if (error != null) {
+            throw new IllegalStateException("Reading the packets to convert failed", error);
+        }
+    }
+
+    /**
+     * Decodes one packet, on a decoder thread.
+     */
+    private DecodedPacket decode(PacketSource source) throws Exception {
+        DecodedPacket packet = PacketDecoder.decode(source);
+        if (statistics) {
+            packet.computeStatistics();
+        }
+        return packet;
+    }
+
+    /**
+     * Writes one packet, timing the write stages, and returns its sample
+     * arrays to the pool.
+     */
+    private void write(DecodedPacket packet, PacketWriter writer) {
+        Object event = ConversionEvents.begin();
+        try {
+            long started = System.nanoTime();
+            writer.write(packet);
+            long writeNanos = System.nanoTime() - started;
+            // The writer timed its dataset writes, the rest of the write is
+            // groups, attributes and index rows.
+            packet.addStageNanos(ConversionStage.WRITE_ATTRIBUTES, writeNanos - packet.stageNanos(ConversionStage.WRITE_DATASETS));
+            metrics.converted(packet);
+            ConversionEvents.commit(event, packet);
+        } catch (Exception e) {
+            metrics.failed();
+            System.err.println(e);
+        } finally {
+            packet.release();
+        }
+    }
+
+    /**
+     * Names pipeline threads so they are recognizable in thread dumps, and
+     * marks them as daemons so a failed run never keeps the JVM alive.
+     */
+    private static final class NamedDaemonThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedDaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
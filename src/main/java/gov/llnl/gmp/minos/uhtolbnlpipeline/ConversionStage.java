@@ -0,0 +1,56 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+/**
+ * The stages a packet goes through, timed for every packet by
+ * {@link ConversionMetrics}.
+ */
+enum ConversionStage {
+
+    /**
+     * Reading the packet file into memory.
+     */
+    READ("read"),
+    /**
+     * Unescaping and parsing the JSON document, or decompressing and parsing
+     * the protobuf packet.
+     */
+    PARSE("parse"),
+    /**
+     * Converting the parsed packet into sample arrays and metadata.
+     */
+    CONVERT("convert"),
+    /**
+     * Everything the writer does besides writing samples: groups,
+     * attributes, index and manifest rows.
+     */
+    WRITE_ATTRIBUTES("writeAttributes"),
+    /**
+     * Writing the sample arrays to their datasets.
+     */
+    WRITE_DATASETS("writeDatasets");
+
+    /**
+     * The name of the stage in reports.
+     */
+    final String key;
+
+    ConversionStage(String key) {
+        this.key = key;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+
+/**
+ * How the datasets of a sensor are stored: the {@link SampleEncoding}, chunk
+ * length and the filters (shuffle, deflate or szip) applied to every chunk.
+ * Instances are immutable.
+ */
+final class DatasetStorage {
+
+    /**
+     * Contiguous, unfiltered, big-endian storage, the historical default.
+     */
+    static final DatasetStorage UNFILTERED = new DatasetStorage(SampleEncoding.BIG_ENDIAN, 0, false, 0, false);
+
+    private static final int SZIP_PIXELS_PER_BLOCK = 32;
+
+    private final SampleEncoding encoding;
+    private final long chunkLength;
+    private final boolean shuffle;
+    private final int deflateLevel;
+    private final boolean szip;
+
+    private DatasetStorage(SampleEncoding encoding, long chunkLength, boolean shuffle, int deflateLevel, boolean szip) {
+        if (chunkLength < 0) {
+            throw new IllegalArgumentException("The chunk length must be positive but was: " + chunkLength);
+        }
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            throw new IllegalArgumentException("The deflate level must be between 0 and 9 but was: " + deflateLevel);
+        }
+        if (szip && deflateLevel > 0) {
+            throw new IllegalArgumentException("Choose either deflate or szip compression, not both.");
+        }
+        this.encoding = encoding;
+        this.chunkLength = chunkLength;
+        this.shuffle = shuffle;
+        this.deflateLevel = deflateLevel;
+        this.szip = szip;
+    }
+
+    /**
+     * Applies comma separated settings on top of this one, e.g.
+     * {@code types=narrow,chunk=65536,shuffle,deflate=6}. Flags may be given as
+     * {@code shuffle}, {@code shuffle=true} or {@code shuffle=false}.
+     *
+     * @param settings The settings to apply.
+     * @return The resulting storage.
+     * @throws IllegalArgumentException If a setting is not valid.
+     */
+    DatasetStorage with(String settings) {
+        SampleEncoding newEncoding = encoding;
+        long newChunkLength = chunkLength;
+        boolean newShuffle = shuffle;
+        int newDeflateLevel = deflateLevel;
+        boolean newSzip = szip;
+
+        for (String setting : settings.split(",")) {
+            String key = setting.trim();
+            String value = null;
+            int equals = key.indexOf('=');
+            if (equals > 0) {
+                value = key.substring(equals + 1).trim();
+                key = key.substring(0, equals).trim();
+            }
+            try {
+                switch (key) {
+                    case "types":
+                        newEncoding = SampleEncoding.parse(value);
+                        break;
+                    case "chunk":
+                        newChunkLength = Long.parseLong(value);
+                        break;
+                    case "deflate":
+                        newDeflateLevel = Integer.parseInt(value);
+                        break;
+                    case "shuffle":
+                        newShuffle = value == null || Boolean.parseBoolean(value);
+                        break;
+                    case "szip":
+                        newSzip = value == null || Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown storage setting: " + setting);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid storage setting: " + setting);
+            }
+        }
+        return new DatasetStorage(newEncoding, newChunkLength, newShuffle, newDeflateLevel, newSzip);
+    }
+
+    /**
+     * @return How the samples are encoded in the file.
+     */
+    SampleEncoding encoding() {
+        return encoding;
+    }
+
+    /**
+     * @return True if any filter is applied, filtered datasets must be
+     * chunked.
+     */
+    boolean isFiltered() {
+        return shuffle || deflateLevel > 0 || szip;
+    }
+
+    /**
+     * @return True if the datasets are chunked, either because a chunk length
+     * was configured or because a filter is applied.
+     */
+    boolean isChunked() {
+        return chunkLength > 0 || isFiltered();
+    }
+
+    /**
+     * @param defaultLength The chunk length to use if none was configured.
+     * @return The configured chunk length, or the default.
+     */
+    long chunkLength(long defaultLength) {
+        return chunkLength > 0 ? chunkLength : defaultLength;
+    }
+
+    /**
+     * Creates a dataset creation property list with the chunking and filters
+     * of this storage. The caller must close it with {@code H5Pclose}.
+     *
+     * @param chunkDims The chunk dimensions, or null for contiguous storage.
+     * @return The property list id.
+     * @throws HDF5Exception If the properties could not be set, e.g. szip is
+     * not available in the HDF5 library.
+     */
+    long createProperties(long[] chunkDims) throws HDF5Exception {
+        long propertiesId = H5.H5Pcreate(HDF5Constants.H5P_DATASET_CREATE);
+        try {
+            if (chunkDims != null) {
+                H5.H5Pset_chunk(propertiesId, chunkDims.length, chunkDims);
+                // Shuffle has to run before the compressor to help it
+                if (shuffle) {
+                    H5.H5Pset_shuffle(propertiesId);
+                }
+                if (szip) {
+                    H5.H5Pset_szip(propertiesId, HDF5Constants.H5_SZIP_NN_OPTION_MASK, SZIP_PIXELS_PER_BLOCK);
+                }
+                if (deflateLevel > 0) {
+                    H5.H5Pset_deflate(propertiesId, deflateLevel);
+                }
+            }
+            return propertiesId;
+        } catch (HDF5Exception | RuntimeException e) {
+            H5.H5Pclose(propertiesId);
+            throw e;
+        }
+    }
+
+    /**
+     * @throws HDF5Exception If the filter availability could not be queried.
+     * @throws IllegalStateException If szip is requested but the HDF5 library
+     * was built without an szip encoder.
+     */
+    void checkAvailable() throws HDF5Exception {
+        if (szip && (!H5.H5Zfilter_avail(HDF5Constants.H5Z_FILTER_SZIP)
+                || (H5.H5Zget_filter_info(HDF5Constants.H5Z_FILTER_SZIP) & HDF5Constants.H5Z_FILTER_CONFIG_ENCODE_ENABLED) == 0)) {
+            throw new IllegalStateException("The HDF5 library does not support szip compression.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "types=" + encoding + ",chunk=" + chunkLength + ",shuffle=" + shuffle + ",deflate=" + deflateLevel + ",szip=" + szip;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import io.redvox.api900.WrappedRedvoxPacket;
+import io.redvox.apis.Api900;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Redvox packet that has been fully decoded into primitive arrays and plain
+ * metadata values, ready to be written to an HDF5 file without touching the
+ * original JSON or protobuf representation again.
+ */
+final class DecodedPacket {
+
+    final PacketSource source;
+    final long sourceSize;
+    final long sourceLastModifiedMillis;
+    final String name;
+
+    final String acquisitionServer;
+    final int api;
+    final long appFileStartTimestampEpochMicrosecondsUtc;
+    final long appFileStartTimestampMachine;
+    final String appVersion;
+    final float batteryLevelPercent;
+    final String deviceMake;
+    final String deviceModel;
+    final String deviceOs;
+    final String deviceOsVersion;
+    final float deviceTemperatureC;
+    final String redvoxId;
+    final long serverTimestampEpochMicrosecondsUtc;
+    final String timeSynchronizationServer;
+    final String uuid;
+
+    /**
+     * The sample rate of the microphone, 0 if the packet does not state it.
+     */
+    final double microphoneSampleRateHz;
+    /**
+     * The time of the first microphone sample, falling back to the start of
+     * the packet file if the packet does not state it.
+     */
+    final long microphoneFirstSampleTimestampEpochMicrosecondsUtc;
+    /**
+     * The offset of the packet's first microphone sample in the microphone
+     * dataset of its device, set by the {@link DeviceLayoutWriter} when it
+     * writes the packet, -1 in the packet layout.
+     */
+    long microphoneOffset = -1;
+
+    private final List<SensorPayload> sensors = new ArrayList<>();
+    private final long[] stageNanos = new long[ConversionStage.values().length];
+
+    /**
+     * Copies the packet level metadata out of a wrapped packet.
+     *
+     * @param source The file or archive entry the packet was read from, with
+     * its attributes read.
+     * @param name The name of the packet's group in the HDF5 file.
+     * @param wrappedPacket The packet to copy metadata from.
+     * @param microphoneChannel The packet's microphone channel, or null.
+     */
+    DecodedPacket(PacketSource source, String name, WrappedRedvoxPacket wrappedPacket, Api900.EvenlySampledChannel microphoneChannel) {
+        this.source = source;
+        this.sourceSize = source.size();
+        this.sourceLastModifiedMillis = source.lastModifiedMillis();
+        this.name = name;
+        this.acquisitionServer = wrappedPacket.acquisitionServer();
+        this.api = wrappedPacket.api();
+        this.appFileStartTimestampEpochMicrosecondsUtc = wrappedPacket.appFileStartTimestampEpochMicrosecondsUtc();
+        this.appFileStartTimestampMachine = wrappedPacket.appFileStartTimestampMachine();
+        this.appVersion = wrappedPacket.appVersion();
+        this.batteryLevelPercent = wrappedPacket.batteryLevelPercent();
+        this.deviceMake = wrappedPacket.deviceMake();
+        this.deviceModel = wrappedPacket.deviceModel();
+        this.deviceOs = wrappedPacket.deviceOs();
+        this.deviceOsVersion = wrappedPacket.deviceOsVersion();
+        this.deviceTemperatureC = wrappedPacket.deviceTemperatureC();
+        this.redvoxId = wrappedPacket.redvoxId();
+        this.serverTimestampEpochMicrosecondsUtc = wrappedPacket.serverTimestampEpochMicrosecondsUtc();
+        this.timeSynchronizationServer = wrappedPacket.timeSynchronizationServer();
+        this.uuid = wrappedPacket.uuid();
+        this.microphoneSampleRateHz = microphoneChannel == null ? 0 : microphoneChannel.getSampleRateHz();
+        long firstSample = microphoneChannel == null ? 0 : microphoneChannel.getFirstSampleTimestampEpochMicrosecondsUtc();
+        this.microphoneFirstSampleTimestampEpochMicrosecondsUtc = firstSample != 0 ? firstSample : appFileStartTimestampEpochMicrosecondsUtc;
+    }
+
+    void addSensor(SensorPayload sensor) {
+        sensors.add(sensor);
+    }
+
+    List<SensorPayload> sensors() {
+        return Collections.unmodifiableList(sensors);
+    }
+
+    /**
+     * Computes the {@link SensorPayload#statistics() statistics} of every
+     * sensor, so the decoder thread computes them rather than the writer.
+     */
+    void computeStatistics() {
+        for (SensorPayload sensor : sensors) {
+            sensor.statistics();
+        }
+    }
+
+    /**
+     * @return The number of samples of all sensors.
+     */
+    long samples() {
+        long samples = 0;
+        for (SensorPayload sensor : sensors) {
+            for (Object data : sensor.arrays()) {
+                samples += SampleType.length(data);
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return The size of the samples of all sensors in bytes.
+     */
+    long sampleBytes() {
+        long bytes = 0;
+        for (SensorPayload sensor : sensors) {
+            for (Object data : sensor.arrays()) {
+                bytes += (long) SampleType.length(data) * SampleType.of(data).size;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds to the time spent on this packet in a stage. Each stage is timed by
+     * the one thread working on the packet at that point.
+     *
+     * @param stage The stage.
+     * @param nanos The time spent.
+     */
+    void addStageNanos(ConversionStage stage, long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+    }
+
+    long stageNanos(ConversionStage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Returns the sample arrays to the {@link SampleArrayPool} once the
+     * packet has been written. The packet must not be used afterwards.
+     */
+    void release() {
+        for (SensorPayload sensor : sensors) {
+            SampleArrayPool.SHARED.release(sensor.data);
+            for (Object channel : sensor.channels.values()) {
+                SampleArrayPool.SHARED.release(channel);
+            }
+        }
+        sensors.clear();
+    }
+
+    /**
+     * The decoded samples of one sensor. Single channel sensors (microphone,
+     * barometer, ...) carry one primitive array in {@code data}, multi channel
+     * sensors (gyroscope, location) carry one array per named channel, and
+     * the accelerometer and magnetometer carry the samples of their channels
+     * interleaved in {@code data}.
+     */
+    static final class SensorPayload {
+
+        final String name;
+        final Map<String, String> metadata;
+        final Object data;
+        final Map<String, Object> channels;
+        private final String[] interleavedChannels;
+        private Map<String, SampleStatistics> statistics;
+
+        private SensorPayload(String name, Map<String, String> metadata, Object data, Map<String, Object> channels, String... interleavedChannels) {
+            this.name = name;
+            this.metadata = metadata;
+            this.data = data;
+            this.channels = channels;
+            this.interleavedChannels = interleavedChannels;
+        }
+
+        /**
+         * @param name The dataset name.
+         * @param metadata The sensor metadata.
+         * @param data A long[], double[] or byte[] holding the samples.
+         * @return A sensor written as a single dataset.
+         */
+        static SensorPayload single(String name, Map<String, String> metadata, Object data) {
+            return new SensorPayload(name, metadata, data, Collections.emptyMap());
+        }
+
+        /**
+         * @param name The dataset name.
+         * @param metadata The sensor metadata.
+         * @param data A long[] or double[] holding the samples of the
+         * channels interleaved, e.g. X, Y, Z, X, Y, Z, ...
+         * @param channelNames The names of the channels in the order they
+         * are interleaved.
+         * @return A sensor written as a single dataset, with statistics per
+         * channel.
+         */
+        static SensorPayload interleaved(String name, Map<String, String> metadata, Object data, String... channelNames) {
+            return new SensorPayload(name, metadata, data, Collections.emptyMap(), channelNames);
+        }
+
+        /**
+         * @param name The group name.
+         * @param metadata The sensor metadata.
+         * @return A sensor written as a group of channel datasets, channels
+         * are added with {@link #withChannel(String, Object)}.
+         */
+        static SensorPayload grouped(String name, Map<String, String> metadata) {
+            return new SensorPayload(name, metadata, null, new LinkedHashMap<>());
+        }
+
+        SensorPayload withChannel(String channelName, Object channelData) {
+            channels.put(channelName, channelData);
+            return this;
+        }
+
+        /**
+         * @return The statistics of the data, or of the channels by channel
+         * name, computed on the first call. Arrays without statistics (image
+         * bytes) are left out.
+         */
+        Map<String, SampleStatistics> statistics() {
+            if (statistics == null) {
+                Map<String, SampleStatistics> computed = new LinkedHashMap<>();
+                if (isGrouped()) {
+                    for (Map.Entry<String, Object> channel : channels.entrySet()) {
+                        addStatistics(computed, channel.getKey(), SampleStatistics.of(channel.getValue()));
+                    }
+                } else if (interleavedChannels.length > 0) {
+                    for (int channel = 0; channel < interleavedChannels.length; channel++) {
+                        addStatistics(computed, interleavedChannels[channel], SampleStatistics.of(data, channel, interleavedChannels.length));
+                    }
+                } else {
+                    addStatistics(computed, "", SampleStatistics.of(data));
+                }
+                statistics = computed;
+            }
+            return statistics;
+        }
+
+        private static void addStatistics(Map<String, SampleStatistics> statistics, String channelName, SampleStatistics channelStatistics) {
+            if (channelStatistics != null) {
+                statistics.put(channelName, channelStatistics);
+            }
+        }
+
+        boolean isGrouped() {
+            return data == null;
+        }
+
+        /**
+         * @return The sample arrays of the sensor, the data or the channels.
+         */
+        Collection<Object> arrays() {
+            return isGrouped() ? channels.values() : Collections.singletonList(data);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import gov.llnl.gmp.minos.uhtolbnlpipeline.DecodedPacket.SensorPayload;
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.HObject;
+import hdf.object.h5.H5File;
+import java.lang.reflect.Array;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes packets in the per-device layout. Every device (redvoxId) gets one
+ * group holding one extendible dataset per sensor (multi channel sensors get
+ * a group with one dataset per channel), and each packet's samples are
+ * appended to the end of them. A {@code packetIndex} table in the device
+ * group records, per packet, its start timestamps and the offset and number
+ * of samples of every sensor, e.g.
+ * <pre>
+ * /&lt;redvoxId&gt;/microphone
+ * /&lt;redvoxId&gt;/gyroscope/X
+ * /&lt;redvoxId&gt;/packetIndex/appFileStartTimestampEpochMicrosecondsUtc
+ * /&lt;redvoxId&gt;/packetIndex/microphoneOffset
+ * /&lt;redvoxId&gt;/packetIndex/microphoneCount
+ * </pre>
+ *
+ * Device and sensor metadata are written as attributes when the group or
+ * dataset is created, from the first packet that has them.
+ */
+final class DeviceLayoutWriter implements PacketWriter {
+
+    static final String PACKET_INDEX = "packetIndex";
+
+    private final H5File h5File;
+    private final StorageSettings storage;
+    private final Map<String, Device> devices = new HashMap<>();
+
+    /**
+     * @param h5File The open HDF5 file to write to. Devices already in the
+     * file are appended to.
+     * @param storage The chunking and filters of new sensor datasets.
+     */
+    DeviceLayoutWriter(H5File h5File, StorageSettings storage) {
+        this.h5File = h5File;
+        this.storage = storage;
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        Device device = devices.get(packet.redvoxId);
+        if (device == null) {
+            device = openDevice(packet);
+            devices.put(packet.redvoxId, device);
+        }
+
+        // Check everything that can reject the packet before any samples are
+        // appended, so a bad packet never leaves the sensors out of step.
+        Map<SensorPayload, Integer> counts = new LinkedHashMap<>();
+        for (SensorPayload sensor : packet.sensors()) {
+            counts.put(sensor, sampleCount(sensor, packet));
+        }
+
+        // Widening a dataset for samples that do not fit its type can fail
+        // too, so every dataset is opened before any samples are appended.
+        for (SensorPayload sensor : counts.keySet()) {
+            if (sensor.isGrouped()) {
+                for (Map.Entry<String, Object> channel : sensor.channels.entrySet()) {
+                    device.dataset(sensor, sensor.name + "/" + channel.getKey(), channel.getValue());
+                }
+            } else {
+                device.dataset(sensor, sensor.name, sensor.data);
+            }
+        }
+
+        // Appended samples only become part of a packet once the index row is
+        // complete, so the row is filled in after all sensors were written.
+        Map<String, Long> offsets = new LinkedHashMap<>();
+        for (SensorPayload sensor : counts.keySet()) {
+            if (sensor.isGrouped()) {
+                for (Map.Entry<String, Object> channel : sensor.channels.entrySet()) {
+                    ExtendibleDataset dataset = device.dataset(sensor, sensor.name + "/" + channel.getKey(), channel.getValue());
+                    offsets.put(sensor.name, dataset.length());
+                    long started = System.nanoTime();
+                    dataset.append(channel.getValue());
+                    packet.addStageNanos(ConversionStage.WRITE_DATASETS, System.nanoTime() - started);
+                }
+            } else {
+                ExtendibleDataset dataset = device.dataset(sensor, sensor.name, sensor.data);
+                offsets.put(sensor.name, dataset.length());
+                if (sensor.name.equals("microphone")) {
+                    packet.microphoneOffset = dataset.length();
+                }
+                long started = System.nanoTime();
+                dataset.append(sensor.data);
+                packet.addStageNanos(ConversionStage.WRITE_DATASETS, System.nanoTime() - started);
+            }
+        }
+
+        ColumnTable index = device.index;
+        index.set("appFileStartTimestampEpochMicrosecondsUtc", packet.appFileStartTimestampEpochMicrosecondsUtc);
+        index.set("appFileStartTimestampMachine", packet.appFileStartTimestampMachine);
+        index.set("serverTimestampEpochMicrosecondsUtc", packet.serverTimestampEpochMicrosecondsUtc);
+        for (Map.Entry<SensorPayload, Integer> entry : counts.entrySet()) {
+            String sensorName = entry.getKey().name;
+            index.set(sensorName + "Offset", offsets.get(sensorName));
+            index.set(sensorName + "Count", entry.getValue());
+        }
+        index.endRow();
+    }
+
+    /**
+     * @return The number of samples per channel of a sensor.
+     * @throws Exception If the channels of a multi channel sensor differ in
+     * length, since they share one offset and count in the index.
+     */
+    private static int sampleCount(SensorPayload sensor, DecodedPacket packet) throws Exception {
+        if (!sensor.isGrouped()) {
+            return Array.getLength(sensor.data);
+        }
+        int count = -1;
+        for (Object channel : sensor.channels.values()) {
+            int channelCount = Array.getLength(channel);
+            if (count >= 0 && channelCount != count) {
+                throw new Exception("The " + sensor.name + " channels have different lengths in: " + packet.source);
+            }
+            count = channelCount;
+        }
+        return Math.max(count, 0);
+    }
+
+    private Device openDevice(DecodedPacket packet) throws Exception {
+        long fileId = h5File.getFID();
+        String path = "/" + packet.redvoxId;
+        if (!H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)) {
+            long groupId = H5.H5Gcreate(fileId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+            H5.H5Gclose(groupId);
+
+            Map<String, String> deviceMetadata = new LinkedHashMap<>();
+            deviceMetadata.put("redvoxId", packet.redvoxId);
+            deviceMetadata.put("deviceMake", packet.deviceMake);
+            deviceMetadata.put("deviceModel", packet.deviceModel);
+            deviceMetadata.put("deviceOs", packet.deviceOs);
+            deviceMetadata.put("deviceOsVersion", packet.deviceOsVersion);
+            PackageRedvoxToHdf5.MetadataMapToAttribute(h5File, h5File.get(path), deviceMetadata);
+        }
+        return new Device(path, ColumnTable.openOrCreate(h5File, path, PACKET_INDEX));
+    }
+
+    @Override
+    public void flush() throws HDF5Exception {
+        for (Device device : devices.values()) {
+            device.index.flush();
+        }
+    }
+
+    @Override
+    public void close() throws HDF5Exception {
+        HDF5Exception failure = null;
+        for (Device device : devices.values()) {
+            try {
+                device.close();
+            } catch (HDF5Exception e) {
+                failure = e;
+            }
+        }
+        devices.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The open datasets and index of one device.
+     */
+    private final class Device implements AutoCloseable {
+
+        private final String path;
+        private final ColumnTable index;
+        private final Map<String, ExtendibleDataset> datasets = new HashMap<>();
+
+        Device(String path, ColumnTable index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        /**
+         * Opens the dataset of a sensor or sensor channel, creating it and
+         * writing the sensor metadata if it does not exist yet. A dataset
+         * whose type can not hold the samples without loss is widened first.
+         */
+        ExtendibleDataset dataset(SensorPayload sensor, String name, Object data) throws Exception {
+            DatasetStorage sensorStorage = storage.forSensor(sensor.name);
+            SampleType type = sensorStorage.encoding().type(data);
+            ExtendibleDataset dataset = datasets.get(name);
+            if (dataset != null) {
+                if (dataset.type().widen(type) != dataset.type()) {
+                    dataset = widen(sensor, name, dataset, type);
+                }
+                return dataset;
+            }
+
+            long fileId = h5File.getFID();
+            String datasetPath = path + "/" + name;
+            boolean created = !H5.H5Lexists(fileId, datasetPath, HDF5Constants.H5P_DEFAULT);
+            if (sensor.isGrouped() && !H5.H5Lexists(fileId, path + "/" + sensor.name, HDF5Constants.H5P_DEFAULT)) {
+                long groupId = H5.H5Gcreate(fileId, path + "/" + sensor.name, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+                H5.H5Gclose(groupId);
+                PackageRedvoxToHdf5.MetadataMapToAttribute(h5File, h5File.get(path + "/" + sensor.name), sensor.metadata);
+            }
+
+            dataset = ExtendibleDataset.openOrCreate(fileId, datasetPath, type, sensorStorage, defaultChunkLength(sensor.name));
+            datasets.put(name, dataset);
+
+            if (created && !sensor.isGrouped()) {
+                HObject datasetObject = h5File.get(datasetPath);
+                PackageRedvoxToHdf5.MetadataMapToAttribute(h5File, datasetObject, sensor.metadata);
+            }
+            if (dataset.type().widen(type) != dataset.type()) {
+                dataset = widen(sensor, name, dataset, type);
+            }
+            return dataset;
+        }
+
+        /**
+         * Copies a dataset to a type wide enough for both its samples and
+         * new ones. The sensor metadata is written again from the packet
+         * being written, since the copy has no attributes.
+         */
+        private ExtendibleDataset widen(SensorPayload sensor, String name, ExtendibleDataset dataset, SampleType type) throws Exception {
+            String datasetPath = path + "/" + name;
+            ExtendibleDataset widened = dataset.widen(h5File.getFID(), datasetPath, dataset.type().widen(type),
+                    storage.forSensor(sensor.name), defaultChunkLength(sensor.name));
+            datasets.put(name, widened);
+            if (!sensor.isGrouped()) {
+                PackageRedvoxToHdf5.MetadataMapToAttribute(h5File, h5File.get(datasetPath), sensor.metadata);
+            }
+            return widened;
+        }
+
+        @Override
+        public void close() throws HDF5Exception {
+            try {
+                index.close();
+            } finally {
+                for (ExtendibleDataset dataset : datasets.values()) {
+                    dataset.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param sensorName A sensor name.
+     * @return The number of samples per chunk if none is configured. The
+     * microphone and image produce far more samples per packet than the other
+     * sensors.
+     */
+    private static long defaultChunkLength(String sensorName) {
+        switch (sensorName) {
+            case "microphone":
+            case "image":
+                return 65536;
+            default:
+                return 4096;
+        }
+    }
+}
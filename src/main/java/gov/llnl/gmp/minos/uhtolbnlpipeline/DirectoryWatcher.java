@@ -0,0 +1,384 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory tree for new packet files. Iterating the watcher
+ * blocks until the next packet file arrives and ends once the watcher is
+ * {@link #close() closed}, so it can be handed to
+ * {@link ConversionPipeline#run(Iterable, PacketWriter)} as its input.
+ *
+ * Files already in the tree when the watcher starts are reported like new
+ * ones, see {@link #existing()}, so packets that arrived while no converter
+ * was running are not lost; the caller skips those already converted. A
+ * file is reported once its size and modification time stayed the same for
+ * one poll interval, so packets still being copied in are not decoded half
+ * written.
+ *
+ * Changes are picked up through a {@link WatchService}, with subdirectories
+ * registered as they appear. When the file system has no watch service, or
+ * polling is requested (network file systems often do not report remote
+ * changes), the tree is scanned every poll interval instead. A scan only
+ * takes the files modified or changed (moved, copied in with their
+ * modification time kept) since the previous scan, so the watcher only
+ * remembers the files reported within the last few poll intervals however
+ * long it runs.
+ */
+final class DirectoryWatcher implements Iterable<Path>, AutoCloseable {
+
+    private static final Path END_OF_INPUT = FileSystems.getDefault().getPath("");
+
+    /**
+     * How far before the previous scan a file's timestamps must be for a
+     * scan to skip it, for file systems with coarse timestamps.
+     */
+    private static final long TIMESTAMP_SLACK_MILLIS = 2000;
+
+    private final Path root;
+    private final long pollMillis;
+    private final BlockingQueue<Path> arrived = new LinkedBlockingQueue<>();
+    private final Map<Path, FileState> settling = new LinkedHashMap<>();
+    /**
+     * The files reported since the scan horizon, which a scan may find
+     * again.
+     */
+    private final Map<Path, FileState> reported = new HashMap<>();
+    private final List<Path> existing;
+    private final boolean changeTimes;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    /**
+     * The directories of {@link #directories}, so a scan tells a registered
+     * directory without searching the keys.
+     */
+    private final Set<Path> registered = new HashSet<>();
+    private final Thread thread;
+    private WatchService watchService;
+    private long horizonMillis = Long.MIN_VALUE;
+    private volatile boolean closed;
+
+    /**
+     * @param root The directory to watch, including its subdirectories.
+     * @param pollMillis How long a new file must stay unchanged before it is
+     * reported, and how often the tree is scanned when polling.
+     * @param poll True to scan the tree instead of using a watch service.
+     * @throws IOException If the existing files could not be listed.
+     */
+    DirectoryWatcher(Path root, long pollMillis, boolean poll) throws IOException {
+        this.root = root;
+        this.pollMillis = pollMillis;
+        this.changeTimes = root.getFileSystem().supportedFileAttributeViews().contains("unix");
+        if (!poll) {
+            try {
+                watchService = root.getFileSystem().newWatchService();
+            } catch (UnsupportedOperationException | IOException e) {
+                System.err.println("Watching " + root + " is not supported, polling instead: " + e);
+            }
+        }
+        scan(root, Long.MIN_VALUE);
+        existing = new ArrayList<>(settling.keySet());
+        thread = new Thread(this::watch, "redvox-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * @return The packet files in the tree when the watcher was created.
+     * They are reported as they settle, like new files.
+     */
+    List<Path> existing() {
+        return Collections.unmodifiableList(existing);
+    }
+
+    /**
+     * Starts reporting new packet files.
+     *
+     * @return This watcher.
+     */
+    DirectoryWatcher start() {
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Stops watching. Packet files already reported are still returned by
+     * the iterator, after them the iteration ends.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        thread.interrupt();
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+        arrived.add(END_OF_INPUT);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        return new Iterator<Path>() {
+
+            private Path next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = arrived.take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        next = END_OF_INPUT;
+                    }
+                    if (next == END_OF_INPUT) {
+                        // Leave the marker for any later hasNext() call.
+                        arrived.add(END_OF_INPUT);
+                    }
+                }
+                return next != END_OF_INPUT;
+            }
+
+            @Override
+            public Path next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Path result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    private void watch() {
+        horizonMillis = System.currentTimeMillis() - TIMESTAMP_SLACK_MILLIS;
+        try {
+            while (!closed) {
+                long started;
+                if (watchService == null) {
+                    Thread.sleep(pollMillis);
+                    started = System.currentTimeMillis();
+                    scan(root, horizonMillis);
+                } else {
+                    WatchKey key = watchService.poll(pollMillis, TimeUnit.MILLISECONDS);
+                    started = System.currentTimeMillis();
+                    for (; key != null; key = watchService.poll()) {
+                        handle(key);
+                    }
+                }
+                settle();
+                horizonMillis = started - TIMESTAMP_SLACK_MILLIS;
+                forgetReported();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed.
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Stopped watching " + root + ": " + e);
+            close();
+        }
+    }
+
+    private void handle(WatchKey key) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                // Events were lost, find the new files the slow way.
+                scan(root, horizonMillis);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (Files.isDirectory(path)) {
+                // Files may have been created before the directory was registered.
+                scan(path, Long.MIN_VALUE);
+            } else {
+                candidate(path);
+            }
+        }
+        if (!key.reset()) {
+            registered.remove(directories.remove(key));
+        }
+    }
+
+    /**
+     * Registers every directory under {@code start} with the watch service
+     * and notes the packet files in it modified or changed since a time as
+     * candidates.
+     */
+    private void scan(Path start, long sinceMillis) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attributes) throws IOException {
+                register(directory);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && changedMillis(file, attributes, sinceMillis) >= sinceMillis) {
+                    candidate(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Deleted while the tree was walked.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return The later of a file's modification time and, where the file
+     * system keeps it, the time its inode last changed, which a file moved
+     * or copied into the tree with its modification time kept also updates.
+     */
+    private long changedMillis(Path file, BasicFileAttributes attributes, long sinceMillis) {
+        long changed = attributes.lastModifiedTime().toMillis();
+        if (changeTimes && changed < sinceMillis) {
+            try {
+                changed = Math.max(changed, ((FileTime) Files.getAttribute(file, "unix:ctime", LinkOption.NOFOLLOW_LINKS)).toMillis());
+            } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+                // Go by the modification time.
+            }
+        }
+        return changed;
+    }
+
+    private void register(Path directory) throws IOException {
+        if (watchService != null && !registered.contains(directory)) {
+            directories.put(directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY), directory);
+            registered.add(directory);
+        }
+    }
+
+    private void candidate(Path path) {
+        if (PacketFormat.isPacketFile(path)) {
+            FileState state = reported.get(path);
+            if (state == null || !state.equals(FileState.of(path, 0))) {
+                settling.putIfAbsent(path, FileState.MISSING);
+            }
+        }
+    }
+
+    /**
+     * Reports the candidates that did not change for a poll interval.
+     */
+    private void settle() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, FileState>> iterator = settling.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, FileState> entry = iterator.next();
+            FileState state = FileState.of(entry.getKey(), now);
+            if (state == FileState.MISSING) {
+                iterator.remove();
+            } else if (!state.equals(entry.getValue())) {
+                entry.setValue(state);
+            } else if (now - entry.getValue().observedMillis >= pollMillis) {
+                iterator.remove();
+                reported.put(entry.getKey(), entry.getValue());
+                arrived.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Forgets the reported files a scan can no longer find again: they were
+     * reported before the scan horizon and have not changed since.
+     */
+    private void forgetReported() {
+        reported.values().removeIf((FileState state) -> state.observedMillis < horizonMillis && state.lastModifiedMillis < horizonMillis);
+    }
+
+    /**
+     * The size and modification time of a file, and when they were first
+     * seen. Only the size and modification time are compared.
+     */
+    private static final class FileState {
+
+        static final FileState MISSING = new FileState(-1, -1, -1);
+
+        private final long size;
+        private final long lastModifiedMillis;
+        private final long observedMillis;
+
+        private FileState(long size, long lastModifiedMillis, long observedMillis) {
+            this.size = size;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.observedMillis = observedMillis;
+        }
+
+        static FileState of(Path path, long observedMillis) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                return attributes.isRegularFile()
+                        ? new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), observedMillis)
+                        : MISSING;
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof FileState)) {
+                return false;
+            }
+            FileState state = (FileState) other;
+            return size == state.size && lastModifiedMillis == state.lastModifiedMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(lastModifiedMillis);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import java.lang.reflect.Array;
+
+/**
+ * A one dimensional, chunked HDF5 dataset with an unlimited maximum size that
+ * samples are appended to. The dataset stays open until {@link #close()}, so
+ * appending does not pay for opening it again for every packet.
+ */
+final class ExtendibleDataset implements AutoCloseable {
+
+    /**
+     * The number of samples copied at a time by
+     * {@link #widen(long, String, SampleType, DatasetStorage, long)}.
+     */
+    private static final int WIDEN_BLOCK_LENGTH = 1 << 20;
+
+    private final long datasetId;
+    private final SampleType type;
+    private long length;
+
+    private ExtendibleDataset(long datasetId, SampleType type, long length) {
+        this.datasetId = datasetId;
+        this.type = type;
+        this.length = length;
+    }
+
+    /**
+     * Opens a dataset, creating an empty one if it does not exist yet.
+     *
+     * @param locationId The file or group the dataset is in.
+     * @param name The name of the dataset.
+     * @param type The type of the samples of a new dataset, an existing
+     * dataset keeps its type.
+     * @param storage The encoding, chunking and filters of a new dataset.
+     * @param defaultChunkLength The number of samples per chunk of a new
+     * dataset if the storage does not set one.
+     * @return The open dataset.
+     * @throws HDF5Exception If the dataset could not be opened or created.
+     */
+    static ExtendibleDataset openOrCreate(long locationId, String name, SampleType type, DatasetStorage storage, long defaultChunkLength) throws HDF5Exception {
+        if (H5.H5Lexists(locationId, name, HDF5Constants.H5P_DEFAULT)) {
+            long datasetId = H5.H5Dopen(locationId, name, HDF5Constants.H5P_DEFAULT);
+            long spaceId = H5.H5Dget_space(datasetId);
+            try {
+                long[] dims = new long[1];
+                H5.H5Sget_simple_extent_dims(spaceId, dims, null);
+                return new ExtendibleDataset(datasetId, SampleType.ofDataset(datasetId), dims[0]);
+            } finally {
+                H5.H5Sclose(spaceId);
+            }
+        }
+
+        long propertiesId = storage.createProperties(new long[]{storage.chunkLength(defaultChunkLength)});
+        long spaceId = H5.H5Screate_simple(1, new long[]{0}, new long[]{HDF5Constants.H5S_UNLIMITED});
+        try {
+            long datasetId = H5.H5Dcreate(locationId, name, storage.encoding().fileType(type), spaceId,
+                    HDF5Constants.H5P_DEFAULT, propertiesId, HDF5Constants.H5P_DEFAULT);
+            return new ExtendibleDataset(datasetId, type, 0);
+        } finally {
+            H5.H5Pclose(propertiesId);
+            H5.H5Sclose(spaceId);
+        }
+    }
+
+    /**
+     * @return The type of the samples.
+     */
+    SampleType type() {
+        return type;
+    }
+
+    /**
+     * @return The number of samples in the dataset.
+     */
+    long length() {
+        return length;
+    }
+
+    /**
+     * Appends all samples of an array to the end of the dataset.
+     *
+     * @param data A byte[], long[], double[] or String[] matching the
+     * dataset's type.
+     * @throws HDF5Exception If the samples could not be written.
+     */
+    void append(Object data) throws HDF5Exception {
+        append(data, Array.getLength(data));
+    }
+
+    /**
+     * Appends the first {@code count} samples of an array to the end of the
+     * dataset.
+     *
+     * @param data A byte[], long[], double[] or String[] matching the
+     * dataset's type.
+     * @param count The number of samples to append.
+     * @throws HDF5Exception If the samples could not be written.
+     */
+    void append(Object data, int count) throws HDF5Exception {
+        write(length, data, count);
+    }
+
+    /**
+     * Writes the first {@code count} samples of an array at an offset,
+     * replacing the samples there and growing the dataset if they extend
+     * past its end.
+     *
+     * @param offset The index of the first sample to write.
+     * @param data A byte[], long[], double[] or String[] matching the
+     * dataset's type.
+     * @param count The number of samples to write.
+     * @throws HDF5Exception If the samples could not be written.
+     */
+    void write(long offset, Object data, int count) throws HDF5Exception {
+        if (count == 0) {
+            return;
+        }
+
+        long[] start = {offset};
+        extendTo(offset + count);
+
+        long fileSpaceId = H5.H5Dget_space(datasetId);
+        long memorySpaceId = H5.H5Screate_simple(1, new long[]{count}, null);
+        try {
+            H5.H5Sselect_hyperslab(fileSpaceId, HDF5Constants.H5S_SELECT_SET, start, null, new long[]{count}, null);
+            SampleType.write(datasetId, memorySpaceId, fileSpaceId, data);
+        } finally {
+            H5.H5Sclose(memorySpaceId);
+            H5.H5Sclose(fileSpaceId);
+        }
+    }
+
+    /**
+     * Reads the first samples of the dataset, as many as the array holds.
+     *
+     * @param values A byte[], long[], double[] or String[] to read into.
+     * @throws HDF5Exception If the samples could not be read.
+     */
+    void read(Object values) throws HDF5Exception {
+        read(0, values, Array.getLength(values));
+    }
+
+    /**
+     * Reads consecutive samples of the dataset.
+     *
+     * @param offset The index of the first sample to read.
+     * @param values A byte[], long[], double[] or String[] to read into.
+     * @param count The number of samples to read, at most the length of the
+     * array.
+     * @throws HDF5Exception If the samples could not be read.
+     */
+    void read(long offset, Object values, int count) throws HDF5Exception {
+        long fileSpaceId = H5.H5Dget_space(datasetId);
+        long memorySpaceId = H5.H5Screate_simple(1, new long[]{count}, null);
+        try {
+            H5.H5Sselect_hyperslab(fileSpaceId, HDF5Constants.H5S_SELECT_SET, new long[]{offset}, null, new long[]{count}, null);
+            SampleType.read(datasetId, memorySpaceId, fileSpaceId, values);
+        } finally {
+            H5.H5Sclose(memorySpaceId);
+            H5.H5Sclose(fileSpaceId);
+        }
+    }
+
+    /**
+     * Replaces the dataset with a copy of a wider type, for samples that do
+     * not fit the type the dataset was created with. The copy takes the
+     * dataset's name, attributes are not copied. The file space of the
+     * original is not reused until the file is repacked.
+     *
+     * @param locationId The file or group the dataset is in.
+     * @param name The name of the dataset.
+     * @param wider The new type.
+     * @param storage The encoding, chunking and filters of the copy.
+     * @param defaultChunkLength The number of samples per chunk if the
+     * storage does not set one.
+     * @return The copy, this dataset is closed.
+     * @throws HDF5Exception If the dataset could not be copied.
+     */
+    ExtendibleDataset widen(long locationId, String name, SampleType wider, DatasetStorage storage, long defaultChunkLength) throws HDF5Exception {
+        String copyName = name + ".widening";
+        if (H5.H5Lexists(locationId, copyName, HDF5Constants.H5P_DEFAULT)) {
+            // Left behind by a conversion that was killed while widening.
+            H5.H5Ldelete(locationId, copyName, HDF5Constants.H5P_DEFAULT);
+        }
+        ExtendibleDataset copy = openOrCreate(locationId, copyName, wider, storage, defaultChunkLength);
+        try {
+            Object buffer = type.newArray((int) Math.min(length, WIDEN_BLOCK_LENGTH));
+            for (long offset = 0; offset < length; offset += WIDEN_BLOCK_LENGTH) {
+                int count = (int) Math.min(length - offset, WIDEN_BLOCK_LENGTH);
+                read(offset, buffer, count);
+                copy.append(buffer, count);
+            }
+        } catch (HDF5Exception | RuntimeException e) {
+            copy.close();
+            H5.H5Ldelete(locationId, copyName, HDF5Constants.H5P_DEFAULT);
+            throw e;
+        }
+        close();
+        H5.H5Ldelete(locationId, name, HDF5Constants.H5P_DEFAULT);
+        H5.H5Lmove(locationId, copyName, locationId, name, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+        return copy;
+    }
+
+    /**
+     * Grows the dataset to a length, filling the new samples with zeros, or
+     * empty strings.
+     *
+     * @param newLength The new length, ignored if not larger than the current
+     * length.
+     * @throws HDF5Exception If the dataset could not be extended.
+     */
+    void extendTo(long newLength) throws HDF5Exception {
+        if (newLength > length) {
+            H5.H5Dset_extent(datasetId, new long[]{newLength});
+            length = newLength;
+        }
+    }
+
+    @Override
+    public void close() throws HDF5Exception {
+        H5.H5Dclose(datasetId);
+    }
+}
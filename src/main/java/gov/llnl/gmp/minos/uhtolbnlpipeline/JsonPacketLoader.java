@@ -0,0 +1,176 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import io.redvox.api900.Reader;
+import io.redvox.apis.Api900;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+/**
+ * Loads JSON Serialized Redvox packets with a single pass over the file.
+ *
+ * The packet files hold the JSON document as an escaped string literal. The
+ * loader drops line breaks, escaped newlines, backslashes and the enclosing
+ * quotes while copying the file into a buffer that is reused by the calling
+ * thread, so the only per packet copy left is the final String handed to
+ * {@link Reader#readJson(String)}.
+ *
+ * Instances are not thread safe, use {@link #forCurrentThread()}.
+ */
+final class JsonPacketLoader {
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 20;
+
+    /**
+     * Files larger than this are memory mapped instead of being copied into
+     * the reusable read buffer, and unescaped into an array of their own
+     * instead of the reusable JSON buffer, so one huge packet does not pin
+     * huge buffers to a decoder thread for the rest of the run.
+     */
+    private static final long MAP_THRESHOLD = 64L << 20;
+
+    private static final ThreadLocal<JsonPacketLoader> LOADERS = ThreadLocal.withInitial(JsonPacketLoader::new);
+
+    private ByteBuffer readBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private byte[] jsonBuffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * @return The loader owned by the calling thread.
+     */
+    static JsonPacketLoader forCurrentThread() {
+        return LOADERS.get();
+    }
+
+    /**
+     * A method to read a Redvox packet from a JSON file.
+     *
+     * @param filePath The path to the JSON Serialized packet on disk.
+     * @return An optional Redvox packet.
+     * @throws IOException If the file could not be read.
+     */
+    Optional<Api900.RedvoxPacket> load(Path filePath) throws IOException {
+        return Reader.readJson(readJson(filePath));
+    }
+
+    /**
+     * Reads a packet file and returns the JSON document it holds.
+     *
+     * @param filePath The path to the JSON Serialized packet on disk.
+     * @return The unescaped JSON document.
+     * @throws IOException If the file could not be read.
+     */
+    String readJson(Path filePath) throws IOException {
+        return unescape(read(filePath));
+    }
+
+    /**
+     * Reads the raw contents of a packet.
+     *
+     * @param source A packet file or archive entry.
+     * @return The packet's contents, valid until the next call on this
+     * loader.
+     * @throws IOException If the file could not be read.
+     */
+    ByteBuffer read(PacketSource source) throws IOException {
+        byte[] contents = source.contents();
+        return contents != null ? ByteBuffer.wrap(contents) : read(source.path());
+    }
+
+    /**
+     * Reads the raw contents of a packet file.
+     *
+     * @param filePath The path to the JSON Serialized packet on disk.
+     * @return The file contents, valid until the next call on this loader.
+     * @throws IOException If the file could not be read.
+     */
+    ByteBuffer read(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return fill(channel, (int) size);
+        }
+    }
+
+    private ByteBuffer fill(FileChannel channel, int size) throws IOException {
+        if (readBuffer.capacity() < size) {
+            readBuffer = ByteBuffer.allocateDirect(grow(size));
+        }
+        readBuffer.clear();
+        readBuffer.limit(size);
+        while (readBuffer.hasRemaining()) {
+            if (channel.read(readBuffer) < 0) {
+                break;
+            }
+        }
+        readBuffer.flip();
+        return readBuffer;
+    }
+
+    private static int grow(int required) {
+        int capacity = Integer.highestOneBit(required) << 1;
+        return capacity > required ? capacity : required;
+    }
+
+    /**
+     * Removes line breaks, escaped newlines ("\n"), every other backslash and
+     * the enclosing quotes in one pass. Only ASCII bytes are removed, so the
+     * multi-byte UTF-8 sequences pass through untouched.
+     *
+     * @param contents The raw file contents.
+     * @return The JSON document.
+     */
+    String unescape(ByteBuffer contents) {
+        int limit = contents.limit();
+        byte[] json;
+        if (limit > MAP_THRESHOLD) {
+            json = new byte[limit];
+        } else {
+            if (jsonBuffer.length < limit) {
+                jsonBuffer = new byte[grow(limit)];
+            }
+            json = jsonBuffer;
+        }
+        int length = 0;
+        for (int i = 0; i < limit; i++) {
+            byte b = contents.get(i);
+            if (b == '\\') {
+                if (i + 1 < limit && contents.get(i + 1) == 'n') {
+                    i++;
+                }
+            } else if (b != '\n' && b != '\r') {
+                json[length++] = b;
+            }
+        }
+
+        int start = 0;
+        if (length > 0 && json[0] == '"') {
+            start = 1;
+        }
+        if (length > start && json[length - 1] == '"') {
+            length--;
+        }
+        return new String(json, start, length - start, StandardCharsets.UTF_8);
+    }
+}
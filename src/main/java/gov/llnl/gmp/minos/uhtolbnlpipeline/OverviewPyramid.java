@@ -0,0 +1,379 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.h5.H5File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decimated min/max/mean levels of the microphone and barometer samples of
+ * every device, so an overview of a long recording is read from a few small
+ * datasets instead of every sample. Each level is a {@link ColumnTable} with
+ * one row per bin of {@code factor} consecutive samples:
+ * <pre>
+ * /overviews/&lt;redvoxId&gt;/&lt;sensor&gt;/&lt;factor&gt;x/startMicros   time of the first sample of the bin
+ * /overviews/&lt;redvoxId&gt;/&lt;sensor&gt;/&lt;factor&gt;x/min
+ * /overviews/&lt;redvoxId&gt;/&lt;sensor&gt;/&lt;factor&gt;x/max
+ * /overviews/&lt;redvoxId&gt;/&lt;sensor&gt;/&lt;factor&gt;x/mean
+ * /overviews/&lt;redvoxId&gt;/&lt;sensor&gt;/&lt;factor&gt;x/sampleCount   factor, less for a bin cut short
+ * </pre>
+ *
+ * The levels are computed as the packets are written. Only the finest level
+ * passes over the samples, which are already in memory; every other level
+ * is built from the closed bins of the level below, whose factor divides its
+ * own, taking the min of their minimums, the max of their maximums and the
+ * mean weighted by their sample counts. A bin continues into the next packet of
+ * the device if that packet starts where the previous one ended, otherwise
+ * it is cut short at the gap, so no bin spans missing data. Bins are in the
+ * order the packets were converted, which is time order unless packets of a
+ * device arrive out of order.
+ *
+ * Barometer samples are not evenly spaced. Their bins are timed as if the
+ * samples of a packet were spread evenly over the packet's microphone
+ * samples.
+ *
+ * As a {@link PacketWriter} the pyramid wraps the writer of the layout.
+ */
+final class OverviewPyramid implements PacketWriter {
+
+    static final String GROUP = "overviews";
+
+    private static final String[] SENSORS = {"microphone", "barometer"};
+    private static final double MICROS_PER_SECOND = 1e6;
+    /**
+     * How far the next packet may start from the end of the previous one,
+     * beyond one sample period, for bins to continue across them.
+     */
+    private static final long CONTIGUOUS_TOLERANCE_MICROS = 10_000;
+
+    private final PacketWriter writer;
+    private final H5File h5File;
+    private final int[] factors;
+    private final Map<String, Device> devices = new HashMap<>();
+
+    /**
+     * @param h5File The open HDF5 file.
+     * @param writer The writer packets are passed on to.
+     * @param factors The number of samples per bin of each level.
+     */
+    OverviewPyramid(H5File h5File, PacketWriter writer, int[] factors) {
+        this.writer = writer;
+        this.h5File = h5File;
+        this.factors = factors.clone();
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        writer.write(packet);
+
+        Device device = devices.get(packet.redvoxId);
+        if (device == null) {
+            device = new Device(packet.redvoxId);
+            devices.put(packet.redvoxId, device);
+        }
+        device.add(packet);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        writer.flush();
+        for (Device device : devices.values()) {
+            for (Level level : device.levels()) {
+                level.table.flush();
+            }
+        }
+    }
+
+    @Override
+    public void idle() throws Exception {
+        writer.idle();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            writer.close();
+        } finally {
+            Exception failure = null;
+            for (Device device : devices.values()) {
+                for (Level level : device.levels()) {
+                    try {
+                        try {
+                            level.endBin();
+                        } finally {
+                            level.table.close();
+                        }
+                    } catch (Exception e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+            }
+            devices.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Creates a group and its missing parents.
+     */
+    private void createGroups(String path) throws HDF5Exception {
+        long fileId = h5File.getFID();
+        int separator = 0;
+        while (separator >= 0) {
+            separator = path.indexOf('/', separator + 1);
+            String parent = separator < 0 ? path : path.substring(0, separator);
+            if (!H5.H5Lexists(fileId, parent, HDF5Constants.H5P_DEFAULT)) {
+                H5.H5Gclose(H5.H5Gcreate(fileId, parent, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT));
+            }
+        }
+    }
+
+    /**
+     * The levels of one device, opened when the device's first packet with
+     * the sensor is written.
+     */
+    private final class Device {
+
+        private final String redvoxId;
+        private final Map<String, Level[]> sensors = new LinkedHashMap<>();
+        /**
+         * The time just after the device's last packet, or
+         * {@code Long.MIN_VALUE} before its first.
+         */
+        private long endMicros = Long.MIN_VALUE;
+
+        Device(String redvoxId) {
+            this.redvoxId = redvoxId;
+        }
+
+        void add(DecodedPacket packet) throws Exception {
+            long startMicros = packet.microphoneFirstSampleTimestampEpochMicrosecondsUtc;
+            double rate = packet.microphoneSampleRateHz;
+            long periodMicros = rate > 0 ? Math.round(MICROS_PER_SECOND / rate) : 0;
+            boolean contiguous = endMicros != Long.MIN_VALUE
+                    && Math.abs(startMicros - endMicros) <= periodMicros + CONTIGUOUS_TOLERANCE_MICROS;
+            if (!contiguous) {
+                for (Level level : levels()) {
+                    level.endBin();
+                }
+            }
+
+            long microphoneSamples = 0;
+            for (DecodedPacket.SensorPayload sensor : packet.sensors()) {
+                if (sensor.name.equals("microphone")) {
+                    microphoneSamples = SampleType.length(sensor.data);
+                }
+            }
+            long packetEndMicros = TimeIndex.endMicros(startMicros, microphoneSamples, rate);
+            for (DecodedPacket.SensorPayload sensor : packet.sensors()) {
+                Level[] levels = levels(sensor.name);
+                if (levels == null) {
+                    continue;
+                }
+                int length = SampleType.length(sensor.data);
+                // Microphone samples are evenly spaced, barometer samples are
+                // spread over the time of the packet's microphone samples.
+                double samplePeriodMicros = sensor.name.equals("microphone")
+                        ? (rate > 0 ? MICROS_PER_SECOND / rate : 0)
+                        : (length > 0 ? (double) (packetEndMicros - startMicros) / length : 0);
+                if (sensor.data instanceof long[]) {
+                    levels[0].add((long[]) sensor.data, length, startMicros, samplePeriodMicros);
+                } else if (sensor.data instanceof double[]) {
+                    levels[0].add((double[]) sensor.data, length, startMicros, samplePeriodMicros);
+                }
+            }
+            endMicros = packetEndMicros;
+        }
+
+        /**
+         * @return The levels of a sensor, opening them if needed, or null if
+         * the sensor has no overview.
+         */
+        private Level[] levels(String sensor) throws Exception {
+            Level[] levels = sensors.get(sensor);
+            if (levels == null) {
+                boolean overview = false;
+                for (String overviewSensor : SENSORS) {
+                    overview |= overviewSensor.equals(sensor);
+                }
+                if (!overview) {
+                    return null;
+                }
+                String path = "/" + GROUP + "/" + redvoxId + "/" + sensor;
+                createGroups(path);
+                levels = new Level[factors.length];
+                for (int i = factors.length - 1; i >= 0; i--) {
+                    levels[i] = new Level(factors[i], ColumnTable.openOrCreate(h5File, path, factors[i] + "x"),
+                            i + 1 < factors.length ? levels[i + 1] : null);
+                }
+                sensors.put(sensor, levels);
+            }
+            return levels;
+        }
+
+        /**
+         * @return The levels of all sensors, each sensor's from the finest
+         * to the coarsest, the order their bins have to be ended in.
+         */
+        List<Level> levels() {
+            List<Level> all = new ArrayList<>();
+            for (Level[] levels : sensors.values()) {
+                all.addAll(Arrays.asList(levels));
+            }
+            return all;
+        }
+    }
+
+    /**
+     * One level of a sensor's pyramid and the bin being filled.
+     */
+    private static final class Level {
+
+        private final int factor;
+        private final ColumnTable table;
+        /**
+         * The next coarser level, fed with the bins of this one, or null.
+         */
+        private final Level next;
+        private int count;
+        private long startMicros;
+        private double min;
+        private double max;
+        private double sum;
+
+        Level(int factor, ColumnTable table, Level next) {
+            this.factor = factor;
+            this.table = table;
+            this.next = next;
+        }
+
+        void add(long[] samples, int length, long firstSampleMicros, double samplePeriodMicros) throws HDF5Exception {
+            int i = 0;
+            while (i < length) {
+                if (count == 0) {
+                    startMicros = firstSampleMicros + Math.round(i * samplePeriodMicros);
+                    min = Double.POSITIVE_INFINITY;
+                    max = Double.NEGATIVE_INFINITY;
+                    sum = 0;
+                }
+                int end = i + Math.min(length - i, factor - count);
+                // Plain loop over the primitive array, with the accumulators
+                // in locals so the JIT keeps them in registers.
+                long binMin = Long.MAX_VALUE;
+                long binMax = Long.MIN_VALUE;
+                long binSum = 0;
+                for (int j = i; j < end; j++) {
+                    long sample = samples[j];
+                    binMin = Math.min(binMin, sample);
+                    binMax = Math.max(binMax, sample);
+                    binSum += sample;
+                }
+                min = Math.min(min, binMin);
+                max = Math.max(max, binMax);
+                sum += binSum;
+                count += end - i;
+                i = end;
+                if (count == factor) {
+                    endBin();
+                }
+            }
+        }
+
+        void add(double[] samples, int length, long firstSampleMicros, double samplePeriodMicros) throws HDF5Exception {
+            int i = 0;
+            while (i < length) {
+                if (count == 0) {
+                    startMicros = firstSampleMicros + Math.round(i * samplePeriodMicros);
+                    min = Double.POSITIVE_INFINITY;
+                    max = Double.NEGATIVE_INFINITY;
+                    sum = 0;
+                }
+                int end = i + Math.min(length - i, factor - count);
+                double binMin = Double.POSITIVE_INFINITY;
+                double binMax = Double.NEGATIVE_INFINITY;
+                double binSum = 0;
+                for (int j = i; j < end; j++) {
+                    double sample = samples[j];
+                    binMin = Math.min(binMin, sample);
+                    binMax = Math.max(binMax, sample);
+                    binSum += sample;
+                }
+                min = Math.min(min, binMin);
+                max = Math.max(max, binMax);
+                sum += binSum;
+                count += end - i;
+                i = end;
+                if (count == factor) {
+                    endBin();
+                }
+            }
+        }
+
+        /**
+         * Adds a closed bin of the next finer level.
+         */
+        void add(long binStartMicros, double binMin, double binMax, double binSum, int binCount) throws HDF5Exception {
+            if (count == 0) {
+                startMicros = binStartMicros;
+                min = binMin;
+                max = binMax;
+                sum = binSum;
+            } else {
+                min = Math.min(min, binMin);
+                max = Math.max(max, binMax);
+                sum += binSum;
+            }
+            count += binCount;
+            if (count >= factor) {
+                endBin();
+            }
+        }
+
+        /**
+         * Writes the bin being filled, if any, as a row and adds it to the
+         * next coarser level.
+         */
+        void endBin() throws HDF5Exception {
+            if (count == 0) {
+                return;
+            }
+            table.set("startMicros", startMicros);
+            table.set("min", min);
+            table.set("max", max);
+            table.set("mean", sum / count);
+            table.set("sampleCount", (long) count);
+            table.endRow();
+            int binCount = count;
+            count = 0;
+            if (next != null) {
+                next.add(startMicros, min, max, sum, binCount);
+            }
+        }
+    }
+}
@@ -16,6 +16,9 @@
  */
 package gov.llnl.gmp.minos.uhtolbnlpipeline;
 
+import gov.llnl.gmp.minos.uhtolbnlpipeline.DecodedPacket.SensorPayload;
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
 import hdf.hdf5lib.exceptions.HDF5Exception;
 import hdf.object.Attribute;
 import hdf.object.Dataset;
@@ -25,70 +28,63 @@ import hdf.object.Group;
 import hdf.object.HObject;
 import hdf.object.h5.H5Datatype;
 import hdf.object.h5.H5File;
-import io.redvox.api900.Reader;
-import io.redvox.api900.WrappedRedvoxPacket;
-import io.redvox.api900.sensors.AccelerometerSensor;
-import io.redvox.api900.sensors.BarometerSensor;
-import io.redvox.api900.sensors.GyroscopeSensor;
-import io.redvox.api900.sensors.ImageSensor;
-import io.redvox.api900.sensors.InfraredSensor;
-import io.redvox.api900.sensors.LightSensor;
-import io.redvox.api900.sensors.LocationSensor;
-import io.redvox.api900.sensors.MagnetometerSensor;
-import io.redvox.api900.sensors.MicrophoneSensor;
-import io.redvox.api900.sensors.TimeSynchronizationSensor;
-import io.redvox.apis.Api900;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import org.apache.commons.lang.ArrayUtils;
 
 /**
- * A program to convert a directory of Redvox JSON packets to a single HDF5
- * file.
+ * A program to convert a directory of Redvox packets (JSON, .rdvxz or raw
+ * protobuf) to a single HDF5 file.
  *
  * @author Steven Magana-Zook (maganazook1@llnl.gov)
  */
 public class PackageRedvoxToHdf5 {
 
     private static final Datatype FLOAT_TYPE = new H5Datatype(Datatype.CLASS_FLOAT, 4, Datatype.ORDER_BE, Datatype.NATIVE);
-    private static final Datatype DOUBLE_TYPE = new H5Datatype(Datatype.CLASS_FLOAT, 8, Datatype.ORDER_BE, Datatype.NATIVE);
     private static final Datatype LONG_TYPE = new H5Datatype(Datatype.CLASS_INTEGER, 8, Datatype.ORDER_BE, Datatype.NATIVE);
-    private static final Datatype BYTE_TYPE = new H5Datatype(Datatype.CLASS_INTEGER, 1, Datatype.ORDER_BE, Datatype.NATIVE);
     private static final Datatype INT_TYPE = new H5Datatype(Datatype.CLASS_INTEGER, 4, Datatype.ORDER_BE, Datatype.NATIVE);
     private static final Datatype STRING_TYPE = new H5Datatype(Datatype.CLASS_STRING, 1000, Datatype.NATIVE, Datatype.NATIVE);
 
     /**
      * The main runner method.
      *
-     * @param args Expected arguments: input directory, output file path.
+     * @param args Expected arguments: [options] input directory or archive,
+     * output file path. See {@link ConversionOptions#USAGE}.
      * @throws IOException
      */
     public static void main(String[] args) throws IOException {
 
-        if (args.length != 2) {
-            System.err.println("Usage: java -Djava.library.path=<path to hdf5 library> -jar PackageMavenToHdf5-1.0.0.jar <input directory> <output filename>");
+        ConversionOptions options;
+        try {
+            options = ConversionOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ConversionOptions.USAGE);
             return;
         }
 
-        String inputDirectory = args[0];
-        String outputFilename = args[1];
+        String inputDirectory = options.inputDirectory();
+        String outputFilename = options.outputFilename();
 
         // Validate input parameters
         Path pathInputDirectory = Paths.get(inputDirectory);
         boolean doesPathExist = pathInputDirectory.toFile().exists();
         boolean isPathDirectory = pathInputDirectory.toFile().isDirectory();
-        if (!doesPathExist || !isPathDirectory) {
-            System.err.println("Invalid input directory provided.");
+        boolean isPathArchive = doesPathExist && !isPathDirectory && PacketArchive.isArchive(pathInputDirectory);
+        if (!doesPathExist || !(isPathDirectory || isPathArchive) || (options.watch() && !isPathDirectory)) {
+            System.err.println("Invalid input directory or archive provided.");
             return;
         }
 
@@ -96,35 +92,166 @@ public class PackageRedvoxToHdf5 {
             outputFilename += ".h5";
         }
 
-        // Get a list of files to process
-        Stream<Path> filesStream = Files.walk(pathInputDirectory);
-        ArrayList<Path> filePaths = filesStream.filter((Path currentPath) -> currentPath.toFile().isFile())
-                .filter((Path currentPath) -> currentPath.toString().endsWith(".json"))
-                .collect(Collectors.toCollection(ArrayList::new));
+        if (options.watch()) {
+            watch(pathInputDirectory, outputFilename.substring(0, outputFilename.length() - ".h5".length()), options);
+            return;
+        }
+
+        if (options.shards() > 1 && options.shard() < 0) {
+            boolean succeeded = false;
+            try {
+                succeeded = ShardedConversion.run(args, options, outputFilename);
+            } catch (Exception ex) {
+                Logger.getLogger(PackageRedvoxToHdf5.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            if (!succeeded) {
+                // Let scripts tell a partial output from a complete one.
+                System.exit(1);
+            }
+            return;
+        }
 
-        if (filePaths.size() <= 0) {
+        // Find the files to process while they are converted, archives are
+        // read where they are found
+        Iterator<PacketSource> packets = new PacketDiscovery(pathInputDirectory,
+                (String fileName) -> isInShard(fileName, options), options.orderWindow(),
+                options.shards() == 1 || options.shardArchives()).iterator();
+        if (!packets.hasNext()) {
             System.err.println("There were no files to process.");
             return;
         }
 
+        if (options.shard() >= 0) {
+            outputFilename = ShardedConversion.shardPath(outputFilename, options.shard(), options.shards()).toString();
+        }
+
         // Process the files into an HDF5 file.
-        createHdf5File(outputFilename, filePaths);
+        if (createHdf5File(outputFilename, () -> packets, options) == null && options.shard() >= 0) {
+            // Let the coordinating process know this shard is incomplete.
+            System.exit(1);
+        }
     }
 
     /**
-     * A method to create an HDF5 file out of a collection of JSON Serialized
-     * Redvox packets.
+     * A method to create an HDF5 file out of a collection of Redvox packets.
      *
      * @param strHdf5FilePath The path to where the HDF5 file should be created.
-     * @param filePaths The collection of Redvox packets to add to the HDF5 file
-     * as datasets.
-     * @return The populated HDF5 file.
+     * @param packets The Redvox packets to add to the HDF5 file as datasets,
+     * iterated once as they are converted, e.g. a {@link PacketDiscovery}.
+     * @param options The conversion options.
+     * @return The populated HDF5 file, or null if the conversion failed.
      */
-    private static H5File createHdf5File(String strHdf5FilePath, ArrayList<Path> filePaths) {
+    static H5File createHdf5File(String strHdf5FilePath, Iterable<PacketSource> packets, ConversionOptions options) {
         H5File file = null;
         try {
-            final Path pathHdf5File = Paths.get(strHdf5FilePath);
+            // Fail before touching an existing file if a filter is missing
+            options.storage().checkAvailable();
+
+            file = openOutputFile(Paths.get(strHdf5FilePath), options.append());
+            if (options.append() && ConversionManifest.isMissing(file)) {
+                // Every packet would be converted a second time.
+                throw new IllegalStateException("The output file " + strHdf5FilePath + " was written without --append or"
+                        + " --manifest, so it has no record of the packets it holds and can not be appended to."
+                        + " Convert to a new file, or convert the input again with --manifest.");
+            }
+
+            // Packets are decoded in parallel, but only this thread writes to the file.
+            ConversionMetrics metrics = new ConversionMetrics();
+            ConversionPipeline pipeline = new ConversionPipeline(options.threads(), options.queueCapacity(), metrics, options.statistics());
+            // Only appending reads the manifest, it is written for a later --append.
+            PacketWriter writer = createWriter(file, options);
+            ConvertedTest converted = (PacketSource source) -> false;
+            if (options.append() || options.manifest()) {
+                ConversionManifest manifest = ConversionManifest.openOrCreate(file, writer);
+                converted = manifest::isConverted;
+                writer = manifest;
+            }
+            try (PacketWriter output = writer;
+                    ConversionMetrics.Progress progress = metrics.startProgress(options.progressInterval(), System.out)) {
+                pipeline.run(newPackets(packets, converted, metrics), output);
+            }
+            if (metrics.skippedPackets() > 0) {
+                System.out.println("Skipped " + metrics.skippedPackets() + " packets already converted.");
+            }
+            report(metrics, options);
+        } catch (Exception ex) {
+            Logger.getLogger(PackageRedvoxToHdf5.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (HDF5Exception ex) {
+                    System.err.println(ex);
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Leaves out the packets already converted as they are found, counting
+     * the others for the progress line.
+     *
+     * @param packets The packets found.
+     * @param converted Tells the packets already converted.
+     * @param metrics The metrics of the run.
+     * @return The packets to convert.
+     */
+    private static Iterable<PacketSource> newPackets(Iterable<PacketSource> packets, ConvertedTest converted, ConversionMetrics metrics) {
+        return () -> new Iterator<PacketSource>() {
+            private final Iterator<PacketSource> iterator = packets.iterator();
+            private PacketSource next;
+
+            @Override
+            public boolean hasNext() {
+                try {
+                    while (next == null && iterator.hasNext()) {
+                        PacketSource source = iterator.next();
+                        if (converted.isConverted(source)) {
+                            metrics.skipped(1);
+                        } else {
+                            metrics.found();
+                            next = source;
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (next == null) {
+                    metrics.discoveryComplete();
+                }
+                return next != null;
+            }
+
+            @Override
+            public PacketSource next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PacketSource result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
 
+    /**
+     * Opens an HDF5 file for writing.
+     *
+     * @param pathHdf5File The path of the file.
+     * @param append True to add to the file if it exists, false to replace
+     * it.
+     * @return The open file.
+     * @throws Exception If the file could not be created or opened.
+     */
+    static H5File openOutputFile(Path pathHdf5File, boolean append) throws Exception {
+        String strHdf5FilePath = pathHdf5File.toString();
+        H5File file;
+        if (append && Files.exists(pathHdf5File)) {
+            System.out.println("Appending to the existing file at " + strHdf5FilePath);
+            file = new H5File(strHdf5FilePath, FileFormat.WRITE);
+        } else {
             if (Files.exists(pathHdf5File)) {
                 System.out.println("An existing file was found at " + strHdf5FilePath + " it will be overwritten.");
                 Files.delete(pathHdf5File);
@@ -132,286 +259,309 @@ public class PackageRedvoxToHdf5 {
 
             file = new H5File(strHdf5FilePath, FileFormat.CREATE);
             file = (H5File) file.createFile(strHdf5FilePath, FileFormat.FILE_CREATE_OPEN);
-            file.open();
+        }
+        file.open();
+        return file;
+    }
+
+    /**
+     * @param fileName The name of a packet file.
+     * @param options The conversion options.
+     * @return True if the packet belongs to the shard being converted, or no
+     * single shard is being converted.
+     */
+    private static boolean isInShard(String fileName, ConversionOptions options) {
+        return options.shard() < 0 || ShardedConversion.shardOf(fileName, options.shards()) == options.shard();
+    }
+
+    /**
+     * Converts packets as they arrive in the input directory until the JVM
+     * is asked to shut down (Ctrl-C, SIGTERM). The current output file is
+     * then completed before the JVM exits.
+     *
+     * @param inputDirectory The directory to watch.
+     * @param outputPrefix The output path without the .h5 extension, the
+     * start of each file's time window is appended to it.
+     * @param options The conversion options.
+     */
+    private static void watch(Path inputDirectory, String outputPrefix, ConversionOptions options) {
+        try {
+            // Fail before waiting for packets if a filter is missing
+            options.storage().checkAvailable();
 
-            for (Path filePath : filePaths) {
+            DirectoryWatcher watcher = new DirectoryWatcher(inputDirectory, options.pollInterval().toMillis(), options.poll());
+
+            // Packets that arrived while no converter was running are
+            // converted, those already in a completed file are skipped.
+            List<PacketSource> existing = new ArrayList<>();
+            for (Path path : watcher.existing()) {
+                PacketSource source = PacketSource.of(path);
                 try {
-                    addDataset(filePath, file);
-                } catch (Exception e) {
-                    System.err.println(e);
+                    source.readAttributes();
+                    existing.add(source);
+                } catch (IOException e) {
+                    // Deleted since the scan.
                 }
             }
-        } catch (Exception ex) {
-            Logger.getLogger(PackageRedvoxToHdf5.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            if (file != null) {
+            Map<String, PacketSource> converted = RollingFileWriter.converted(outputPrefix, existing);
+            if (!existing.isEmpty()) {
+                System.out.println("Found " + existing.size() + " packets in " + inputDirectory + ", "
+                        + converted.size() + " of them already converted.");
+            }
+            Thread mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.out.println("Shutting down, completing the current file.");
+                watcher.close();
                 try {
-                    file.close();
-                } catch (HDF5Exception ex) {
-                    System.err.println(ex);
+                    mainThread.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
                 }
+            }, "redvox-shutdown"));
+
+            System.out.println("Watching " + inputDirectory + " for new packets.");
+            ConversionMetrics metrics = new ConversionMetrics();
+            ConversionPipeline pipeline = new ConversionPipeline(options.threads(), options.queueCapacity(), metrics, options.statistics());
+            try (RollingFileWriter writer = new RollingFileWriter(outputPrefix, options.rollInterval().toMillis(),
+                    (H5File file) -> ConversionManifest.openOrCreate(file, createWriter(file, options)));
+                    ConversionMetrics.Progress progress = metrics.startProgress(options.progressInterval(), System.out)) {
+                pipeline.run(newPackets(PacketSource.of(watcher.start()), (PacketSource source) -> {
+                    PacketSource convertedSource = converted.remove(source.location());
+                    if (convertedSource == null) {
+                        return false;
+                    }
+                    source.readAttributes();
+                    return source.size() == convertedSource.size() && source.lastModifiedMillis() == convertedSource.lastModifiedMillis();
+                }, metrics), writer);
             }
+            report(metrics, options);
+        } catch (Exception ex) {
+            Logger.getLogger(PackageRedvoxToHdf5.class.getName()).log(Level.SEVERE, null, ex);
         }
-        return file;
     }
 
     /**
-     * A method to add a Redvox packet to an HDF5 file as a dataset.
+     * Prints the JSON summary of a run, and writes it to the report file if
+     * one was requested.
      *
-     * @param filePath The path to the JSON Serialized Redvox packet on disk.
+     * @param metrics The metrics of the run.
+     * @param options The conversion options.
+     * @throws IOException If the report file could not be written.
+     */
+    private static void report(ConversionMetrics metrics, ConversionOptions options) throws IOException {
+        String summary = metrics.toJson();
+        System.out.println(metrics.progress());
+        System.out.println(summary);
+        if (options.report() != null) {
+            String reportFilename = options.report();
+            if (options.shard() >= 0) {
+                reportFilename = ShardedConversion.shardPath(reportFilename, options.shard(), options.shards()).toString();
+            }
+            Files.write(Paths.get(reportFilename), Collections.singletonList(summary), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * @param h5File The open HDF5 file.
+     * @param options The conversion options.
+     * @return The writer for the selected layout, metadata, overviews,
+     * {@link PacketStatisticsTable} and {@link TimeIndex}. The statistics
+     * and the time index of a file that already has them are kept up to date
+     * even if they were not asked for.
+     * @throws Exception If the packet metadata or statistics table or the
+     * time index could not be opened.
+     */
+    static PacketWriter createWriter(H5File h5File, ConversionOptions options) throws Exception {
+        StorageSettings storage = options.storage();
+        boolean attributes = options.metadata().attributes();
+        PacketWriter writer;
+        switch (options.layout()) {
+            case DEVICE:
+                writer = new DeviceLayoutWriter(h5File, storage);
+                break;
+            case PACKET:
+            default:
+                writer = packet -> addDataset(packet, h5File, storage, attributes);
+        }
+        if (options.metadata().table()) {
+            writer = PacketMetadataTable.openOrCreate(h5File, writer);
+        }
+        if (options.overviews().length > 0) {
+            writer = new OverviewPyramid(h5File, writer, options.overviews());
+        }
+        if (options.statistics() || H5.H5Lexists(h5File.getFID(), "/" + PacketStatisticsTable.GROUP, HDF5Constants.H5P_DEFAULT)) {
+            writer = PacketStatisticsTable.openOrCreate(h5File, writer);
+        }
+        if (options.timeIndex() || H5.H5Lexists(h5File.getFID(), "/" + TimeIndex.GROUP, HDF5Constants.H5P_DEFAULT)) {
+            writer = TimeIndex.openOrCreate(h5File, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * A method to add a decoded Redvox packet to an HDF5 file as a group of
+     * datasets.
+     *
+     * @param packet The decoded Redvox packet.
      * @param h5File The HDF5 file being modified.
+     * @param storage The chunking and filters of the sensor datasets.
+     * @param attributes True to write the packet metadata as attributes of
+     * the packet group.
      * @throws Exception
      */
-    private static void addDataset(Path filePath, H5File h5File) throws Exception {
-        String datasetName = filePath.getFileName().toString().replace(".json", "");
+    private static void addDataset(DecodedPacket packet, H5File h5File, StorageSettings storage, boolean attributes) throws Exception {
+        Group packetRootGroup = h5File.createGroup(packet.name, (Group) h5File.getRootObject());
+        if (packetRootGroup == null) {
+            throw new Exception("Could not create the packet group: " + packet.source);
+        }
 
-        Optional<Api900.RedvoxPacket> optionalPacket = ReadPacketJson(filePath);
-        if (optionalPacket == null || optionalPacket.isPresent() == false) {
-            throw new Exception("Could not read Redvox packet from file: " + filePath);
+        if (attributes) {
+            addPacketAttributes(packet, h5File, packetRootGroup);
         }
 
-        Api900.RedvoxPacket redvoxPacket = optionalPacket.get();
-        WrappedRedvoxPacket wrappedPacket = new WrappedRedvoxPacket(redvoxPacket);
+        for (SensorPayload sensor : packet.sensors()) {
+            DatasetStorage sensorStorage = storage.forSensor(sensor.name);
+            if (sensor.isGrouped()) {
+                // Multi channel sensors are a group holding the metadata with one dataset per channel
+                Group sensorGroup = h5File.createGroup(sensor.name, packetRootGroup);
+                MetadataMapToAttribute(h5File, sensorGroup, sensor.metadata);
+
+                for (Map.Entry<String, Object> channel : sensor.channels.entrySet()) {
+                    long started = System.nanoTime();
+                    createSensorDataset(h5File, channel.getKey(), sensorGroup, channel.getValue(), sensorStorage);
+                    packet.addStageNanos(ConversionStage.WRITE_DATASETS, System.nanoTime() - started);
+                }
+            } else {
+                long started = System.nanoTime();
+                Dataset dataset = createSensorDataset(h5File, sensor.name, packetRootGroup, sensor.data, sensorStorage);
+                packet.addStageNanos(ConversionStage.WRITE_DATASETS, System.nanoTime() - started);
 
-        Optional<MicrophoneSensor> optionalMicrophoneChannel = wrappedPacket.microphoneChannel();
-        if (optionalMicrophoneChannel.isPresent() == false) {
-            throw new Exception("Microphone sensor not present in file: " + filePath);
-        }
+                if (dataset == null) {
+                    throw new Exception("Could not create the " + sensor.name + " dataset: " + packet.source);
+                }
 
-        Group packetRootGroup = h5File.createGroup(datasetName, (Group) h5File.getRootObject());
-        if (packetRootGroup == null) {
-            throw new Exception("Could not create the packet group: " + filePath);
+                // Add sensor metadata as attributes
+                MetadataMapToAttribute(h5File, dataset, sensor.metadata);
+            }
         }
+    }
 
-        // Add metadata not specific to any sensor
+    /**
+     * Writes the metadata not specific to any sensor as attributes of a
+     * packet group.
+     *
+     * @param packet The decoded Redvox packet.
+     * @param h5File The HDF5 file being modified.
+     * @param packetRootGroup The packet's group.
+     * @throws Exception
+     */
+    private static void addPacketAttributes(DecodedPacket packet, H5File h5File, Group packetRootGroup) throws Exception {
         long[] genericMetadataDims = {1};
         Attribute attributeGenericMetadata = new Attribute("acquisitionServer", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.acquisitionServer()});
+        attributeGenericMetadata.setValue(new String[]{packet.acquisitionServer});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("api", INT_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new int[]{wrappedPacket.api()});
+        attributeGenericMetadata.setValue(new int[]{packet.api});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("appFileStartTimestampEpochMicrosecondsUtc", LONG_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new long[]{wrappedPacket.appFileStartTimestampEpochMicrosecondsUtc()});
+        attributeGenericMetadata.setValue(new long[]{packet.appFileStartTimestampEpochMicrosecondsUtc});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("appFileStartTimestampMachine", LONG_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new long[]{wrappedPacket.appFileStartTimestampMachine()});
+        attributeGenericMetadata.setValue(new long[]{packet.appFileStartTimestampMachine});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("appVersion", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.appVersion()});
+        attributeGenericMetadata.setValue(new String[]{packet.appVersion});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("batteryLevelPercent", FLOAT_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new float[]{wrappedPacket.batteryLevelPercent()});
+        attributeGenericMetadata.setValue(new float[]{packet.batteryLevelPercent});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("deviceMake", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.deviceMake()});
+        attributeGenericMetadata.setValue(new String[]{packet.deviceMake});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("deviceModel", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.deviceModel()});
+        attributeGenericMetadata.setValue(new String[]{packet.deviceModel});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("deviceOs", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.deviceOs()});
+        attributeGenericMetadata.setValue(new String[]{packet.deviceOs});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("deviceOsVersion", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.deviceOsVersion()});
+        attributeGenericMetadata.setValue(new String[]{packet.deviceOsVersion});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("deviceTemperatureC", FLOAT_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new float[]{wrappedPacket.deviceTemperatureC()});
+        attributeGenericMetadata.setValue(new float[]{packet.deviceTemperatureC});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("redvoxId", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.redvoxId()});
+        attributeGenericMetadata.setValue(new String[]{packet.redvoxId});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("serverTimestampEpochMicrosecondsUtc", LONG_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new long[]{wrappedPacket.serverTimestampEpochMicrosecondsUtc()});
+        attributeGenericMetadata.setValue(new long[]{packet.serverTimestampEpochMicrosecondsUtc});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("timeSynchronizationServer", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.timeSynchronizationServer()});
+        attributeGenericMetadata.setValue(new String[]{packet.timeSynchronizationServer});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
 
         attributeGenericMetadata = new Attribute("uuid", STRING_TYPE, genericMetadataDims);
-        attributeGenericMetadata.setValue(new String[]{wrappedPacket.uuid()});
+        attributeGenericMetadata.setValue(new String[]{packet.uuid});
         h5File.writeAttribute(packetRootGroup, attributeGenericMetadata, false);
+    }
 
-        int gzipCompressionLevel = 0;
-
-        MicrophoneSensor microphoneSensor = optionalMicrophoneChannel.get();
-        List<Long> microphoneData = microphoneSensor.payloadValues();
-        long[] microphoneDataPrimitive = ArrayUtils.toPrimitive(microphoneData.toArray(new Long[0]));
-
-        long[] dims = {1, (long) microphoneDataPrimitive.length};
-        long[] chunks = null;
+    /**
+     * A method to write one array of sensor samples as a 1 x n dataset.
+     *
+     * @param h5File The HDF5 file being modified.
+     * @param name The name of the dataset.
+     * @param group The group the dataset is created in.
+     * @param data The samples.
+     * @param storage The chunking and filters of the dataset.
+     * @return The new dataset.
+     * @throws Exception
+     */
+    static Dataset createSensorDataset(H5File h5File, String name, Group group, Object data, DatasetStorage storage) throws Exception {
+        long length = Array.getLength(data);
+        long[] dims = {1, length};
         long[] maxdims = dims;
-        Dataset datasetMicrophone = h5File.createScalarDS("microphone", packetRootGroup, LONG_TYPE, dims, maxdims, chunks, gzipCompressionLevel, microphoneDataPrimitive);
-
-        if (datasetMicrophone == null) {
-            throw new Exception("Could not create the microphone dataset: " + filePath);
-        }
-
-        // Add microphone metadata as attributes
-        MetadataMapToAttribute(h5File, datasetMicrophone, microphoneSensor.metadataMap());
-
-        Optional<AccelerometerSensor> optionalAccelerometerChannel = wrappedPacket.accelerometerChannel();
-        if (optionalAccelerometerChannel.isPresent()) {
-            AccelerometerSensor accelerometerSensor = optionalAccelerometerChannel.get();
-            List<Double> accelerometerValues = accelerometerSensor.payloadValues();
-            double[] accelerometerDataPrimitive = ArrayUtils.toPrimitive(accelerometerValues.toArray(new Double[0]));
-
-            dims = new long[]{1, (long) accelerometerDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetAccelerometer = h5File.createScalarDS("accelerometer", packetRootGroup, DOUBLE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, accelerometerDataPrimitive);
-
-            MetadataMapToAttribute(h5File, datasetAccelerometer, accelerometerSensor.metadataMap());
-        }
-
-        Optional<BarometerSensor> optionalBarometerChannel = wrappedPacket.barometerChannel();
-        if (optionalBarometerChannel.isPresent()) {
-            BarometerSensor barometerSensor = optionalBarometerChannel.get();
-            List<Double> barometerValues = barometerSensor.payloadValues();
-            double[] barometerDataPrimitive = ArrayUtils.toPrimitive(barometerValues.toArray(new Double[0]));
-
-            dims = new long[]{1, (long) barometerDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetBarometer = h5File.createScalarDS("barometer", packetRootGroup, DOUBLE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, barometerDataPrimitive);
-
-            MetadataMapToAttribute(h5File, datasetBarometer, barometerSensor.metadataMap());
-        }
-
-        Optional<GyroscopeSensor> optionalGyroscopeChannel = wrappedPacket.gyroscopeChannel();
-        if (optionalGyroscopeChannel.isPresent()) {
-            GyroscopeSensor gyroscopeSensor = optionalGyroscopeChannel.get();
-
-            List<Double> gyroscopeValuesX = gyroscopeSensor.payloadValuesX();
-            List<Double> gyroscopeValuesY = gyroscopeSensor.payloadValuesY();
-            List<Double> gyroscopeValuesZ = gyroscopeSensor.payloadValuesZ();
-            double[] gyroscopeDataPrimitiveX = ArrayUtils.toPrimitive(gyroscopeValuesX.toArray(new Double[0]));
-            double[] gyroscopeDataPrimitiveY = ArrayUtils.toPrimitive(gyroscopeValuesY.toArray(new Double[0]));
-            double[] gyroscopeDataPrimitiveZ = ArrayUtils.toPrimitive(gyroscopeValuesZ.toArray(new Double[0]));
-
-            Group groupGyroscope = h5File.createGroup("gyroscope", packetRootGroup);
-            MetadataMapToAttribute(h5File, groupGyroscope, gyroscopeSensor.metadataMap());
-
-            long[] dimsX = new long[]{1, (long) gyroscopeDataPrimitiveX.length};
-            long[] maxdimsX = dimsX;
-            h5File.createScalarDS("X", groupGyroscope, DOUBLE_TYPE, dimsX, maxdimsX, chunks, gzipCompressionLevel, gyroscopeDataPrimitiveX);
-
-            long[] dimsY = new long[]{1, (long) gyroscopeDataPrimitiveY.length};
-            long[] maxdimsY = dimsY;
-            h5File.createScalarDS("Y", groupGyroscope, DOUBLE_TYPE, dimsY, maxdimsY, chunks, gzipCompressionLevel, gyroscopeDataPrimitiveX);
-
-            long[] dimsZ = new long[]{1, (long) gyroscopeDataPrimitiveZ.length};
-            long[] maxdimsZ = dimsZ;
-            h5File.createScalarDS("Z", groupGyroscope, DOUBLE_TYPE, dimsZ, maxdimsZ, chunks, gzipCompressionLevel, gyroscopeDataPrimitiveX);
-        }
-
-        Optional<ImageSensor> optionalImageChannel = wrappedPacket.imageChannel();
-        if (optionalImageChannel.isPresent()) {
-            ImageSensor imageSensor = optionalImageChannel.get();
-            byte[] imageDataPrimitive = imageSensor.payloadBytes();
-
-            dims = new long[]{1, (long) imageDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetImage = h5File.createScalarDS("image", packetRootGroup, BYTE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, imageDataPrimitive);
-
-            MetadataMapToAttribute(h5File, datasetImage, imageSensor.metadataMap());
-        }
-
-        Optional<InfraredSensor> optionalInfraredChannel = wrappedPacket.infraredChannel();
-        if (optionalInfraredChannel.isPresent()) {
-            InfraredSensor infraredSensor = optionalInfraredChannel.get();
-            List<Double> infraredValues = infraredSensor.payloadValues();
-            double[] infraredDataPrimitive = ArrayUtils.toPrimitive(infraredValues.toArray(new Double[0]));
-
-            dims = new long[]{1, (long) infraredDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetInfrared = h5File.createScalarDS("infrared", packetRootGroup, DOUBLE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, infraredDataPrimitive);
-            MetadataMapToAttribute(h5File, datasetInfrared, infraredSensor.metadataMap());
-        }
-
-        Optional<LightSensor> optionalLightChannel = wrappedPacket.lightChannel();
-        if (optionalLightChannel.isPresent()) {
-            LightSensor lightSensor = optionalLightChannel.get();
-            List<Double> lightValues = lightSensor.payloadValues();
-            double[] lightDataPrimitive = ArrayUtils.toPrimitive(lightValues.toArray(new Double[0]));
-
-            dims = new long[]{1, (long) lightDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetLight = h5File.createScalarDS("light", packetRootGroup, DOUBLE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, lightDataPrimitive);
-            MetadataMapToAttribute(h5File, datasetLight, lightSensor.metadataMap());
-        }
-
-        Optional<LocationSensor> optionalLocationChannel = wrappedPacket.locationChannel();
-        if (optionalLocationChannel.isPresent()) {
-            LocationSensor locationSensor = optionalLocationChannel.get();
-
-            Group groupLocation = h5File.createGroup("location", packetRootGroup);
-            MetadataMapToAttribute(h5File, groupLocation, locationSensor.metadataMap());
-
-            List<Double> locationValuesAccuracy = locationSensor.payloadValuesAccuracy();
-            List<Double> locationValuesAltitude = locationSensor.payloadValuesAltitude();
-            List<Double> locationValuesLatitude = locationSensor.payloadValuesLatitude();
-            List<Double> locationValuesLongitude = locationSensor.payloadValuesLongitude();
-            double[] locationDataPrimitiveAccuracy = ArrayUtils.toPrimitive(locationValuesAccuracy.toArray(new Double[0]));
-            double[] locationDataPrimitiveAltitude = ArrayUtils.toPrimitive(locationValuesAltitude.toArray(new Double[0]));
-            double[] locationDataPrimitiveLatitude = ArrayUtils.toPrimitive(locationValuesLatitude.toArray(new Double[0]));
-            double[] locationDataPrimitiveLongitude = ArrayUtils.toPrimitive(locationValuesLongitude.toArray(new Double[0]));
-
-            long[] dimsAccuracy = new long[]{1, (long) locationDataPrimitiveAccuracy.length};
-            h5File.createScalarDS("accuracy", groupLocation, DOUBLE_TYPE, dimsAccuracy, dimsAccuracy, chunks, gzipCompressionLevel, locationDataPrimitiveAccuracy);
-
-            long[] dimsAltitude = new long[]{1, (long) locationDataPrimitiveAltitude.length};
-            h5File.createScalarDS("altitude", groupLocation, DOUBLE_TYPE, dimsAltitude, dimsAltitude, chunks, gzipCompressionLevel, locationDataPrimitiveAltitude);
-
-            long[] dimsLatitude = new long[]{1, (long) locationDataPrimitiveLatitude.length};
-            h5File.createScalarDS("latitude", groupLocation, DOUBLE_TYPE, dimsLatitude, dimsLatitude, chunks, gzipCompressionLevel, locationDataPrimitiveLatitude);
-
-            long[] dimsLongitude = new long[]{1, (long) locationDataPrimitiveLongitude.length};
-            h5File.createScalarDS("longitude", groupLocation, DOUBLE_TYPE, dimsLongitude, dimsLongitude, chunks, gzipCompressionLevel, locationDataPrimitiveLongitude);
-        }
-
-        Optional<MagnetometerSensor> optionaMagnetometerChannel = wrappedPacket.magnetometerChannel();
-        if (optionaMagnetometerChannel.isPresent()) {
-            MagnetometerSensor magnetometerSensor = optionaMagnetometerChannel.get();
-            List<Double> magnetometerValues = magnetometerSensor.payloadValues();
-            double[] magnetometerDataPrimitive = ArrayUtils.toPrimitive(magnetometerValues.toArray(new Double[0]));
-
-            dims = new long[]{1, (long) magnetometerDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetMagnetometer = h5File.createScalarDS("magnetometer", packetRootGroup, DOUBLE_TYPE, dims, maxdims, chunks, gzipCompressionLevel, magnetometerDataPrimitive);
-            MetadataMapToAttribute(h5File, datasetMagnetometer, magnetometerSensor.metadataMap());
+        long[] chunks = null;
+        if (storage.isChunked() && length > 0) {
+            // Without a configured chunk length every packet dataset is one chunk
+            chunks = new long[]{1, Math.min(length, storage.chunkLength(length))};
         }
 
-        Optional<TimeSynchronizationSensor> optionaTimeSynchronizationChannel = wrappedPacket.timeSynchronizationChannel();
-        if (optionaTimeSynchronizationChannel.isPresent()) {
-            TimeSynchronizationSensor timeSynchronizationSensor = optionaTimeSynchronizationChannel.get();
-            List<Long> timeSynchronizationValues = timeSynchronizationSensor.payloadValues();
-            long[] timeSynchronizationDataPrimitive = ArrayUtils.toPrimitive(timeSynchronizationValues.toArray(new Long[0]));
-
-            dims = new long[]{1, (long) timeSynchronizationDataPrimitive.length};
-            maxdims = dims;
-            Dataset datasetTimeSynchronization = h5File.createScalarDS(
-                    "timeSynchronization",
-                    packetRootGroup,
-                    LONG_TYPE,
-                    dims,
-                    maxdims,
-                    chunks,
-                    gzipCompressionLevel,
-                    timeSynchronizationDataPrimitive);
-            MetadataMapToAttribute(h5File, datasetTimeSynchronization, timeSynchronizationSensor.metadataMap());
+        // Written through the low-level API straight from the sample array,
+        // the object API would copy the samples first. Narrower file types
+        // are converted to by the HDF5 library as the samples are written.
+        String path = group.getFullName() + "/" + name;
+        long propertiesId = storage.createProperties(chunks);
+        try {
+            long spaceId = H5.H5Screate_simple(dims.length, dims, maxdims);
+            try {
+                SampleEncoding encoding = storage.encoding();
+                long datasetId = H5.H5Dcreate(h5File.getFID(), path, encoding.fileType(encoding.type(data)), spaceId,
+                        HDF5Constants.H5P_DEFAULT, propertiesId, HDF5Constants.H5P_DEFAULT);
+                try {
+                    SampleType.write(datasetId, HDF5Constants.H5S_ALL, HDF5Constants.H5S_ALL, data);
+                } finally {
+                    H5.H5Dclose(datasetId);
+                }
+            } finally {
+                H5.H5Sclose(spaceId);
+            }
+        } finally {
+            H5.H5Pclose(propertiesId);
         }
+        return (Dataset) h5File.get(path);
     }
 
     /**
@@ -424,7 +574,7 @@ public class PackageRedvoxToHdf5 {
      * attributes.
      * @throws HDF5Exception
      */
-    private static void MetadataMapToAttribute(H5File h5File, HObject hObject, Map<String, String> metadata) throws HDF5Exception {
+    static void MetadataMapToAttribute(H5File h5File, HObject hObject, Map<String, String> metadata) throws HDF5Exception {
         long[] attrDims = {1};
         for (Map.Entry<String, String> entry : metadata.entrySet()) {
             String key = entry.getKey();
@@ -439,32 +589,11 @@ public class PackageRedvoxToHdf5 {
     }
 
     /**
-     * A method to read a Redvox packet from a JSON file.
-     *
-     * @param filePath THe path to the JSON Serialized packet on disk.
-     * @return An optional Redvox packet, or null on error.
+     * Tells whether a packet was converted before.
      */
-    private static Optional<Api900.RedvoxPacket> ReadPacketJson(Path filePath) {
-        try {
-            List<String> allLines = Files.readAllLines(filePath);
-            StringBuilder appendedLines = new StringBuilder();
-            allLines.forEach((line) -> {
-                appendedLines.append(line.replace("\\n", "").replace("\\", ""));
-            });
-
-            String json = appendedLines.toString();
-            if (json.startsWith("\"")) {
-                json = json.replaceFirst("\"", "");
-            }
-            if (json.endsWith("\"")) {
-                json = json.substring(0, json.length() - 1);
-            }
+    @FunctionalInterface
+    private interface ConvertedTest {
 
-            return Reader.readJson(json);
-        } catch (IOException ex) {
-            System.err.println(ex);
-            return null;
-        }
+        boolean isConverted(PacketSource source) throws IOException;
     }
-
 }
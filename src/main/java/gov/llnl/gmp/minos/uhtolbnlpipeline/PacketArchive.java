@@ -0,0 +1,445 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The packets of a zip, tar or gzip compressed tar archive, read straight
+ * from the archive without extracting it. The archive is read by the thread
+ * iterating it, which in the {@link ConversionPipeline} is the producer
+ * feeding the decoder threads, and each packet entry is read into memory and
+ * handed on as a {@link PacketSource}. Entries that are not packet files, and
+ * packet files rejected by the file name filter, are skipped without being
+ * kept.
+ *
+ * Zip archives are read through their central directory, so only the
+ * accepted entries are inflated; a zip archive whose central directory
+ * cannot be read is read as a stream instead. Tar archives can only be read
+ * as a stream, and a gzip compressed one is decompressed whole however few
+ * of its entries are accepted, see {@link #isStreamed(Path)}.
+ *
+ * An archive that cannot be read is reported and its remaining entries are
+ * skipped, the packets before the damage are converted.
+ */
+final class PacketArchive implements Iterable<PacketSource> {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int TAR_BLOCK = 512;
+
+    private final Path archive;
+    private final Predicate<String> fileNames;
+
+    /**
+     * @param archive The archive.
+     * @param fileNames Accepts the packet files to convert by file name,
+     * checked before an entry is read.
+     */
+    PacketArchive(Path archive, Predicate<String> fileNames) {
+        this.archive = archive;
+        this.fileNames = fileNames;
+    }
+
+    /**
+     * @param path A file.
+     * @return True if the file is a zip, tar or gzip compressed tar archive,
+     * by its extension.
+     */
+    static boolean isArchive(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+    }
+
+    /**
+     * @param path An archive.
+     * @return True if every entry of the archive is read to get to the
+     * accepted ones, i.e. it is a tar or gzip compressed tar archive.
+     */
+    static boolean isStreamed(Path path) {
+        return isArchive(path) && !path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".zip");
+    }
+
+    @Override
+    public Iterator<PacketSource> iterator() {
+        return new Iterator<PacketSource>() {
+            private EntryReader reader;
+            private PacketSource next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && !done) {
+                    try {
+                        if (reader == null) {
+                            reader = open();
+                        }
+                        next = reader.next();
+                        done = next == null;
+                    } catch (IOException e) {
+                        System.err.println("Could not read archive " + archive + ": " + e);
+                        done = true;
+                    }
+                    if (done && reader != null) {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            System.err.println(e);
+                        }
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public PacketSource next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                PacketSource result = next;
+                next = null;
+                return result;
+            }
+        };
+    }
+
+    private EntryReader open() throws IOException {
+        String name = archive.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".zip")) {
+            try {
+                return new ZipFileEntryReader(new ZipFile(archive.toFile()));
+            } catch (ZipException e) {
+                System.err.println("Could not read the central directory of " + archive + ", reading it as a stream: " + e);
+            }
+        }
+        InputStream in = new BufferedInputStream(Files.newInputStream(archive), BUFFER_SIZE);
+        try {
+            if (name.endsWith(".zip")) {
+                return new ZipEntryReader(new ZipInputStream(in));
+            }
+            if (!name.endsWith(".tar")) {
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+            }
+            return new TarEntryReader(in);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return True if the entry is a packet file the file name filter accepts.
+     */
+    private boolean accept(String entryName) {
+        String fileName = entryName.substring(entryName.lastIndexOf('/') + 1);
+        return PacketFormat.of(fileName) != null && fileNames.test(fileName);
+    }
+
+    /**
+     * Reads the entries of an archive in order.
+     */
+    private abstract class EntryReader implements AutoCloseable {
+
+        /**
+         * @return The next accepted packet, or null at the end of the archive.
+         */
+        abstract PacketSource next() throws IOException;
+
+        @Override
+        public abstract void close() throws IOException;
+    }
+
+    private final class ZipFileEntryReader extends EntryReader {
+
+        private final ZipFile zip;
+        private final Enumeration<? extends ZipEntry> entries;
+
+        ZipFileEntryReader(ZipFile zip) {
+            this.zip = zip;
+            this.entries = zip.entries();
+        }
+
+        @Override
+        PacketSource next() throws IOException {
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !accept(entry.getName())) {
+                    continue;
+                }
+                byte[] contents;
+                try (InputStream in = zip.getInputStream(entry)) {
+                    contents = entry.getSize() >= 0 ? readFully(in, entry.getSize()) : readAll(in);
+                }
+                return PacketSource.ofEntry(archive, entry.getName(), contents, entry.getTime());
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    private final class ZipEntryReader extends EntryReader {
+
+        private final ZipInputStream in;
+
+        ZipEntryReader(ZipInputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        PacketSource next() throws IOException {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                if (entry.isDirectory() || !accept(entry.getName())) {
+                    continue;
+                }
+                byte[] contents = entry.getSize() >= 0 ? readFully(in, entry.getSize()) : readAll(in);
+                return PacketSource.ofEntry(archive, entry.getName(), contents, entry.getTime());
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads POSIX (ustar), GNU and pax tar archives. Only regular files are
+     * returned; long names are taken from GNU long name entries and pax
+     * {@code path} records.
+     */
+    private final class TarEntryReader extends EntryReader {
+
+        private final InputStream in;
+        private final byte[] header = new byte[TAR_BLOCK];
+
+        TarEntryReader(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        PacketSource next() throws IOException {
+            String longName = null;
+            while (true) {
+                if (!readBlock(header)) {
+                    return null;
+                }
+                if (isZero(header)) {
+                    // The end of archive marker.
+                    return null;
+                }
+                String name = string(header, 0, 100);
+                String prefix = string(header, 345, 155);
+                if (!prefix.isEmpty() && header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a' && header[261] == 'r') {
+                    name = prefix + "/" + name;
+                }
+                long size = number(header, 124, 12);
+                long lastModifiedMillis = number(header, 136, 12) * 1000;
+                byte type = header[156];
+
+                if (type == 'L') {
+                    longName = string(readFully(in, size), 0, (int) size);
+                    skipPadding(size);
+                    continue;
+                }
+                if (type == 'x') {
+                    String path = paxPath(readFully(in, size));
+                    skipPadding(size);
+                    if (path != null) {
+                        longName = path;
+                    }
+                    continue;
+                }
+                if (longName != null) {
+                    name = longName;
+                    longName = null;
+                }
+                boolean regular = type == '0' || type == 0 || type == '7';
+                if (!regular || !accept(name)) {
+                    skip(size);
+                    skipPadding(size);
+                    continue;
+                }
+                byte[] contents = readFully(in, size);
+                skipPadding(size);
+                return PacketSource.ofEntry(archive, name, contents, lastModifiedMillis);
+            }
+        }
+
+        private boolean readBlock(byte[] block) throws IOException {
+            int read = 0;
+            while (read < block.length) {
+                int count = in.read(block, read, block.length - read);
+                if (count < 0) {
+                    if (read == 0) {
+                        // Archives missing the end marker end after an entry.
+                        return false;
+                    }
+                    throw new EOFException("Truncated tar header");
+                }
+                read += count;
+            }
+            return true;
+        }
+
+        private void skipPadding(long size) throws IOException {
+            skip((TAR_BLOCK - size % TAR_BLOCK) % TAR_BLOCK);
+        }
+
+        private void skip(long count) throws IOException {
+            long remaining = count;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("Truncated tar entry");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A NUL terminated header field.
+     */
+    private static String string(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return A numeric header field, octal or GNU base-256.
+     */
+    private static long number(byte[] bytes, int offset, int length) throws IOException {
+        if ((bytes[offset] & 0x80) != 0) {
+            long value = bytes[offset] & 0x7f;
+            for (int i = offset + 1; i < offset + length; i++) {
+                value = (value << 8) | (bytes[i] & 0xff);
+            }
+            return value;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid tar header field: " + string(bytes, offset, length));
+            }
+            value = (value << 3) | (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return The {@code path} record of a pax extended header, or null.
+     */
+    private static String paxPath(byte[] records) {
+        int offset = 0;
+        while (offset < records.length) {
+            // Each record is "<length> <key>=<value>\n", the length counting
+            // the whole record.
+            int space = offset;
+            while (space < records.length && records[space] != ' ') {
+                space++;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(records, offset, space - offset, StandardCharsets.US_ASCII));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (length <= 0 || offset + length > records.length) {
+                return null;
+            }
+            String record = new String(records, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+            if (record.startsWith("path=")) {
+                return record.substring("path=".length());
+            }
+            offset += length;
+        }
+        return null;
+    }
+
+    private static byte[] readFully(InputStream in, long size) throws IOException {
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IOException("Archive entry too large: " + size + " bytes");
+        }
+        byte[] contents = new byte[(int) size];
+        int read = 0;
+        while (read < contents.length) {
+            int count = in.read(contents, read, contents.length - read);
+            if (count < 0) {
+                throw new EOFException("Truncated archive entry");
+            }
+            read += count;
+        }
+        return contents;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream contents = new ByteArrayOutputStream(BUFFER_SIZE);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        for (int count = in.read(buffer); count >= 0; count = in.read(buffer)) {
+            contents.write(buffer, 0, count);
+        }
+        return contents.toByteArray();
+    }
+}
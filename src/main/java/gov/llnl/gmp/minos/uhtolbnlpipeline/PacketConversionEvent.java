@@ -0,0 +1,105 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A Flight Recorder event for every converted packet. The event spans the
+ * write of the packet, the time of the stages before it is in its fields.
+ * Record a run with {@code -XX:StartFlightRecording} and look for
+ * {@value #NAME} in JDK Mission Control or {@code jfr print --events}.
+ *
+ * Only {@link ConversionEvents} refers to this class, so the converter
+ * still runs on JVMs without Flight Recorder.
+ */
+@Name(PacketConversionEvent.NAME)
+@Label("Packet Conversion")
+@Category({"Redvox", "Conversion"})
+@Description("A Redvox packet read, decoded and written to the HDF5 file")
+@StackTrace(false)
+final class PacketConversionEvent extends Event {
+
+    static final String NAME = "gov.llnl.gmp.minos.PacketConversion";
+
+    @Label("Path")
+    String path;
+
+    @Label("Redvox Id")
+    String redvoxId;
+
+    @Label("UUID")
+    String uuid;
+
+    @Label("File Size")
+    @DataAmount
+    long fileSize;
+
+    @Label("Samples")
+    long samples;
+
+    @Label("Read")
+    @Timespan
+    long read;
+
+    @Label("Parse")
+    @Timespan
+    long parse;
+
+    @Label("Convert")
+    @Timespan
+    long convert;
+
+    @Label("Write Attributes")
+    @Timespan
+    long writeAttributes;
+
+    @Label("Write Datasets")
+    @Timespan
+    long writeDatasets;
+
+    static Object startEvent() {
+        PacketConversionEvent event = new PacketConversionEvent();
+        event.begin();
+        return event;
+    }
+
+    static void commitEvent(Object started, DecodedPacket packet) {
+        PacketConversionEvent event = (PacketConversionEvent) started;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = packet.source.location();
+            event.redvoxId = packet.redvoxId;
+            event.uuid = packet.uuid;
+            event.fileSize = packet.sourceSize;
+            event.samples = packet.samples();
+            event.read = packet.stageNanos(ConversionStage.READ);
+            event.parse = packet.stageNanos(ConversionStage.PARSE);
+            event.convert = packet.stageNanos(ConversionStage.CONVERT);
+            event.writeAttributes = packet.stageNanos(ConversionStage.WRITE_ATTRIBUTES);
+            event.writeDatasets = packet.stageNanos(ConversionStage.WRITE_DATASETS);
+            event.commit();
+        }
+    }
+}
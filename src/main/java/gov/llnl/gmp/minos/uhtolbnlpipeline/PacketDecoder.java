@@ -0,0 +1,212 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import gov.llnl.gmp.minos.uhtolbnlpipeline.DecodedPacket.SensorPayload;
+import io.redvox.api900.Reader;
+import io.redvox.api900.WrappedRedvoxPacket;
+import io.redvox.api900.sensors.AccelerometerSensor;
+import io.redvox.api900.sensors.BarometerSensor;
+import io.redvox.api900.sensors.GyroscopeSensor;
+import io.redvox.api900.sensors.ImageSensor;
+import io.redvox.api900.sensors.InfraredSensor;
+import io.redvox.api900.sensors.LightSensor;
+import io.redvox.api900.sensors.LocationSensor;
+import io.redvox.api900.sensors.MagnetometerSensor;
+import io.redvox.api900.sensors.MicrophoneSensor;
+import io.redvox.api900.sensors.TimeSynchronizationSensor;
+import io.redvox.apis.Api900;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Optional;
+
+/**
+ * Turns a Redvox packet file on disk or in an archive into a
+ * {@link DecodedPacket}. Decoding
+ * does not touch the HDF5 file, so it is safe to call from many threads at
+ * once.
+ */
+final class PacketDecoder {
+
+    private PacketDecoder() {
+    }
+
+    /**
+     * A method to read and decode a Redvox packet file.
+     *
+     * @param filePath The path to the Redvox packet on disk, in any of the
+     * {@link PacketFormat}s.
+     * @return The decoded packet.
+     * @throws Exception If the packet could not be read or has no microphone
+     * channel.
+     */
+    static DecodedPacket decode(Path filePath) throws Exception {
+        return decode(PacketSource.of(filePath));
+    }
+
+    /**
+     * A method to read and decode a Redvox packet. The time spent reading,
+     * parsing and converting the packet is recorded in the packet.
+     *
+     * @param source The Redvox packet file or archive entry, in any of the
+     * {@link PacketFormat}s.
+     * @return The decoded packet.
+     * @throws Exception If the packet could not be read or has no microphone
+     * channel.
+     */
+    static DecodedPacket decode(PacketSource source) throws Exception {
+        String fileName = source.fileName();
+        PacketFormat format = PacketFormat.of(fileName);
+        if (format == null) {
+            throw new Exception("Not a Redvox packet file: " + source);
+        }
+        String datasetName = format.stripExtension(fileName);
+        source.readAttributes();
+
+        long started = System.nanoTime();
+        Api900.RedvoxPacket redvoxPacket;
+        long read;
+        if (format == PacketFormat.JSON) {
+            JsonPacketLoader loader = JsonPacketLoader.forCurrentThread();
+            ByteBuffer contents = loader.read(source);
+            read = System.nanoTime();
+            Optional<Api900.RedvoxPacket> optionalPacket = Reader.readJson(loader.unescape(contents));
+            if (optionalPacket == null || optionalPacket.isPresent() == false) {
+                throw new Exception("Could not read Redvox packet from file: " + source);
+            }
+            redvoxPacket = optionalPacket.get();
+        } else {
+            BinaryPacketLoader loader = BinaryPacketLoader.forCurrentThread();
+            int length = loader.read(source);
+            read = System.nanoTime();
+            redvoxPacket = loader.parse(length, format);
+        }
+        long parsed = System.nanoTime();
+
+        DecodedPacket packet = decode(source, datasetName, redvoxPacket);
+        packet.addStageNanos(ConversionStage.READ, read - started);
+        packet.addStageNanos(ConversionStage.PARSE, parsed - read);
+        packet.addStageNanos(ConversionStage.CONVERT, System.nanoTime() - parsed);
+        return packet;
+    }
+
+    /**
+     * Decodes a packet file that has already been read.
+     *
+     * @param filePath The path the packet was read from.
+     * @param attributes The attributes of the packet file.
+     * @param datasetName The name of the packet's group in the HDF5 file.
+     * @param redvoxPacket The packet.
+     * @return The decoded packet.
+     * @throws Exception If the packet has no microphone channel.
+     */
+    static DecodedPacket decode(Path filePath, BasicFileAttributes attributes, String datasetName, Api900.RedvoxPacket redvoxPacket) throws Exception {
+        return decode(PacketSource.of(filePath, attributes), datasetName, redvoxPacket);
+    }
+
+    /**
+     * Decodes a packet that has already been read. The sample arrays come
+     * from the {@link SampleArrayPool}, see {@link DecodedPacket#release()}.
+     *
+     * @param source The file or archive entry the packet was read from, with
+     * its attributes read.
+     * @param datasetName The name of the packet's group in the HDF5 file.
+     * @param redvoxPacket The packet.
+     * @return The decoded packet.
+     * @throws Exception If the packet has no microphone channel.
+     */
+    static DecodedPacket decode(PacketSource source, String datasetName, Api900.RedvoxPacket redvoxPacket) throws Exception {
+        WrappedRedvoxPacket wrappedPacket = new WrappedRedvoxPacket(redvoxPacket);
+
+        Optional<MicrophoneSensor> optionalMicrophoneChannel = wrappedPacket.microphoneChannel();
+        if (optionalMicrophoneChannel.isPresent() == false) {
+            throw new Exception("Microphone sensor not present in file: " + source);
+        }
+
+        DecodedPacket packet = new DecodedPacket(source, datasetName, wrappedPacket,
+                PayloadReader.evenlySampledChannel(redvoxPacket, Api900.ChannelType.MICROPHONE));
+
+        MicrophoneSensor microphoneSensor = optionalMicrophoneChannel.get();
+        packet.addSensor(SensorPayload.single("microphone", microphoneSensor.metadataMap(), PayloadReader.allLongs(redvoxPacket, Api900.ChannelType.MICROPHONE)));
+
+        Optional<AccelerometerSensor> optionalAccelerometerChannel = wrappedPacket.accelerometerChannel();
+        if (optionalAccelerometerChannel.isPresent()) {
+            AccelerometerSensor accelerometerSensor = optionalAccelerometerChannel.get();
+            packet.addSensor(SensorPayload.interleaved("accelerometer", accelerometerSensor.metadataMap(),
+                    PayloadReader.allDoubles(redvoxPacket, Api900.ChannelType.ACCELEROMETER_X), "X", "Y", "Z"));
+        }
+
+        Optional<BarometerSensor> optionalBarometerChannel = wrappedPacket.barometerChannel();
+        if (optionalBarometerChannel.isPresent()) {
+            BarometerSensor barometerSensor = optionalBarometerChannel.get();
+            packet.addSensor(SensorPayload.single("barometer", barometerSensor.metadataMap(), PayloadReader.allDoubles(redvoxPacket, Api900.ChannelType.BAROMETER)));
+        }
+
+        Optional<GyroscopeSensor> optionalGyroscopeChannel = wrappedPacket.gyroscopeChannel();
+        if (optionalGyroscopeChannel.isPresent()) {
+            GyroscopeSensor gyroscopeSensor = optionalGyroscopeChannel.get();
+            packet.addSensor(SensorPayload.grouped("gyroscope", gyroscopeSensor.metadataMap())
+                    .withChannel("X", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.GYROSCOPE_X))
+                    .withChannel("Y", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.GYROSCOPE_Y))
+                    .withChannel("Z", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.GYROSCOPE_Z)));
+        }
+
+        Optional<ImageSensor> optionalImageChannel = wrappedPacket.imageChannel();
+        if (optionalImageChannel.isPresent()) {
+            ImageSensor imageSensor = optionalImageChannel.get();
+            packet.addSensor(SensorPayload.single("image", imageSensor.metadataMap(), PayloadReader.bytes(redvoxPacket, Api900.ChannelType.IMAGE)));
+        }
+
+        Optional<InfraredSensor> optionalInfraredChannel = wrappedPacket.infraredChannel();
+        if (optionalInfraredChannel.isPresent()) {
+            InfraredSensor infraredSensor = optionalInfraredChannel.get();
+            packet.addSensor(SensorPayload.single("infrared", infraredSensor.metadataMap(), PayloadReader.allDoubles(redvoxPacket, Api900.ChannelType.INFRARED)));
+        }
+
+        Optional<LightSensor> optionalLightChannel = wrappedPacket.lightChannel();
+        if (optionalLightChannel.isPresent()) {
+            LightSensor lightSensor = optionalLightChannel.get();
+            packet.addSensor(SensorPayload.single("light", lightSensor.metadataMap(), PayloadReader.allDoubles(redvoxPacket, Api900.ChannelType.LIGHT)));
+        }
+
+        Optional<LocationSensor> optionalLocationChannel = wrappedPacket.locationChannel();
+        if (optionalLocationChannel.isPresent()) {
+            LocationSensor locationSensor = optionalLocationChannel.get();
+            packet.addSensor(SensorPayload.grouped("location", locationSensor.metadataMap())
+                    .withChannel("accuracy", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.ACCURACY))
+                    .withChannel("altitude", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.ALTITUDE))
+                    .withChannel("latitude", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.LATITUDE))
+                    .withChannel("longitude", PayloadReader.doubles(redvoxPacket, Api900.ChannelType.LONGITUDE)));
+        }
+
+        Optional<MagnetometerSensor> optionaMagnetometerChannel = wrappedPacket.magnetometerChannel();
+        if (optionaMagnetometerChannel.isPresent()) {
+            MagnetometerSensor magnetometerSensor = optionaMagnetometerChannel.get();
+            packet.addSensor(SensorPayload.interleaved("magnetometer", magnetometerSensor.metadataMap(),
+                    PayloadReader.allDoubles(redvoxPacket, Api900.ChannelType.MAGNETOMETER_X), "X", "Y", "Z"));
+        }
+
+        Optional<TimeSynchronizationSensor> optionaTimeSynchronizationChannel = wrappedPacket.timeSynchronizationChannel();
+        if (optionaTimeSynchronizationChannel.isPresent()) {
+            TimeSynchronizationSensor timeSynchronizationSensor = optionaTimeSynchronizationChannel.get();
+            packet.addSensor(SensorPayload.single("timeSynchronization", timeSynchronizationSensor.metadataMap(), PayloadReader.allLongs(redvoxPacket, Api900.ChannelType.TIME_SYNCHRONIZATION)));
+        }
+
+        return packet;
+    }
+}
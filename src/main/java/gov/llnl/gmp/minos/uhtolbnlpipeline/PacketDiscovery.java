@@ -0,0 +1,264 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Finds the packets under an input directory as they are converted, instead
+ * of listing the whole tree first. Directories are read one at a time by the
+ * thread iterating the discovery, which in the {@link ConversionPipeline} is
+ * the producer feeding the decoder threads, so conversion starts with the
+ * first packet found and only the open directories and the ordering window
+ * are held in memory however many files the tree holds.
+ *
+ * Every entry is looked at once: the attributes read to tell files from
+ * directories are kept in the {@link PacketSource}, so neither the
+ * {@link ConversionManifest} nor the decoder reads them again. Archives
+ * found along the way are read in place, see {@link PacketArchive}. Links
+ * to files are followed, links to directories are not, since they could
+ * lead back into the tree.
+ *
+ * Directories come back in file system order. With an ordering window of
+ * {@code n} packets, the packets are sorted by device and the timestamp in
+ * their file name ({@code <redvoxId>_<timestamp>.rdvxz}) within a sliding
+ * window: up to {@code n} packets are held back and the first in order is
+ * converted whenever the window is full. The output is in order as long as
+ * no packet is found more than {@code n} packets after one it precedes, so
+ * packets of a device are appended in time order and the datasets of a
+ * device stay contiguous in the file.
+ *
+ * A directory or archive that cannot be read is reported and skipped.
+ */
+final class PacketDiscovery implements Iterable<PacketSource> {
+
+    /**
+     * Orders packets by device, then by the timestamp in the file name,
+     * then by file name. Names without a timestamp sort after those with.
+     */
+    static final Comparator<PacketSource> ORDER = Comparator.comparing((PacketSource source) -> device(source.fileName()))
+            .thenComparingLong(source -> timestamp(source.fileName()))
+            .thenComparing(PacketSource::fileName);
+
+    private final Path root;
+    private final Predicate<String> fileNames;
+    private final int orderWindow;
+    private final boolean streamedArchives;
+
+    /**
+     * @param root A directory or a {@link PacketArchive}.
+     * @param fileNames Accepts the packet files to convert by file name.
+     * @param orderWindow The number of packets held back to convert them in
+     * order, 0 or 1 to convert them in the order they are found.
+     * @param streamedArchives False to skip the archives found in the
+     * directory that are read whole to find the accepted packets, see
+     * {@link PacketArchive#isStreamed(Path)}.
+     */
+    PacketDiscovery(Path root, Predicate<String> fileNames, int orderWindow, boolean streamedArchives) {
+        this.root = root;
+        this.fileNames = fileNames;
+        this.orderWindow = orderWindow;
+        this.streamedArchives = streamedArchives;
+    }
+
+    @Override
+    public Iterator<PacketSource> iterator() {
+        Iterator<PacketSource> walk = new Walk();
+        return orderWindow > 1 ? new Window(walk, orderWindow) : walk;
+    }
+
+    /**
+     * @param fileName A packet file name.
+     * @return The redvoxId at the start of the name, or the whole name.
+     */
+    static String device(String fileName) {
+        int separator = fileName.indexOf('_');
+        return separator > 0 ? fileName.substring(0, separator) : fileName;
+    }
+
+    /**
+     * @param fileName A packet file name.
+     * @return The timestamp between the last underscore and the extension,
+     * or {@code Long.MAX_VALUE} if the name holds none.
+     */
+    static long timestamp(String fileName) {
+        int start = fileName.lastIndexOf('_') + 1;
+        int end = fileName.indexOf('.', start);
+        if (start == 0 || end < 0) {
+            return Long.MAX_VALUE;
+        }
+        try {
+            return Long.parseLong(fileName.substring(start, end));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * A depth first walk of the tree, with one open directory stream per
+     * level.
+     */
+    private final class Walk implements Iterator<PacketSource> {
+
+        private final Deque<DirectoryStream<Path>> streams = new ArrayDeque<>();
+        private final Deque<Path> paths = new ArrayDeque<>();
+        private final Deque<Iterator<Path>> directories = new ArrayDeque<>();
+        private Iterator<PacketSource> archive = Collections.emptyIterator();
+        private PacketSource next;
+
+        Walk() {
+            if (Files.isDirectory(root)) {
+                open(root);
+            } else {
+                archive = new PacketArchive(root, fileNames).iterator();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null) {
+                if (archive.hasNext()) {
+                    next = archive.next();
+                } else if (directories.isEmpty()) {
+                    return false;
+                } else {
+                    try {
+                        if (directories.peek().hasNext()) {
+                            visit(directories.peek().next());
+                        } else {
+                            close();
+                        }
+                    } catch (DirectoryIteratorException e) {
+                        System.err.println("Could not read directory " + paths.peek() + ": " + e.getCause());
+                        close();
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public PacketSource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            PacketSource result = next;
+            next = null;
+            return result;
+        }
+
+        private void visit(Path path) {
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                // Deleted since the directory was listed.
+                return;
+            }
+            if (attributes.isSymbolicLink()) {
+                try {
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // A dangling link.
+                    return;
+                }
+                if (!attributes.isRegularFile()) {
+                    return;
+                }
+            }
+            if (attributes.isDirectory()) {
+                open(path);
+            } else if (attributes.isRegularFile()) {
+                String fileName = path.getFileName().toString();
+                if (PacketArchive.isStreamed(path) && !streamedArchives) {
+                    System.err.println("Skipped archive " + path + ", sharded conversions only read tar archives with --shard-archives.");
+                } else if (PacketArchive.isArchive(path)) {
+                    archive = new PacketArchive(path, fileNames).iterator();
+                } else if (PacketFormat.of(fileName) != null && fileNames.test(fileName)) {
+                    next = PacketSource.of(path, attributes);
+                }
+            }
+        }
+
+        private void open(Path directory) {
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+                streams.push(stream);
+                paths.push(directory);
+                directories.push(stream.iterator());
+            } catch (IOException e) {
+                System.err.println("Could not read directory " + directory + ": " + e);
+            }
+        }
+
+        private void close() {
+            paths.pop();
+            directories.pop();
+            try {
+                streams.pop().close();
+            } catch (IOException e) {
+                System.err.println(e);
+            }
+        }
+    }
+
+    /**
+     * Reorders packets within a sliding window.
+     */
+    private static final class Window implements Iterator<PacketSource> {
+
+        private final Iterator<PacketSource> sources;
+        private final int size;
+        private final PriorityQueue<PacketSource> window;
+
+        Window(Iterator<PacketSource> sources, int size) {
+            this.sources = sources;
+            this.size = size;
+            this.window = new PriorityQueue<>(size, ORDER);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (window.size() < size && sources.hasNext()) {
+                window.add(sources.next());
+            }
+            return !window.isEmpty();
+        }
+
+        @Override
+        public PacketSource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return window.poll();
+        }
+    }
+}
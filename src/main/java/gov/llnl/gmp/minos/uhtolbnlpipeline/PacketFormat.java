@@ -0,0 +1,81 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.nio.file.Path;
+
+/**
+ * The Redvox packet file formats the converter can read, recognized by file
+ * extension.
+ */
+enum PacketFormat {
+
+    /**
+     * A JSON Serialized packet.
+     */
+    JSON(".json"),
+    /**
+     * An LZ4 compressed protobuf packet, as written by the Redvox phones.
+     */
+    RDVXZ(".rdvxz"),
+    /**
+     * An uncompressed protobuf packet.
+     */
+    PROTOBUF(".pb");
+
+    private final String extension;
+
+    PacketFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @param fileName A file name.
+     * @return The format of the file, or null if it is not a packet file.
+     */
+    static PacketFormat of(String fileName) {
+        for (PacketFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param filePath A file path.
+     * @return True if the file is a packet in one of the known formats.
+     */
+    static boolean isPacketFile(Path filePath) {
+        return of(filePath.getFileName().toString()) != null;
+    }
+
+    /**
+     * @return The file extension, including the leading dot.
+     */
+    String extension() {
+        return extension;
+    }
+
+    /**
+     * @param fileName The name of a file in this format.
+     * @return The file name without the format's extension.
+     */
+    String stripExtension(String fileName) {
+        return fileName.substring(0, fileName.length() - extension.length());
+    }
+}
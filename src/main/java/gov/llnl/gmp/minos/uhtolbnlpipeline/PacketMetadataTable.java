@@ -0,0 +1,146 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.h5.H5File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The packet level metadata of every packet in one {@link ColumnTable} named
+ * {@value #GROUP} at the root of the file, one row per packet in the order
+ * the packets were written, e.g.
+ * <pre>
+ * /packetMetadata/name
+ * /packetMetadata/uuid
+ * /packetMetadata/redvoxId
+ * /packetMetadata/batteryLevelPercent
+ * /packetMetadata/dictionaries/redvoxId
+ * </pre>
+ *
+ * The {@code name} and {@code uuid} columns are variable length strings.
+ * The other string fields (device, app and server names) repeat across
+ * packets and are dictionary encoded: the column holds the index of the value
+ * in the {@link StringDictionary} of the same name in {@code dictionaries}.
+ * Selecting the packets of a device, app version or battery level is one
+ * read of a column instead of one attribute read per packet group.
+ *
+ * In the packet layout {@code name} is the packet's group. In the device
+ * layout the rows of one {@code redvoxId} are in the order of the rows of
+ * the device's {@code packetIndex}.
+ *
+ * As a {@link PacketWriter} the table wraps the writer of the layout and adds
+ * a row for every packet that was written.
+ */
+final class PacketMetadataTable implements PacketWriter {
+
+    static final String GROUP = "packetMetadata";
+
+    static final String DICTIONARIES = "dictionaries";
+
+    private final PacketWriter writer;
+    private final ColumnTable table;
+    private final long dictionariesGroupId;
+    private final Map<String, StringDictionary> dictionaries = new LinkedHashMap<>();
+
+    private PacketMetadataTable(PacketWriter writer, ColumnTable table, long dictionariesGroupId) {
+        this.writer = writer;
+        this.table = table;
+        this.dictionariesGroupId = dictionariesGroupId;
+    }
+
+    /**
+     * Opens the metadata table of a file, creating an empty one if the file
+     * has none.
+     *
+     * @param h5File The open HDF5 file.
+     * @param writer The writer packets are passed on to.
+     * @return The table.
+     * @throws Exception If the table could not be opened or created.
+     */
+    static PacketMetadataTable openOrCreate(H5File h5File, PacketWriter writer) throws Exception {
+        ColumnTable table = ColumnTable.openOrCreate(h5File, "", GROUP);
+        long fileId = h5File.getFID();
+        String path = "/" + GROUP + "/" + DICTIONARIES;
+        long groupId = H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)
+                ? H5.H5Gopen(fileId, path, HDF5Constants.H5P_DEFAULT)
+                : H5.H5Gcreate(fileId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+        return new PacketMetadataTable(writer, table, groupId);
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        writer.write(packet);
+
+        table.set("name", packet.name);
+        table.set("uuid", packet.uuid);
+        setEncoded("redvoxId", packet.redvoxId);
+        setEncoded("acquisitionServer", packet.acquisitionServer);
+        table.set("api", packet.api);
+        table.set("appFileStartTimestampEpochMicrosecondsUtc", packet.appFileStartTimestampEpochMicrosecondsUtc);
+        table.set("appFileStartTimestampMachine", packet.appFileStartTimestampMachine);
+        setEncoded("appVersion", packet.appVersion);
+        table.set("batteryLevelPercent", (double) packet.batteryLevelPercent);
+        setEncoded("deviceMake", packet.deviceMake);
+        setEncoded("deviceModel", packet.deviceModel);
+        setEncoded("deviceOs", packet.deviceOs);
+        setEncoded("deviceOsVersion", packet.deviceOsVersion);
+        table.set("deviceTemperatureC", (double) packet.deviceTemperatureC);
+        table.set("serverTimestampEpochMicrosecondsUtc", packet.serverTimestampEpochMicrosecondsUtc);
+        setEncoded("timeSynchronizationServer", packet.timeSynchronizationServer);
+        table.endRow();
+    }
+
+    private void setEncoded(String column, String value) throws HDF5Exception {
+        StringDictionary dictionary = dictionaries.get(column);
+        if (dictionary == null) {
+            dictionary = StringDictionary.openOrCreate(dictionariesGroupId, column);
+            dictionaries.put(column, dictionary);
+        }
+        table.set(column, dictionary.encode(value));
+    }
+
+    @Override
+    public void flush() throws Exception {
+        writer.flush();
+        table.flush();
+    }
+
+    @Override
+    public void idle() throws Exception {
+        writer.idle();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            writer.close();
+        } finally {
+            try {
+                table.close();
+            } finally {
+                for (StringDictionary dictionary : dictionaries.values()) {
+                    dictionary.close();
+                }
+                H5.H5Gclose(dictionariesGroupId);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+
+/**
+ * A Redvox packet to convert: a packet file, or an entry of a
+ * {@link PacketArchive} already read into memory.
+ *
+ * The location identifies the packet in messages and in the
+ * {@link ConversionManifest}: the absolute path of a file, or the absolute
+ * path of an archive followed by {@code !/} and the entry name.
+ */
+final class PacketSource {
+
+    private final String location;
+    private final String fileName;
+    private final Path path;
+    private final byte[] contents;
+    private long size = -1;
+    private long lastModifiedMillis;
+
+    private PacketSource(String location, String fileName, Path path, byte[] contents) {
+        this.location = location;
+        this.fileName = fileName;
+        this.path = path;
+        this.contents = contents;
+    }
+
+    /**
+     * @param path A packet file. Its size and modification time are read by
+     * {@link #readAttributes()}.
+     * @return The packet file as a source.
+     */
+    static PacketSource of(Path path) {
+        return new PacketSource(path.toAbsolutePath().normalize().toString(), path.getFileName().toString(), path, null);
+    }
+
+    /**
+     * @param path A packet file.
+     * @param attributes The attributes of the file.
+     * @return The packet file as a source.
+     */
+    static PacketSource of(Path path, BasicFileAttributes attributes) {
+        PacketSource source = of(path);
+        source.size = attributes.size();
+        source.lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+        return source;
+    }
+
+    /**
+     * @param archive The archive holding the entry.
+     * @param entryName The name of the entry within the archive.
+     * @param contents The contents of the entry.
+     * @param lastModifiedMillis The modification time of the entry.
+     * @return The archive entry as a source.
+     */
+    static PacketSource ofEntry(Path archive, String entryName, byte[] contents, long lastModifiedMillis) {
+        PacketSource source = new PacketSource(archive.toAbsolutePath().normalize() + "!/" + entryName,
+                entryName.substring(entryName.lastIndexOf('/') + 1), null, contents);
+        source.size = contents.length;
+        source.lastModifiedMillis = lastModifiedMillis;
+        return source;
+    }
+
+    /**
+     * @param paths Packet files, e.g. a {@link DirectoryWatcher}.
+     * @return The files as sources.
+     */
+    static Iterable<PacketSource> of(Iterable<Path> paths) {
+        return () -> new Iterator<PacketSource>() {
+            private final Iterator<Path> iterator = paths.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public PacketSource next() {
+                return of(iterator.next());
+            }
+        };
+    }
+
+    /**
+     * Reads the size and modification time of a packet file, unless they are
+     * known already.
+     *
+     * @throws IOException If the file attributes could not be read.
+     */
+    void readAttributes() throws IOException {
+        if (size < 0) {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+            size = attributes.size();
+        }
+    }
+
+    String location() {
+        return location;
+    }
+
+    /**
+     * @return The name of the file or entry, without any directories.
+     */
+    String fileName() {
+        return fileName;
+    }
+
+    /**
+     * @return The packet file, or null for an archive entry.
+     */
+    Path path() {
+        return path;
+    }
+
+    /**
+     * @return The contents of an archive entry, or null for a packet file.
+     */
+    byte[] contents() {
+        return contents;
+    }
+
+    /**
+     * @return The size in bytes, once the attributes have been read.
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return The modification time, once the attributes have been read.
+     */
+    long lastModifiedMillis() {
+        return lastModifiedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return location;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.object.h5.H5File;
+import java.util.Map;
+
+/**
+ * Summary statistics of the samples of every packet in one
+ * {@link ColumnTable} named {@value #GROUP} at the root of the file, one row
+ * per packet in the order the packets were written, e.g.
+ * <pre>
+ * /packetStatistics/name
+ * /packetStatistics/redvoxId
+ * /packetStatistics/startMicros
+ * /packetStatistics/microphoneCount
+ * /packetStatistics/microphoneMin
+ * /packetStatistics/microphoneMax
+ * /packetStatistics/microphoneMean
+ * /packetStatistics/microphoneRms
+ * /packetStatistics/microphonePeakToPeak
+ * /packetStatistics/gyroscopeXRms
+ * </pre>
+ *
+ * Every sensor channel with numeric samples has the six columns, named after
+ * the sensor and, for multi channel sensors, the channel. The interleaved X,
+ * Y and Z samples of the accelerometer and magnetometer have columns per
+ * axis, like the gyroscope, e.g. {@code accelerometerZMax}. A packet without
+ * the sensor has a count of 0. Screening packets for unusual energy is a
+ * read of the RMS or peak-to-peak column instead of a read of every sample.
+ *
+ * The table is only written with {@code --statistics}. The statistics are
+ * then computed by the decoder threads, see
+ * {@link DecodedPacket#computeStatistics()}. As a {@link PacketWriter}
+ * the table wraps the writer of the layout and adds a row for every packet
+ * that was written.
+ */
+final class PacketStatisticsTable implements PacketWriter {
+
+    static final String GROUP = "packetStatistics";
+
+    private final PacketWriter writer;
+    private final ColumnTable table;
+
+    private PacketStatisticsTable(PacketWriter writer, ColumnTable table) {
+        this.writer = writer;
+        this.table = table;
+    }
+
+    /**
+     * Opens the statistics table of a file, creating an empty one if the
+     * file has none.
+     *
+     * @param h5File The open HDF5 file.
+     * @param writer The writer packets are passed on to.
+     * @return The table.
+     * @throws Exception If the table could not be opened or created.
+     */
+    static PacketStatisticsTable openOrCreate(H5File h5File, PacketWriter writer) throws Exception {
+        return new PacketStatisticsTable(writer, ColumnTable.openOrCreate(h5File, "", GROUP));
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        writer.write(packet);
+
+        table.set("name", packet.name);
+        table.set("redvoxId", packet.redvoxId);
+        table.set("startMicros", packet.microphoneFirstSampleTimestampEpochMicrosecondsUtc);
+        for (DecodedPacket.SensorPayload sensor : packet.sensors()) {
+            for (Map.Entry<String, SampleStatistics> channel : sensor.statistics().entrySet()) {
+                String prefix = sensor.name + capitalize(channel.getKey());
+                SampleStatistics statistics = channel.getValue();
+                table.set(prefix + "Count", (long) statistics.count);
+                table.set(prefix + "Min", statistics.min);
+                table.set(prefix + "Max", statistics.max);
+                table.set(prefix + "Mean", statistics.mean);
+                table.set(prefix + "Rms", statistics.rms);
+                table.set(prefix + "PeakToPeak", statistics.peakToPeak());
+            }
+        }
+        table.endRow();
+    }
+
+    private static String capitalize(String channel) {
+        return channel.isEmpty() ? channel : Character.toUpperCase(channel.charAt(0)) + channel.substring(1);
+    }
+
+    @Override
+    public void flush() throws Exception {
+        writer.flush();
+        table.flush();
+    }
+
+    @Override
+    public void idle() throws Exception {
+        writer.idle();
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            writer.close();
+        } finally {
+            table.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+/**
+ * The final stage of the conversion pipeline. Implementations own the HDF5
+ * file and are only ever called from the single writer thread.
+ */
+interface PacketWriter extends AutoCloseable {
+
+    /**
+     * Writes one decoded packet to the HDF5 file.
+     *
+     * @param packet The packet to write.
+     * @throws Exception If the packet could not be written.
+     */
+    void write(DecodedPacket packet) throws Exception;
+
+    /**
+     * Writes anything still buffered to the HDF5 file, keeping the writer's
+     * handles open.
+     *
+     * @throws Exception If buffered data could not be written.
+     */
+    default void flush() throws Exception {
+    }
+
+    /**
+     * Called by the pipeline whenever no decoded packet is waiting to be
+     * written, and at least every {@link ConversionPipeline#IDLE_MILLIS}
+     * while the input is quiet. Writers with time based work (flushing,
+     * rolling over to a new file) do it here.
+     *
+     * @throws Exception If the work failed.
+     */
+    default void idle() throws Exception {
+    }
+
+    /**
+     * Writes anything still buffered and releases the writer's HDF5 handles.
+     * The HDF5 file itself stays open.
+     *
+     * @throws Exception If buffered data could not be written.
+     */
+    @Override
+    default void close() throws Exception {
+    }
+}
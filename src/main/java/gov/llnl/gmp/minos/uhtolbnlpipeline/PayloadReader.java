@@ -0,0 +1,264 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import io.redvox.apis.Api900;
+import java.util.List;
+
+/**
+ * Reads sensor samples straight out of the repeated payload fields of a
+ * protobuf packet into primitive arrays from the {@link SampleArrayPool}.
+ *
+ * The api900 sensor wrappers return every payload as a freshly built
+ * {@code List<Long>} or {@code List<Double>}, one boxed object per sample,
+ * which then had to be copied to an object array and unboxed once more. The
+ * generated protobuf accessors ({@code getPayload(int)}) return primitives,
+ * so reading through them allocates nothing but the result.
+ *
+ * Channels that interleave several channel types (gyroscope X, Y and Z)
+ * are read either de-interleaved, one channel type at a time, or whole.
+ */
+final class PayloadReader {
+
+    private PayloadReader() {
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type A channel type.
+     * @return The samples of that channel type, converted to long.
+     */
+    static long[] longs(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        Channel channel = find(packet, type);
+        return channel == null ? new long[0] : toLongs(channel.payload, channel.offset, channel.stride);
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type A channel type.
+     * @return The samples of that channel type, converted to double.
+     */
+    static double[] doubles(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        Channel channel = find(packet, type);
+        return channel == null ? new double[0] : toDoubles(channel.payload, channel.offset, channel.stride);
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type One of the channel types of a channel.
+     * @return The whole payload of the channel, with the samples of all its
+     * channel types interleaved.
+     */
+    static long[] allLongs(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        Channel channel = find(packet, type);
+        return channel == null ? new long[0] : toLongs(channel.payload, 0, 1);
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type One of the channel types of a channel.
+     * @return The whole payload of the channel, with the samples of all its
+     * channel types interleaved.
+     */
+    static double[] allDoubles(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        Channel channel = find(packet, type);
+        return channel == null ? new double[0] : toDoubles(channel.payload, 0, 1);
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type A channel type with a byte payload, e.g. the image.
+     * @return The bytes of the payload.
+     */
+    static byte[] bytes(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        Channel channel = find(packet, type);
+        if (channel == null) {
+            return new byte[0];
+        }
+        if (!(channel.payload instanceof Api900.BytePayload)) {
+            throw new IllegalArgumentException("The " + type + " channel has no byte payload.");
+        }
+        return ((Api900.BytePayload) channel.payload).getPayload().toByteArray();
+    }
+
+    /**
+     * @param packet A packet.
+     * @param type A channel type.
+     * @return The evenly sampled channel holding that channel type, or null.
+     */
+    static Api900.EvenlySampledChannel evenlySampledChannel(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        for (Api900.EvenlySampledChannel channel : packet.getEvenlySampledChannelsList()) {
+            if (channel.getChannelTypesList().contains(type)) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    private static Channel find(Api900.RedvoxPacket packet, Api900.ChannelType type) {
+        for (Api900.EvenlySampledChannel channel : packet.getEvenlySampledChannelsList()) {
+            List<Api900.ChannelType> types = channel.getChannelTypesList();
+            if (types.contains(type)) {
+                return new Channel(payloadOf(channel), types.indexOf(type), types.size());
+            }
+        }
+        for (Api900.UnevenlySampledChannel channel : packet.getUnevenlySampledChannelsList()) {
+            List<Api900.ChannelType> types = channel.getChannelTypesList();
+            if (types.contains(type)) {
+                return new Channel(payloadOf(channel), types.indexOf(type), types.size());
+            }
+        }
+        return null;
+    }
+
+    private static Object payloadOf(Api900.EvenlySampledChannel channel) {
+        switch (channel.getPayloadCase()) {
+            case BYTE_PAYLOAD:
+                return channel.getBytePayload();
+            case UINT32_PAYLOAD:
+                return channel.getUint32Payload();
+            case UINT64_PAYLOAD:
+                return channel.getUint64Payload();
+            case INT32_PAYLOAD:
+                return channel.getInt32Payload();
+            case INT64_PAYLOAD:
+                return channel.getInt64Payload();
+            case FLOAT32_PAYLOAD:
+                return channel.getFloat32Payload();
+            case FLOAT64_PAYLOAD:
+                return channel.getFloat64Payload();
+            default:
+                return null;
+        }
+    }
+
+    private static Object payloadOf(Api900.UnevenlySampledChannel channel) {
+        switch (channel.getPayloadCase()) {
+            case BYTE_PAYLOAD:
+                return channel.getBytePayload();
+            case UINT32_PAYLOAD:
+                return channel.getUint32Payload();
+            case UINT64_PAYLOAD:
+                return channel.getUint64Payload();
+            case INT32_PAYLOAD:
+                return channel.getInt32Payload();
+            case INT64_PAYLOAD:
+                return channel.getInt64Payload();
+            case FLOAT32_PAYLOAD:
+                return channel.getFloat32Payload();
+            case FLOAT64_PAYLOAD:
+                return channel.getFloat64Payload();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return The number of samples of a channel type at {@code offset} in a
+     * payload of {@code total} interleaved samples.
+     */
+    private static int count(int total, int offset, int stride) {
+        return total > offset ? (total - offset + stride - 1) / stride : 0;
+    }
+
+    private static long[] toLongs(Object payload, int offset, int stride) {
+        if (payload == null) {
+            return new long[0];
+        } else if (payload instanceof Api900.Int32Payload) {
+            Api900.Int32Payload values = (Api900.Int32Payload) payload;
+            long[] samples = SampleArrayPool.SHARED.longs(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = values.getPayload(offset + i * stride);
+            }
+            return samples;
+        } else if (payload instanceof Api900.UInt32Payload) {
+            Api900.UInt32Payload values = (Api900.UInt32Payload) payload;
+            long[] samples = SampleArrayPool.SHARED.longs(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = Integer.toUnsignedLong(values.getPayload(offset + i * stride));
+            }
+            return samples;
+        } else if (payload instanceof Api900.Int64Payload) {
+            Api900.Int64Payload values = (Api900.Int64Payload) payload;
+            long[] samples = SampleArrayPool.SHARED.longs(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = values.getPayload(offset + i * stride);
+            }
+            return samples;
+        } else if (payload instanceof Api900.UInt64Payload) {
+            // Stored as two's complement, the same bits as the wrapper returned
+            Api900.UInt64Payload values = (Api900.UInt64Payload) payload;
+            long[] samples = SampleArrayPool.SHARED.longs(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = values.getPayload(offset + i * stride);
+            }
+            return samples;
+        }
+        double[] converted = toDoubles(payload, offset, stride);
+        long[] samples = SampleArrayPool.SHARED.longs(converted.length);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (long) converted[i];
+        }
+        SampleArrayPool.SHARED.release(converted);
+        return samples;
+    }
+
+    private static double[] toDoubles(Object payload, int offset, int stride) {
+        if (payload == null) {
+            return new double[0];
+        } else if (payload instanceof Api900.Float64Payload) {
+            Api900.Float64Payload values = (Api900.Float64Payload) payload;
+            double[] samples = SampleArrayPool.SHARED.doubles(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = values.getPayload(offset + i * stride);
+            }
+            return samples;
+        } else if (payload instanceof Api900.Float32Payload) {
+            Api900.Float32Payload values = (Api900.Float32Payload) payload;
+            double[] samples = SampleArrayPool.SHARED.doubles(count(values.getPayloadCount(), offset, stride));
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = values.getPayload(offset + i * stride);
+            }
+            return samples;
+        } else if (payload instanceof Api900.BytePayload) {
+            throw new IllegalArgumentException("A byte payload has no numeric samples.");
+        }
+        long[] converted = toLongs(payload, offset, stride);
+        double[] samples = SampleArrayPool.SHARED.doubles(converted.length);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = converted[i];
+        }
+        SampleArrayPool.SHARED.release(converted);
+        return samples;
+    }
+
+    /**
+     * Where the samples of one channel type are in a channel's payload.
+     */
+    private static final class Channel {
+
+        final Object payload;
+        final int offset;
+        final int stride;
+
+        Channel(Object payload, int offset, int stride) {
+            this.payload = payload;
+            this.offset = offset;
+            this.stride = stride;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A program to print the microphone samples of a device in a time window of
+ * a converted file as CSV, or to list the devices of the file.
+ */
+public class QueryRedvoxHdf5 {
+
+    static final String USAGE = "Usage: java -Djava.library.path=<path to hdf5 library> -cp PackageMavenToHdf5-1.0.0.jar "
+            + QueryRedvoxHdf5.class.getName() + " <file.h5> <redvoxId> <start> <end>\n"
+            + "       java ... " + QueryRedvoxHdf5.class.getName() + " --list <file.h5>\n"
+            + "  Prints timestampMicros,sample for every microphone sample of the device from start (inclusive) to end\n"
+            + "  (exclusive). Times are ISO-8601 instants, e.g. 2019-08-01T13:00:00Z, or microseconds since the epoch.\n"
+            + "  --list prints every device of the file with the time of its first and last sample.";
+
+    /**
+     * The main runner method.
+     *
+     * @param args Expected arguments: file, redvoxId, start and end time, or
+     * --list and file. See {@link #USAGE}.
+     * @throws Exception If the file could not be read.
+     */
+    public static void main(String[] args) throws Exception {
+        boolean list = args.length == 2 && args[0].equals("--list");
+        if (!list && args.length != 4) {
+            System.err.println(USAGE);
+            return;
+        }
+        long startMicros = 0;
+        long endMicros = 0;
+        if (!list) {
+            try {
+                startMicros = parseMicros(args[2]);
+                endMicros = parseMicros(args[3]);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.err.println(USAGE);
+                return;
+            }
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16));
+        try (RedvoxHdf5Reader reader = RedvoxHdf5Reader.open(Paths.get(list ? args[1] : args[0]))) {
+            if (!reader.hasTimeIndex()) {
+                System.err.println((list ? args[1] : args[0]) + " has no time index, convert it with --time-index to query it.");
+                return;
+            }
+            if (list) {
+                out.println("redvoxId,firstSample,lastSample");
+                for (String redvoxId : reader.devices()) {
+                    long[] range = reader.timeRange(redvoxId);
+                    if (range != null) {
+                        out.println(redvoxId + "," + toInstant(range[0]) + "," + toInstant(range[1]));
+                    }
+                }
+            } else {
+                RedvoxHdf5Reader.TimeSeries series = reader.read(args[1], startMicros, endMicros);
+                long[] samples = series.samples();
+                out.println("timestampMicros,sample");
+                for (RedvoxHdf5Reader.Segment segment : series.segments()) {
+                    for (int i = 0; i < segment.count(); i++) {
+                        out.print(segment.timestampMicros(i));
+                        out.print(',');
+                        out.println(samples[segment.offset() + i]);
+                    }
+                }
+            }
+        } finally {
+            out.flush();
+        }
+    }
+
+    /**
+     * @param time An ISO-8601 instant or microseconds since the epoch.
+     * @return Microseconds since the epoch.
+     */
+    static long parseMicros(String time) {
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            try {
+                return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.parse(time));
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid time " + time + ", expected an instant such as 2019-08-01T13:00:00Z or microseconds since the epoch.");
+            }
+        }
+    }
+
+    private static Instant toInstant(long micros) {
+        return Instant.EPOCH.plus(micros, ChronoUnit.MICROS);
+    }
+}
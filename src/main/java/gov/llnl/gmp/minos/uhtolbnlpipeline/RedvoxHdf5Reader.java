@@ -0,0 +1,364 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the microphone samples of a device in a time window from a file
+ * converted with {@code --time-index}, in either layout and from the master
+ * file of a sharded conversion.
+ * The packets overlapping the window are found with the {@link TimeIndex}
+ * and only their samples inside the window are read, so a query reads
+ * little more than the samples it returns however large the file is.
+ *
+ * The reader keeps the file open until it is closed, and the index of a
+ * device in memory once it was queried. It is not thread safe.
+ */
+public final class RedvoxHdf5Reader implements AutoCloseable {
+
+    private static final double MICROS_PER_SECOND = 1e6;
+
+    private final long fileId;
+    private final Map<String, Index> indexes = new HashMap<>();
+
+    private RedvoxHdf5Reader(long fileId) {
+        this.fileId = fileId;
+    }
+
+    /**
+     * Opens a converted file for reading.
+     *
+     * @param path The file.
+     * @return The reader.
+     * @throws HDF5Exception If the file could not be opened.
+     */
+    public static RedvoxHdf5Reader open(Path path) throws HDF5Exception {
+        return new RedvoxHdf5Reader(H5.H5Fopen(path.toString(), HDF5Constants.H5F_ACC_RDONLY, HDF5Constants.H5P_DEFAULT));
+    }
+
+    /**
+     * @return True if the file has a {@link TimeIndex}, without which it
+     * appears to hold no devices.
+     * @throws HDF5Exception If the file could not be read.
+     */
+    public boolean hasTimeIndex() throws HDF5Exception {
+        return H5.H5Lexists(fileId, "/" + TimeIndex.GROUP, HDF5Constants.H5P_DEFAULT);
+    }
+
+    /**
+     * @return The redvoxIds of the devices in the file, sorted.
+     * @throws HDF5Exception If the time index could not be read.
+     */
+    public List<String> devices() throws HDF5Exception {
+        List<String> devices = new ArrayList<>();
+        String path = "/" + TimeIndex.GROUP;
+        if (!H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)) {
+            return devices;
+        }
+        long groupId = H5.H5Gopen(fileId, path, HDF5Constants.H5P_DEFAULT);
+        try {
+            long links = H5.H5Gget_info(groupId).nlinks;
+            for (long link = 0; link < links; link++) {
+                devices.add(H5.H5Lget_name_by_idx(groupId, ".", HDF5Constants.H5_INDEX_NAME, HDF5Constants.H5_ITER_INC, link,
+                        HDF5Constants.H5P_DEFAULT));
+            }
+        } finally {
+            H5.H5Gclose(groupId);
+        }
+        Collections.sort(devices);
+        return devices;
+    }
+
+    /**
+     * @param redvoxId The device.
+     * @return The time of the device's first microphone sample and the time
+     * just after its last, in microseconds since the epoch, or null if the
+     * file holds no packets of the device.
+     * @throws HDF5Exception If the time index could not be read.
+     */
+    public long[] timeRange(String redvoxId) throws HDF5Exception {
+        Index index = index(redvoxId);
+        return index.rows == 0 ? null : new long[]{index.startMicros[0], index.lastEndMicros};
+    }
+
+    /**
+     * Reads the microphone samples of a device taken in a time window. The
+     * samples are returned in time order, as one segment per packet; packets
+     * that overlap in time (e.g. converted twice) return their samples twice.
+     * The samples of a packet without a sample rate cannot be placed in time
+     * and are returned whole if the packet starts in the window.
+     *
+     * @param redvoxId The device.
+     * @param startMicros The start of the window in microseconds since the
+     * epoch, inclusive.
+     * @param endMicros The end of the window, exclusive.
+     * @return The samples, empty if the device has none in the window.
+     * @throws HDF5Exception If the file could not be read.
+     */
+    public TimeSeries read(String redvoxId, long startMicros, long endMicros) throws HDF5Exception {
+        Index index = index(redvoxId);
+        List<Segment> segments = new ArrayList<>();
+        List<Integer> segmentRows = new ArrayList<>();
+        long samples = 0;
+        // Rows are sorted by start, a packet overlapping the window starts at
+        // most the longest packet duration before it.
+        int row = lowerBound(index, startMicros - index.maxDurationMicros);
+        for (; row < index.rows && index.startMicros[row] < endMicros; row++) {
+            if (index.endMicros[row] <= startMicros && index.sampleRatesHz[row] > 0) {
+                continue;
+            }
+            long first = 0;
+            long last = index.sampleCounts[row];
+            double rate = index.sampleRatesHz[row];
+            if (rate > 0) {
+                first = Math.max(0, (long) Math.ceil((startMicros - index.startMicros[row]) * rate / MICROS_PER_SECOND));
+                last = Math.min(last, (long) Math.ceil((endMicros - index.startMicros[row]) * rate / MICROS_PER_SECOND));
+            } else if (index.startMicros[row] < startMicros) {
+                continue;
+            }
+            if (first >= last) {
+                continue;
+            }
+            long segmentStart = rate > 0 ? index.startMicros[row] + Math.round(first * MICROS_PER_SECOND / rate) : index.startMicros[row];
+            segments.add(new Segment(segmentStart, rate, Math.toIntExact(samples), Math.toIntExact(last - first), first));
+            segmentRows.add(row);
+            samples += last - first;
+        }
+
+        long[] values = new long[Math.toIntExact(samples)];
+        for (int segment = 0; segment < segments.size(); segment++) {
+            readSegment(redvoxId, index, segmentRows.get(segment), segments.get(segment), values);
+        }
+        return new TimeSeries(values, segments);
+    }
+
+    @Override
+    public void close() throws HDF5Exception {
+        indexes.clear();
+        H5.H5Fclose(fileId);
+    }
+
+    private static int lowerBound(Index index, long startMicros) {
+        int row = Arrays.binarySearch(index.startMicros, 0, index.rows, startMicros);
+        if (row < 0) {
+            return -row - 1;
+        }
+        // Step back to the first of equal start times.
+        while (row > 0 && index.startMicros[row - 1] == startMicros) {
+            row--;
+        }
+        return row;
+    }
+
+    private void readSegment(String redvoxId, Index index, int row, Segment segment, long[] values) throws HDF5Exception {
+        long datasetId;
+        long[] fileOffset;
+        if (index.offsets[row] >= 0) {
+            // Device layout, the packets of the device are one dataset.
+            datasetId = H5.H5Dopen(fileId, "/" + redvoxId + "/microphone", HDF5Constants.H5P_DEFAULT);
+            fileOffset = new long[]{index.offsets[row] + segment.packetOffset};
+        } else {
+            // Packet layout, a 1 x n dataset per packet.
+            datasetId = H5.H5Dopen(fileId, "/" + index.names[row] + "/microphone", HDF5Constants.H5P_DEFAULT);
+            fileOffset = new long[]{0, segment.packetOffset};
+        }
+        try {
+            long fileSpaceId = H5.H5Dget_space(datasetId);
+            long memorySpaceId = H5.H5Screate_simple(1, new long[]{values.length}, null);
+            try {
+                long[] count = fileOffset.length == 1 ? new long[]{segment.count} : new long[]{1, segment.count};
+                H5.H5Sselect_hyperslab(fileSpaceId, HDF5Constants.H5S_SELECT_SET, fileOffset, null, count, null);
+                H5.H5Sselect_hyperslab(memorySpaceId, HDF5Constants.H5S_SELECT_SET, new long[]{segment.offset}, null,
+                        new long[]{segment.count}, null);
+                SampleType.read(datasetId, memorySpaceId, fileSpaceId, values);
+            } finally {
+                H5.H5Sclose(memorySpaceId);
+                H5.H5Sclose(fileSpaceId);
+            }
+        } finally {
+            H5.H5Dclose(datasetId);
+        }
+    }
+
+    private Index index(String redvoxId) throws HDF5Exception {
+        Index index = indexes.get(redvoxId);
+        if (index == null) {
+            index = new Index(fileId, "/" + TimeIndex.GROUP + "/" + redvoxId);
+            indexes.put(redvoxId, index);
+        }
+        return index;
+    }
+
+    /**
+     * The time index of one device, see {@link TimeIndex}.
+     */
+    private static final class Index {
+
+        final int rows;
+        final long[] startMicros;
+        final long[] endMicros;
+        final long[] sampleCounts;
+        final double[] sampleRatesHz;
+        final long[] offsets;
+        final String[] names;
+        final long maxDurationMicros;
+        final long lastEndMicros;
+
+        Index(long fileId, String path) throws HDF5Exception {
+            // H5Lexists fails rather than returning false when the index
+            // group itself is missing.
+            if (!H5.H5Lexists(fileId, "/" + TimeIndex.GROUP, HDF5Constants.H5P_DEFAULT)
+                    || !H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)) {
+                rows = 0;
+                startMicros = endMicros = sampleCounts = offsets = new long[0];
+                sampleRatesHz = new double[0];
+                names = new String[0];
+                maxDurationMicros = lastEndMicros = 0;
+                return;
+            }
+            try (ExtendibleDataset start = open(fileId, path, "startMicros", SampleType.INT64)) {
+                rows = Math.toIntExact(start.length());
+                startMicros = new long[rows];
+                start.read(startMicros);
+            }
+            endMicros = read(fileId, path, "endMicros", SampleType.INT64, new long[rows]);
+            sampleCounts = read(fileId, path, "sampleCount", SampleType.INT64, new long[rows]);
+            sampleRatesHz = read(fileId, path, "sampleRateHz", SampleType.FLOAT64, new double[rows]);
+            offsets = read(fileId, path, "offset", SampleType.INT64, new long[rows]);
+            names = read(fileId, path, "name", SampleType.STRING, new String[rows]);
+            long maxDuration = 0;
+            long lastEnd = Long.MIN_VALUE;
+            for (int row = 0; row < rows; row++) {
+                maxDuration = Math.max(maxDuration, endMicros[row] - startMicros[row]);
+                lastEnd = Math.max(lastEnd, endMicros[row]);
+            }
+            maxDurationMicros = maxDuration;
+            lastEndMicros = lastEnd;
+        }
+
+        private static ExtendibleDataset open(long fileId, String path, String column, SampleType type) throws HDF5Exception {
+            return ExtendibleDataset.openOrCreate(fileId, path + "/" + column, type, DatasetStorage.UNFILTERED, 1);
+        }
+
+        private static <T> T read(long fileId, String path, String column, SampleType type, T values) throws HDF5Exception {
+            try (ExtendibleDataset dataset = open(fileId, path, column, type)) {
+                dataset.read(values);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * The samples of a query, see {@link #read(String, long, long)}.
+     */
+    public static final class TimeSeries {
+
+        private final long[] samples;
+        private final List<Segment> segments;
+
+        TimeSeries(long[] samples, List<Segment> segments) {
+            this.samples = samples;
+            this.segments = Collections.unmodifiableList(segments);
+        }
+
+        /**
+         * @return The samples of all segments, in order.
+         */
+        public long[] samples() {
+            return samples;
+        }
+
+        /**
+         * @return The runs of evenly spaced samples, one per packet.
+         */
+        public List<Segment> segments() {
+            return segments;
+        }
+    }
+
+    /**
+     * A run of evenly spaced samples of a {@link TimeSeries}.
+     */
+    public static final class Segment {
+
+        private final long startMicros;
+        private final double sampleRateHz;
+        private final int offset;
+        private final int count;
+        /**
+         * The index of the first sample in the packet.
+         */
+        private final long packetOffset;
+
+        Segment(long startMicros, double sampleRateHz, int offset, int count, long packetOffset) {
+            this.startMicros = startMicros;
+            this.sampleRateHz = sampleRateHz;
+            this.offset = offset;
+            this.count = count;
+            this.packetOffset = packetOffset;
+        }
+
+        /**
+         * @return The time of the first sample in microseconds since the
+         * epoch.
+         */
+        public long startMicros() {
+            return startMicros;
+        }
+
+        /**
+         * @return The sample rate, 0 if the packet did not state it.
+         */
+        public double sampleRateHz() {
+            return sampleRateHz;
+        }
+
+        /**
+         * @return The index of the segment's first sample in
+         * {@link TimeSeries#samples()}.
+         */
+        public int offset() {
+            return offset;
+        }
+
+        /**
+         * @return The number of samples.
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @param index The index of a sample of the segment, from 0.
+         * @return The time of the sample in microseconds since the epoch, the
+         * start of the segment if the sample rate is unknown.
+         */
+        public long timestampMicros(int index) {
+            return sampleRateHz > 0 ? startMicros + Math.round(index * MICROS_PER_SECOND / sampleRateHz) : startMicros;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.object.FileFormat;
+import hdf.object.h5.H5File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes packets into a series of HDF5 files, one per time window of the
+ * wall clock, e.g. one file per hour. The file of a window is named after
+ * the start of the window: {@code <prefix>-20190801T130000Z.h5}.
+ *
+ * A file is written as {@code <name>.h5.partial} and only renamed to its
+ * final name once it is complete and closed, so a file with the final name
+ * is never half written. Files are opened when the first packet of their
+ * window arrives, closed when the window has passed, and flushed whenever
+ * the writer is idle. Files are not written in SWMR mode, which in HDF5 1.10
+ * does not allow creating groups and datasets, so a file can only be read
+ * once it is complete.
+ *
+ * A converter restarted within a window appends to that window's file.
+ */
+final class RollingFileWriter implements PacketWriter {
+
+    static final String PARTIAL_SUFFIX = ".partial";
+
+    private static final DateTimeFormatter WINDOW_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final String prefix;
+    private final long intervalMillis;
+    private final WriterFactory writerFactory;
+
+    private long windowStart;
+    private Path finalPath;
+    private Path partialPath;
+    private H5File file;
+    private PacketWriter writer;
+    private boolean dirty;
+
+    /**
+     * @param prefix The output path without the .h5 extension.
+     * @param intervalMillis The length of the time window of each file.
+     * @param writerFactory Creates the packet writer of each new file.
+     */
+    RollingFileWriter(String prefix, long intervalMillis, WriterFactory writerFactory) {
+        this.prefix = prefix;
+        this.intervalMillis = intervalMillis;
+        this.writerFactory = writerFactory;
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        long now = System.currentTimeMillis();
+        long start = now - Math.floorMod(now, intervalMillis);
+        if (writer != null && start != windowStart) {
+            closeFile();
+        }
+        if (writer == null) {
+            openFile(start);
+        }
+        writer.write(packet);
+        dirty = true;
+    }
+
+    /**
+     * Closes the current file once its window has passed, otherwise flushes
+     * the packets written since the last flush.
+     */
+    @Override
+    public void idle() throws Exception {
+        if (writer == null) {
+            return;
+        }
+        if (System.currentTimeMillis() >= windowStart + intervalMillis) {
+            closeFile();
+        } else if (dirty) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws Exception {
+        if (writer != null) {
+            writer.flush();
+            H5.H5Fflush(file.getFID(), HDF5Constants.H5F_SCOPE_GLOBAL);
+            dirty = false;
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (writer != null) {
+            closeFile();
+        }
+    }
+
+    private void openFile(long start) throws Exception {
+        finalPath = Paths.get(prefix + "-" + WINDOW_FORMAT.format(Instant.ofEpochMilli(start)) + ".h5");
+        partialPath = Paths.get(finalPath + PARTIAL_SUFFIX);
+
+        if (Files.exists(partialPath)) {
+            // Left behind by a converter that was killed, it may be corrupt.
+            Path abandoned = Paths.get(finalPath + ".abandoned-" + System.currentTimeMillis());
+            System.err.println("An unfinished file was found at " + partialPath + " it is moved to " + abandoned);
+            Files.move(partialPath, abandoned);
+        }
+        if (Files.exists(finalPath)) {
+            Files.move(finalPath, partialPath);
+        }
+
+        file = PackageRedvoxToHdf5.openOutputFile(partialPath, true);
+        try {
+            writer = writerFactory.open(file);
+        } catch (Exception e) {
+            file.close();
+            file = null;
+            throw e;
+        }
+        windowStart = start;
+        System.out.println("Writing " + partialPath);
+    }
+
+    private void closeFile() throws Exception {
+        try {
+            try {
+                writer.close();
+            } finally {
+                file.close();
+            }
+            Files.move(partialPath, finalPath, StandardCopyOption.ATOMIC_MOVE);
+            System.out.println("Completed " + finalPath);
+        } finally {
+            writer = null;
+            file = null;
+            dirty = false;
+        }
+    }
+
+    /**
+     * Finds the packets already converted into the completed files of a
+     * prefix, e.g. by a converter that was stopped and restarted, according
+     * to the {@link ConversionManifest} of each file.
+     *
+     * @param prefix The output path without the .h5 extension.
+     * @param sources The packets to look for, with their attributes read.
+     * @return The packets of {@code sources} converted into one of the
+     * files, by location.
+     * @throws Exception If a file could not be read.
+     */
+    static Map<String, PacketSource> converted(String prefix, Collection<PacketSource> sources) throws Exception {
+        Map<String, PacketSource> converted = new ConcurrentHashMap<>();
+        if (sources.isEmpty()) {
+            return converted;
+        }
+        Map<String, PacketSource> byLocation = new HashMap<>();
+        for (PacketSource source : sources) {
+            byLocation.put(source.location(), source);
+        }
+        Path prefixPath = Paths.get(prefix).toAbsolutePath();
+        String namePrefix = prefixPath.getFileName() + "-";
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(prefixPath.getParent(), (Path path) -> isWindowFile(path, namePrefix))) {
+            for (Path path : files) {
+                H5File file = new H5File(path.toString(), FileFormat.READ);
+                file.open();
+                try {
+                    for (PacketSource source : ConversionManifest.converted(file, byLocation)) {
+                        converted.put(source.location(), source);
+                    }
+                } finally {
+                    file.close();
+                }
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * @return True if the file is a completed file of the prefix, named
+     * after the start of its window.
+     */
+    private static boolean isWindowFile(Path path, String namePrefix) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(namePrefix) || !name.endsWith(".h5")) {
+            return false;
+        }
+        try {
+            WINDOW_FORMAT.parse(name.substring(namePrefix.length(), name.length() - ".h5".length()));
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the packet writer of a newly opened file.
+     */
+    @FunctionalInterface
+    interface WriterFactory {
+
+        PacketWriter open(H5File file) throws Exception;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recycles the primitive sample arrays of decoded packets. Decoder threads
+ * take arrays from the pool and the writer thread returns them once a
+ * packet is written, so in a steady state packets of the same length (the
+ * microphone payload of a device always has the same number of samples)
+ * are decoded into arrays that already exist.
+ *
+ * Arrays are pooled by exact length, since the length of a sample array is
+ * the number of samples everywhere else. Short arrays are cheaper to
+ * allocate than to pool and are left to the garbage collector, as are
+ * arrays beyond {@link #MAX_ARRAYS_PER_LENGTH} per length. The pool retains
+ * at most {@link #DEFAULT_MAX_BYTES} of arrays: when a released array would
+ * exceed that, the arrays of the least recently used lengths are dropped.
+ * Lengths that change from packet to packet (barometer, accelerometer) thus
+ * age out, while the lengths taken with every packet stay pooled.
+ */
+final class SampleArrayPool {
+
+    static final int MIN_POOLED_LENGTH = 256;
+    static final int MAX_ARRAYS_PER_LENGTH = 64;
+    /**
+     * 64 of the 2 MiB microphone arrays of 8 kHz packets.
+     */
+    static final long DEFAULT_MAX_BYTES = 128L << 20;
+
+    static final SampleArrayPool SHARED = new SampleArrayPool(DEFAULT_MAX_BYTES);
+
+    private final long maxBytes;
+    /**
+     * The free arrays by type and length, see {@link #key(boolean, int)}, in
+     * least recently used order.
+     */
+    private final Map<Long, ArrayDeque<Object>> free = new LinkedHashMap<>(16, 0.75f, true);
+    private long pooledBytes;
+
+    /**
+     * @param maxBytes The most bytes of arrays the pool retains.
+     */
+    SampleArrayPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param length The number of samples.
+     * @return A long[] of exactly {@code length} elements, with undefined
+     * contents.
+     */
+    long[] longs(int length) {
+        long[] array = (long[]) poll(key(false, length), length);
+        return array != null ? array : new long[length];
+    }
+
+    /**
+     * @param length The number of samples.
+     * @return A double[] of exactly {@code length} elements, with undefined
+     * contents.
+     */
+    double[] doubles(int length) {
+        double[] array = (double[]) poll(key(true, length), length);
+        return array != null ? array : new double[length];
+    }
+
+    /**
+     * Returns an array to the pool. The caller must not use it afterwards.
+     *
+     * @param array A sample array, arrays of other types are ignored.
+     */
+    void release(Object array) {
+        if (array instanceof long[]) {
+            offer(key(false, ((long[]) array).length), ((long[]) array).length, array);
+        } else if (array instanceof double[]) {
+            offer(key(true, ((double[]) array).length), ((double[]) array).length, array);
+        }
+    }
+
+    /**
+     * @return The number of bytes of the arrays in the pool.
+     */
+    synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    private static Long key(boolean doubles, int length) {
+        return 2L * length + (doubles ? 1 : 0);
+    }
+
+    private static long bytes(int length) {
+        // long and double samples are both 8 bytes.
+        return 8L * length;
+    }
+
+    private synchronized Object poll(Long key, int length) {
+        ArrayDeque<Object> arrays = free.get(key);
+        if (arrays == null) {
+            return null;
+        }
+        Object array = arrays.poll();
+        if (arrays.isEmpty()) {
+            free.remove(key);
+        }
+        pooledBytes -= bytes(length);
+        return array;
+    }
+
+    private synchronized void offer(Long key, int length, Object array) {
+        if (length < MIN_POOLED_LENGTH || bytes(length) > maxBytes) {
+            return;
+        }
+        ArrayDeque<Object> arrays = free.get(key);
+        if (arrays == null) {
+            arrays = new ArrayDeque<>();
+            free.put(key, arrays);
+        } else if (arrays.size() >= MAX_ARRAYS_PER_LENGTH) {
+            return;
+        }
+        arrays.add(array);
+        pooledBytes += bytes(length);
+
+        // The length just released is the most recently used, it is only
+        // dropped after all others.
+        Iterator<Map.Entry<Long, ArrayDeque<Object>>> eldest = free.entrySet().iterator();
+        while (pooledBytes > maxBytes) {
+            Map.Entry<Long, ArrayDeque<Object>> entry = eldest.next();
+            pooledBytes -= bytes((int) (entry.getKey() / 2)) * entry.getValue().size();
+            eldest.remove();
+        }
+    }
+}
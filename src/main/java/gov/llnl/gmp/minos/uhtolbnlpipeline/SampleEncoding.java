@@ -0,0 +1,106 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How sensor samples are encoded in the file. The samples are always held as
+ * long[] and double[] in memory; when the file type differs the HDF5 library
+ * converts them as they are written, and back as they are read.
+ */
+enum SampleEncoding {
+
+    /**
+     * 64 bit big-endian integers and doubles, the historical encoding. Every
+     * write and read on a little-endian machine swaps the bytes.
+     */
+    BIG_ENDIAN {
+        @Override
+        SampleType type(Object data) {
+            return SampleType.of(data);
+        }
+
+        @Override
+        long fileType(SampleType type) {
+            return type.fileType();
+        }
+    },
+    /**
+     * 64 bit integers and doubles in the byte order of the converting
+     * machine, so neither writes nor reads on the same kind of machine swap.
+     */
+    NATIVE {
+        @Override
+        SampleType type(Object data) {
+            return SampleType.of(data);
+        }
+
+        @Override
+        long fileType(SampleType type) {
+            return type.memoryType();
+        }
+    },
+    /**
+     * Native byte order and, per dataset, the narrowest type storing every
+     * sample without loss, see {@link SampleType#narrowest(Object)}.
+     * Datasets whose samples do not fit a narrower type keep 64 bits.
+     */
+    NARROW {
+        @Override
+        SampleType type(Object data) {
+            return SampleType.narrowest(data);
+        }
+
+        @Override
+        long fileType(SampleType type) {
+            return type.memoryType();
+        }
+    };
+
+    /**
+     * @param data A byte[], long[], double[] or String[] of samples.
+     * @return The type to store the samples as.
+     */
+    abstract SampleType type(Object data);
+
+    /**
+     * @param type A type returned by {@link #type(Object)}.
+     * @return The HDF5 file type of a dataset of this type.
+     */
+    abstract long fileType(SampleType type);
+
+    /**
+     * @param value big-endian, native or narrow.
+     * @return The encoding.
+     * @throws IllegalArgumentException If the value is not an encoding.
+     */
+    static SampleEncoding parse(String value) {
+        try {
+            return valueOf(value.toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("Sample types must be one of "
+                    + Arrays.toString(values()).toLowerCase(Locale.ROOT).replace('_', '-') + " but was: " + value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
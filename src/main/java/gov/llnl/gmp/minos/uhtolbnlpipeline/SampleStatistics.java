@@ -0,0 +1,137 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+/**
+ * Summary statistics of the samples of one sensor channel of a packet,
+ * computed in one pass while the decoded samples are in memory. Empty
+ * channels have a count of 0 and NaN statistics.
+ */
+final class SampleStatistics {
+
+    final int count;
+    final double min;
+    final double max;
+    final double mean;
+    final double rms;
+
+    private SampleStatistics(int count, double min, double max, double sum, double sumOfSquares) {
+        this.count = count;
+        this.min = count > 0 ? min : Double.NaN;
+        this.max = count > 0 ? max : Double.NaN;
+        this.mean = count > 0 ? sum / count : Double.NaN;
+        this.rms = count > 0 ? Math.sqrt(sumOfSquares / count) : Double.NaN;
+    }
+
+    /**
+     * @param data A long[] or double[] of samples.
+     * @return The statistics of the samples, null for other arrays (image
+     * bytes).
+     */
+    static SampleStatistics of(Object data) {
+        if (data instanceof long[]) {
+            return of((long[]) data);
+        }
+        if (data instanceof double[]) {
+            return of((double[]) data);
+        }
+        return null;
+    }
+
+    /**
+     * @param data A long[] or double[] of samples of several channels,
+     * interleaved.
+     * @param channel The index of the channel.
+     * @param channels The number of channels.
+     * @return The statistics of the samples of the channel, null for other
+     * arrays.
+     */
+    static SampleStatistics of(Object data, int channel, int channels) {
+        if (data instanceof long[]) {
+            long[] samples = (long[]) data;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            long sum = 0;
+            double sumOfSquares = 0;
+            int count = 0;
+            for (int i = channel; i < samples.length; i += channels) {
+                long sample = samples[i];
+                min = Math.min(min, sample);
+                max = Math.max(max, sample);
+                sum += sample;
+                double value = sample;
+                sumOfSquares += value * value;
+                count++;
+            }
+            return new SampleStatistics(count, min, max, sum, sumOfSquares);
+        }
+        if (data instanceof double[]) {
+            double[] samples = (double[]) data;
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            double sum = 0;
+            double sumOfSquares = 0;
+            int count = 0;
+            for (int i = channel; i < samples.length; i += channels) {
+                double sample = samples[i];
+                min = Math.min(min, sample);
+                max = Math.max(max, sample);
+                sum += sample;
+                sumOfSquares += sample * sample;
+                count++;
+            }
+            return new SampleStatistics(count, min, max, sum, sumOfSquares);
+        }
+        return null;
+    }
+
+    static SampleStatistics of(long[] samples) {
+        // One plain loop with every accumulator in a local, which the JIT
+        // unrolls and keeps in registers. Squares are summed as doubles, the
+        // square of a 32 bit sample times a packet's samples overflows a long.
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long sum = 0;
+        double sumOfSquares = 0;
+        for (long sample : samples) {
+            min = Math.min(min, sample);
+            max = Math.max(max, sample);
+            sum += sample;
+            double value = sample;
+            sumOfSquares += value * value;
+        }
+        return new SampleStatistics(samples.length, min, max, sum, sumOfSquares);
+    }
+
+    static SampleStatistics of(double[] samples) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (double sample : samples) {
+            min = Math.min(min, sample);
+            max = Math.max(max, sample);
+            sum += sample;
+            sumOfSquares += sample * sample;
+        }
+        return new SampleStatistics(samples.length, min, max, sum, sumOfSquares);
+    }
+
+    double peakToPeak() {
+        return max - min;
+    }
+}
@@ -0,0 +1,353 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * The element types of sensor sample arrays and table columns, with the HDF5
+ * types they are stored as in the file and described as in memory.
+ */
+enum SampleType {
+
+    INT8(1) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_STD_I8BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_INT8;
+        }
+    },
+    /**
+     * 16 bit integers, only used in the file for long samples that fit.
+     */
+    INT16(2) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_STD_I16BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_INT16;
+        }
+    },
+    /**
+     * 32 bit integers, only used in the file for long samples that fit.
+     */
+    INT32(4) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_STD_I32BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_INT32;
+        }
+    },
+    INT64(8) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_STD_I64BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_INT64;
+        }
+    },
+    /**
+     * Single precision floats, only used in the file for double samples
+     * that are all exactly representable.
+     */
+    FLOAT32(4) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_IEEE_F32BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_FLOAT;
+        }
+    },
+    FLOAT64(8) {
+        @Override
+        long fileType() {
+            return HDF5Constants.H5T_IEEE_F64BE;
+        }
+
+        @Override
+        long memoryType() {
+            return HDF5Constants.H5T_NATIVE_DOUBLE;
+        }
+    },
+    /**
+     * Variable length UTF-8 strings, for table columns. Never used for
+     * samples.
+     */
+    STRING(0) {
+        @Override
+        long fileType() {
+            return variableLengthString();
+        }
+
+        @Override
+        long memoryType() {
+            return variableLengthString();
+        }
+    };
+
+    /**
+     * The variable length string type, created on first use and kept open
+     * for the life of the JVM.
+     */
+    private static long variableLengthStringType = -1;
+
+    /**
+     * The number of bytes of one sample, 0 for {@link #STRING}.
+     */
+    final int size;
+
+    SampleType(int size) {
+        this.size = size;
+    }
+
+    /**
+     * @return The big-endian HDF5 type the samples are stored as in the file
+     * by default.
+     */
+    abstract long fileType();
+
+    /**
+     * @return The HDF5 type describing the Java array in memory, also used as
+     * the file type of natively ordered datasets.
+     */
+    abstract long memoryType();
+
+    /**
+     * @param data A byte[], long[] or double[] of samples.
+     * @return The type of the samples.
+     */
+    static SampleType of(Object data) {
+        if (data instanceof long[]) {
+            return INT64;
+        } else if (data instanceof double[]) {
+            return FLOAT64;
+        } else if (data instanceof byte[]) {
+            return INT8;
+        } else if (data instanceof String[]) {
+            return STRING;
+        }
+        throw new IllegalArgumentException("Unsupported sensor payload type: " + data.getClass());
+    }
+
+    /**
+     * @param datasetId An open dataset.
+     * @return The type of the dataset's elements.
+     * @throws HDF5Exception If the dataset's type could not be read.
+     */
+    static SampleType ofDataset(long datasetId) throws HDF5Exception {
+        long typeId = H5.H5Dget_type(datasetId);
+        try {
+            int typeClass = H5.H5Tget_class(typeId);
+            long size = H5.H5Tget_size(typeId);
+            if (typeClass == HDF5Constants.H5T_FLOAT) {
+                return size == 4 ? FLOAT32 : FLOAT64;
+            } else if (typeClass == HDF5Constants.H5T_STRING) {
+                return STRING;
+            } else if (size == 1) {
+                return INT8;
+            } else if (size == 2) {
+                return INT16;
+            } else if (size == 4) {
+                return INT32;
+            }
+            return INT64;
+        } finally {
+            H5.H5Tclose(typeId);
+        }
+    }
+
+    /**
+     * Finds the smallest type that stores every sample of an array without
+     * loss: the narrowest integer type holding the range of long samples,
+     * and single precision floats if every double sample converts to float
+     * and back unchanged.
+     *
+     * @param data A byte[], long[], double[] or String[] of samples.
+     * @return The narrowest lossless type.
+     */
+    static SampleType narrowest(Object data) {
+        if (data instanceof long[]) {
+            long[] values = (long[]) data;
+            long min = 0;
+            long max = 0;
+            for (long value : values) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if (min >= Byte.MIN_VALUE && max <= Byte.MAX_VALUE) {
+                return INT8;
+            } else if (min >= Short.MIN_VALUE && max <= Short.MAX_VALUE) {
+                return INT16;
+            } else if (min >= Integer.MIN_VALUE && max <= Integer.MAX_VALUE) {
+                return INT32;
+            }
+            return INT64;
+        } else if (data instanceof double[]) {
+            for (double value : (double[]) data) {
+                // NaN never equals itself but survives the conversion.
+                if ((float) value != value && !Double.isNaN(value)) {
+                    return FLOAT64;
+                }
+            }
+            return FLOAT32;
+        }
+        return of(data);
+    }
+
+    /**
+     * @param other A type of the same kind, integer or float.
+     * @return The wider of this type and the other one.
+     */
+    SampleType widen(SampleType other) {
+        if (isFloat() != other.isFloat()) {
+            throw new IllegalArgumentException("Can not store " + other + " samples as " + this + ".");
+        }
+        return other.size > size ? other : this;
+    }
+
+    private boolean isFloat() {
+        return this == FLOAT32 || this == FLOAT64;
+    }
+
+    /**
+     * @param length The number of elements.
+     * @return A new byte[], long[], double[] or String[] holding this type
+     * in memory, the strings are empty.
+     */
+    Object newArray(int length) {
+        switch (this) {
+            case INT8:
+                return new byte[length];
+            case FLOAT32:
+            case FLOAT64:
+                return new double[length];
+            case STRING:
+                String[] strings = new String[length];
+                Arrays.fill(strings, "");
+                return strings;
+            case INT64:
+            default:
+                return new long[length];
+        }
+    }
+
+    /**
+     * Resets the first elements of an array of this type to zero, or to
+     * empty strings.
+     *
+     * @param data An array created by {@link #newArray(int)}.
+     * @param length The number of elements to reset.
+     */
+    static void clear(Object data, int length) {
+        if (data instanceof long[]) {
+            Arrays.fill((long[]) data, 0, length, 0L);
+        } else if (data instanceof double[]) {
+            Arrays.fill((double[]) data, 0, length, 0.0);
+        } else if (data instanceof String[]) {
+            Arrays.fill((String[]) data, 0, length, "");
+        } else {
+            Arrays.fill((byte[]) data, 0, length, (byte) 0);
+        }
+    }
+
+    private static synchronized long variableLengthString() {
+        if (variableLengthStringType < 0) {
+            try {
+                long typeId = H5.H5Tcopy(HDF5Constants.H5T_C_S1);
+                H5.H5Tset_size(typeId, HDF5Constants.H5T_VARIABLE);
+                H5.H5Tset_cset(typeId, HDF5Constants.H5T_CSET_UTF8);
+                variableLengthStringType = typeId;
+            } catch (HDF5Exception e) {
+                throw new IllegalStateException("Could not create the variable length string type.", e);
+            }
+        }
+        return variableLengthStringType;
+    }
+
+    /**
+     * @param data A byte[], long[] or double[] of samples.
+     * @return The number of samples.
+     */
+    static int length(Object data) {
+        return Array.getLength(data);
+    }
+
+    /**
+     * Writes a sample array to a dataset without any intermediate copies.
+     *
+     * @param datasetId The open dataset.
+     * @param memorySpaceId The dataspace of the array.
+     * @param fileSpaceId The selection in the dataset.
+     * @param data A byte[], long[], double[] or String[] of samples.
+     * @throws HDF5Exception If the samples could not be written.
+     */
+    static void write(long datasetId, long memorySpaceId, long fileSpaceId, Object data) throws HDF5Exception {
+        long memoryType = of(data).memoryType();
+        if (data instanceof long[]) {
+            H5.H5Dwrite_long(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (long[]) data);
+        } else if (data instanceof double[]) {
+            H5.H5Dwrite_double(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (double[]) data);
+        } else if (data instanceof String[]) {
+            H5.H5Dwrite_VLStrings(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (String[]) data);
+        } else {
+            H5.H5Dwrite(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (byte[]) data);
+        }
+    }
+
+    /**
+     * Reads a selection of a dataset into an array.
+     *
+     * @param datasetId The open dataset.
+     * @param memorySpaceId The dataspace of the array.
+     * @param fileSpaceId The selection in the dataset.
+     * @param data A byte[], long[], double[] or String[] to read into.
+     * @throws HDF5Exception If the samples could not be read.
+     */
+    static void read(long datasetId, long memorySpaceId, long fileSpaceId, Object data) throws HDF5Exception {
+        long memoryType = of(data).memoryType();
+        if (data instanceof long[]) {
+            H5.H5Dread_long(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (long[]) data);
+        } else if (data instanceof double[]) {
+            H5.H5Dread_double(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (double[]) data);
+        } else if (data instanceof String[]) {
+            H5.H5Dread_VLStrings(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (String[]) data);
+        } else {
+            H5.H5Dread(datasetId, memoryType, memorySpaceId, fileSpaceId, HDF5Constants.H5P_DEFAULT, (byte[]) data);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.object.FileFormat;
+import hdf.object.Group;
+import hdf.object.HObject;
+import hdf.object.h5.H5File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Converts a directory with several worker JVMs at once. The HDF5 library
+ * serializes all calls within a process, so one output file keeps one core
+ * busy however many decoder threads feed it; separate processes writing
+ * separate files do not share that lock.
+ *
+ * Packets are assigned to shards by device, the {@code redvoxId} at the
+ * start of Redvox packet file names ({@code <redvoxId>_<timestamp>.rdvxz}),
+ * so every device is written by exactly one worker. Worker {@code k} of
+ * {@code n} writes {@code <output>-shard-<k>-of-<n>.h5}. Once all workers
+ * have finished, the master file {@code <output>.h5} is created holding an
+ * external link to every group of every shard, so it reads like a single
+ * converted file without any sample being copied. The shards themselves
+ * are linked under {@code /shards}. Every device has its own group in the
+ * {@link TimeIndex} and {@link OverviewPyramid}, so the master's
+ * {@code /timeIndex} and {@code /overviews} are groups linking to the device
+ * groups of all shards. The {@link ConversionManifest},
+ * {@link PacketMetadataTable} and {@link PacketStatisticsTable} hold the
+ * packets of all shards, see {@link ColumnTableMerge}.
+ *
+ * The master file only references the shards by name, keep them in the
+ * same directory.
+ */
+final class ShardedConversion {
+
+    static final String SHARDS_GROUP = "shards";
+
+    /**
+     * Root groups holding a table of packets, merged into one table of the
+     * packets of all shards.
+     */
+    private static final List<String> TABLES = Arrays.asList(ConversionManifest.GROUP, PacketMetadataTable.GROUP, PacketStatisticsTable.GROUP);
+
+    /**
+     * Root groups holding one group per device, merged by linking the device
+     * groups.
+     */
+    private static final List<String> DEVICE_GROUPS = Arrays.asList(TimeIndex.GROUP, OverviewPyramid.GROUP);
+
+    private ShardedConversion() {
+    }
+
+    /**
+     * @param name The name of a packet file.
+     * @param shards The number of shards.
+     * @return The shard the packet belongs to.
+     */
+    static int shardOf(String name, int shards) {
+        int separator = name.indexOf('_');
+        // Files not following the Redvox naming are spread by their own name.
+        String device = separator > 0 ? name.substring(0, separator) : name;
+        return Math.floorMod(device.hashCode(), shards);
+    }
+
+    /**
+     * @param outputFilename The output filename, e.g. ending in .h5.
+     * @param shard The shard.
+     * @param shards The number of shards.
+     * @return The path of the shard's file, the shard is inserted before the
+     * extension.
+     */
+    static Path shardPath(String outputFilename, int shard, int shards) {
+        int extension = outputFilename.lastIndexOf('.');
+        if (extension <= Math.max(outputFilename.lastIndexOf('/'), outputFilename.lastIndexOf('\\'))) {
+            extension = outputFilename.length();
+        }
+        return Paths.get(outputFilename.substring(0, extension) + "-shard-" + shard + "-of-" + shards + outputFilename.substring(extension));
+    }
+
+    /**
+     * Runs one worker JVM per shard and merges their files once all of them
+     * succeeded.
+     *
+     * @param args The command line of this JVM, passed on to the workers.
+     * @param options The parsed command line.
+     * @param outputFilename The master file, ending in .h5.
+     * @return True if every worker succeeded and the master file was
+     * written.
+     * @throws Exception If a worker could not be started or the master file
+     * could not be written.
+     */
+    static boolean run(String[] args, ConversionOptions options, String outputFilename) throws Exception {
+        int shards = options.shards();
+        // The decoder threads of this JVM are shared out among the workers.
+        int workerThreads = Math.max(1, options.threads() / shards);
+
+        if (!options.append()) {
+            // A shard without packets writes no file, a file left by an
+            // earlier run would be merged as if it were this run's.
+            for (int shard = 0; shard < shards; shard++) {
+                Files.deleteIfExists(shardPath(outputFilename, shard, shards));
+            }
+        }
+
+        List<Process> workers = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            List<String> command = new ArrayList<>();
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(workerJvmOptions(ManagementFactory.getRuntimeMXBean().getInputArguments()));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(PackageRedvoxToHdf5.class.getName());
+            command.addAll(Arrays.asList(args));
+            command.add("--shard=" + shard + "/" + shards);
+            command.add("--threads=" + workerThreads);
+            workers.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        System.out.println("Started " + shards + " workers with " + workerThreads + " decoder threads each.");
+
+        List<Integer> failed = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            if (workers.get(shard).waitFor() != 0) {
+                failed.add(shard);
+            }
+        }
+        if (!failed.isEmpty()) {
+            System.err.println("Shards " + failed + " failed, " + outputFilename + " was not written. "
+                    + "Rerun with --append to complete the shards.");
+            return false;
+        }
+
+        List<Path> shardPaths = new ArrayList<>();
+        for (int shard = 0; shard < shards; shard++) {
+            Path shardPath = shardPath(outputFilename, shard, shards);
+            // A shard without packets has no file.
+            if (Files.exists(shardPath)) {
+                shardPaths.add(shardPath);
+            }
+        }
+        merge(Paths.get(outputFilename), shardPaths);
+        return true;
+    }
+
+    /**
+     * Leaves out the JVM options that must not be repeated in every worker:
+     * agents such as a debugger would compete for the same port, and flight
+     * recordings would be written to the same file.
+     *
+     * @param options The JVM options of this JVM.
+     * @return The options to start the workers with, e.g. the heap size, the
+     * garbage collector and {@code -Djava.library.path}.
+     */
+    static List<String> workerJvmOptions(List<String> options) {
+        List<String> workerOptions = new ArrayList<>();
+        for (String option : options) {
+            if (!option.startsWith("-agentlib:") && !option.startsWith("-agentpath:") && !option.startsWith("-javaagent:")
+                    && !option.startsWith("-Xrunjdwp") && !option.equals("-Xdebug")
+                    && !option.startsWith("-XX:StartFlightRecording") && !option.startsWith("-XX:FlightRecorderOptions")) {
+                workerOptions.add(option);
+            }
+        }
+        return workerOptions;
+    }
+
+    /**
+     * Creates a master file linking to the groups of the shard files and
+     * merging their tables of packets. If two shards hold another group of
+     * the same name the first one is linked, the other stays reachable
+     * through {@code /shards}.
+     *
+     * @param master The master file, replaced if it exists.
+     * @param shardPaths The shard files, in the same directory as the
+     * master.
+     * @throws Exception If a shard could not be read or the master not
+     * written.
+     */
+    static void merge(Path master, List<Path> shardPaths) throws Exception {
+        H5File masterFile = PackageRedvoxToHdf5.openOutputFile(master, false);
+        try {
+            long fileId = masterFile.getFID();
+            long groupId = H5.H5Gcreate(fileId, "/" + SHARDS_GROUP, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+            H5.H5Gclose(groupId);
+
+            Set<String> linked = new HashSet<>();
+            for (Path shardPath : shardPaths) {
+                String shardFileName = shardPath.getFileName().toString();
+                String shardName = shardFileName.substring(0, shardFileName.length() - ".h5".length());
+                H5.H5Lcreate_external(shardFileName, "/", fileId, "/" + SHARDS_GROUP + "/" + shardName,
+                        HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+
+                for (String name : members(shardPath, "/")) {
+                    if (TABLES.contains(name)) {
+                        continue;
+                    }
+                    if (DEVICE_GROUPS.contains(name)) {
+                        if (!H5.H5Lexists(fileId, "/" + name, HDF5Constants.H5P_DEFAULT)) {
+                            H5.H5Gclose(H5.H5Gcreate(fileId, "/" + name, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT));
+                        }
+                        for (String device : members(shardPath, "/" + name)) {
+                            String path = "/" + name + "/" + device;
+                            H5.H5Lcreate_external(shardFileName, path, fileId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+                        }
+                        continue;
+                    }
+                    if (!linked.add(name)) {
+                        System.err.println("/" + name + " is in more than one shard, the copy in " + shardFileName
+                                + " is only linked as /" + SHARDS_GROUP + "/" + shardName + "/" + name);
+                        continue;
+                    }
+                    H5.H5Lcreate_external(shardFileName, "/" + name, fileId, "/" + name,
+                            HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+                }
+            }
+            System.out.println("Linked " + linked.size() + " groups of " + shardPaths.size() + " shards into " + master);
+
+            Map<String, String> manifestOffsets = new HashMap<>();
+            manifestOffsets.put("pathOffset", ConversionManifest.TEXT);
+            manifestOffsets.put("uuidOffset", ConversionManifest.TEXT);
+            ColumnTableMerge.merge(masterFile, shardPaths, ConversionManifest.GROUP, null, manifestOffsets);
+            ColumnTableMerge.merge(masterFile, shardPaths, PacketMetadataTable.GROUP, PacketMetadataTable.DICTIONARIES, Collections.emptyMap());
+            ColumnTableMerge.merge(masterFile, shardPaths, PacketStatisticsTable.GROUP, null, Collections.emptyMap());
+        } finally {
+            masterFile.close();
+        }
+    }
+
+    private static List<String> members(Path shardPath, String groupPath) throws Exception {
+        H5File shardFile = new H5File(shardPath.toString(), FileFormat.READ);
+        shardFile.open();
+        try {
+            List<String> names = new ArrayList<>();
+            for (HObject member : ((Group) shardFile.get(groupPath)).getMemberList()) {
+                names.add(member.getName());
+            }
+            return names;
+        } finally {
+            shardFile.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link DatasetStorage} of every sensor type: a default for all sensors
+ * plus per sensor overrides, keyed by sensor name (microphone, barometer,
+ * gyroscope, location, ...).
+ */
+final class StorageSettings {
+
+    /**
+     * Every sensor stored contiguous and unfiltered.
+     */
+    static final StorageSettings UNFILTERED = new StorageSettings(DatasetStorage.UNFILTERED, Collections.emptyMap());
+
+    /**
+     * The names of the sensors {@link PacketDecoder} decodes.
+     */
+    static final List<String> SENSORS = Arrays.asList("microphone", "accelerometer", "barometer", "gyroscope", "image",
+            "infrared", "light", "location", "magnetometer", "timeSynchronization");
+
+    private final DatasetStorage defaults;
+    private final Map<String, DatasetStorage> sensors;
+
+    private StorageSettings(DatasetStorage defaults, Map<String, DatasetStorage> sensors) {
+        this.defaults = defaults;
+        this.sensors = sensors;
+    }
+
+    /**
+     * @param defaultSettings Settings applied to all sensors, see
+     * {@link DatasetStorage#with(String)}, may be empty.
+     * @param sensorSettings Per sensor settings of the form
+     * {@code <sensor>:<settings>}, applied on top of the defaults.
+     * @return The storage settings.
+     * @throws IllegalArgumentException If a setting is not valid or names an
+     * unknown sensor.
+     */
+    static StorageSettings parse(String defaultSettings, Iterable<String> sensorSettings) {
+        DatasetStorage defaults = defaultSettings.isEmpty() ? DatasetStorage.UNFILTERED : DatasetStorage.UNFILTERED.with(defaultSettings);
+        Map<String, DatasetStorage> sensors = new HashMap<>();
+        for (String sensorSetting : sensorSettings) {
+            int colon = sensorSetting.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected <sensor>:<settings> but was: " + sensorSetting);
+            }
+            String sensor = sensorSetting.substring(0, colon);
+            if (!SENSORS.contains(sensor)) {
+                throw new IllegalArgumentException("Unknown sensor " + sensor + " in " + sensorSetting + ", expected one of " + SENSORS);
+            }
+            DatasetStorage base = sensors.getOrDefault(sensor, defaults);
+            sensors.put(sensor, base.with(sensorSetting.substring(colon + 1)));
+        }
+        return new StorageSettings(defaults, sensors);
+    }
+
+    /**
+     * @param sensorName A sensor name.
+     * @return The storage of the sensor's datasets.
+     */
+    DatasetStorage forSensor(String sensorName) {
+        return sensors.getOrDefault(sensorName, defaults);
+    }
+
+    /**
+     * @throws HDF5Exception If the filter availability could not be queried.
+     * @throws IllegalStateException If a requested filter is not available
+     * in the HDF5 library.
+     */
+    void checkAvailable() throws HDF5Exception {
+        defaults.checkAvailable();
+        for (DatasetStorage storage : sensors.values()) {
+            storage.checkAvailable();
+        }
+    }
+}
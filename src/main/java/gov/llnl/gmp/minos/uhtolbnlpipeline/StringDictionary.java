@@ -0,0 +1,84 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The distinct values of a dictionary encoded string column, stored once each
+ * in an extendible variable length string dataset. Table rows hold the index
+ * of their value in the dictionary (its code) instead of the string, so a
+ * column with a handful of distinct values such as {@code deviceModel} costs
+ * a number per row.
+ */
+final class StringDictionary implements AutoCloseable {
+
+    private static final long CHUNK_LENGTH = 256;
+
+    private final ExtendibleDataset values;
+    private final Map<String, Long> codes = new HashMap<>();
+
+    private StringDictionary(ExtendibleDataset values) {
+        this.values = values;
+    }
+
+    /**
+     * Opens a dictionary, creating an empty one if it does not exist yet.
+     * The values of an existing dictionary keep their codes.
+     *
+     * @param locationId The file or group the dictionary is in.
+     * @param name The name of the dictionary's dataset.
+     * @return The open dictionary.
+     * @throws HDF5Exception If the dictionary could not be opened or created.
+     */
+    static StringDictionary openOrCreate(long locationId, String name) throws HDF5Exception {
+        ExtendibleDataset values = ExtendibleDataset.openOrCreate(locationId, name, SampleType.STRING, DatasetStorage.UNFILTERED, CHUNK_LENGTH);
+        StringDictionary dictionary = new StringDictionary(values);
+        if (values.length() > 0) {
+            String[] existing = new String[Math.toIntExact(values.length())];
+            values.read(existing);
+            for (int code = 0; code < existing.length; code++) {
+                dictionary.codes.putIfAbsent(existing[code], (long) code);
+            }
+        }
+        return dictionary;
+    }
+
+    /**
+     * @param value A string, null is encoded as the empty string.
+     * @return The code of the value. New values are added to the dictionary
+     * right away, so codes stay valid however the table is flushed.
+     * @throws HDF5Exception If a new value could not be written.
+     */
+    long encode(String value) throws HDF5Exception {
+        String key = value == null ? "" : value;
+        Long code = codes.get(key);
+        if (code == null) {
+            code = values.length();
+            values.append(new String[]{key});
+            codes.put(key, code);
+        }
+        return code;
+    }
+
+    @Override
+    public void close() throws HDF5Exception {
+        values.close();
+    }
+}
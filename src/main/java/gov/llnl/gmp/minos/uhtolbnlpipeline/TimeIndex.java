@@ -0,0 +1,286 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.HDF5Constants;
+import hdf.hdf5lib.exceptions.HDF5Exception;
+import hdf.object.h5.H5File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A per device index of the microphone samples by time, sorted by start
+ * time so a time window is found by binary search, see
+ * {@link RedvoxHdf5Reader}. Every device has a group below {@value #GROUP}
+ * with one row per packet:
+ * <pre>
+ * /timeIndex/&lt;redvoxId&gt;/startMicros     time of the first sample
+ * /timeIndex/&lt;redvoxId&gt;/endMicros       time just after the last sample
+ * /timeIndex/&lt;redvoxId&gt;/sampleCount
+ * /timeIndex/&lt;redvoxId&gt;/sampleRateHz
+ * /timeIndex/&lt;redvoxId&gt;/offset          first sample in /&lt;redvoxId&gt;/microphone, -1 in the packet layout
+ * /timeIndex/&lt;redvoxId&gt;/name            the packet group in the packet layout
+ * </pre>
+ *
+ * Packets are not converted in time order, so the rows of every device are
+ * kept in memory and written sorted every {@value #CHUNK_ROWS} packets, when
+ * the writer is idle at most once per {@link ConversionPipeline#IDLE_MILLIS},
+ * and when it is flushed or closed. A file being converted thus has an index
+ * of nearly all its packets, not an empty one until the end. Rows arriving
+ * in time order only append to the datasets; a row arriving out of order
+ * rewrites the device's index from that row on.
+ *
+ * As a {@link PacketWriter} the index wraps the writer of the layout and adds
+ * a row for every packet that was written.
+ */
+final class TimeIndex implements PacketWriter {
+
+    static final String GROUP = "timeIndex";
+
+    private static final long CHUNK_ROWS = 1024;
+    private static final double MICROS_PER_SECOND = 1e6;
+
+    private final PacketWriter writer;
+    private final long groupId;
+    private final Map<String, Device> devices = new HashMap<>();
+    private int unwrittenRows;
+    private long lastWriteNanos = System.nanoTime();
+
+    private TimeIndex(PacketWriter writer, long groupId) {
+        this.writer = writer;
+        this.groupId = groupId;
+    }
+
+    /**
+     * Opens the time index of a file, creating an empty one if the file has
+     * none.
+     *
+     * @param h5File The open HDF5 file.
+     * @param writer The writer packets are passed on to.
+     * @return The index.
+     * @throws HDF5Exception If the index could not be opened or created.
+     */
+    static TimeIndex openOrCreate(H5File h5File, PacketWriter writer) throws HDF5Exception {
+        long fileId = h5File.getFID();
+        String path = "/" + GROUP;
+        long groupId = H5.H5Lexists(fileId, path, HDF5Constants.H5P_DEFAULT)
+                ? H5.H5Gopen(fileId, path, HDF5Constants.H5P_DEFAULT)
+                : H5.H5Gcreate(fileId, path, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT);
+        return new TimeIndex(writer, groupId);
+    }
+
+    /**
+     * @param startMicros The time of the first sample.
+     * @param sampleCount The number of samples.
+     * @param sampleRateHz The sample rate, 0 if unknown.
+     * @return The time just after the last sample, the start if the sample
+     * rate is unknown.
+     */
+    static long endMicros(long startMicros, long sampleCount, double sampleRateHz) {
+        return sampleRateHz > 0 ? startMicros + Math.round(sampleCount * MICROS_PER_SECOND / sampleRateHz) : startMicros;
+    }
+
+    @Override
+    public void write(DecodedPacket packet) throws Exception {
+        writer.write(packet);
+
+        long sampleCount = 0;
+        for (DecodedPacket.SensorPayload sensor : packet.sensors()) {
+            if (sensor.name.equals("microphone")) {
+                sampleCount = SampleType.length(sensor.data);
+            }
+        }
+        Device device = devices.get(packet.redvoxId);
+        if (device == null) {
+            device = new Device(packet.redvoxId);
+            devices.put(packet.redvoxId, device);
+        }
+        device.add(packet.microphoneFirstSampleTimestampEpochMicrosecondsUtc, sampleCount, packet.microphoneSampleRateHz,
+                packet.microphoneOffset, packet.name);
+        if (++unwrittenRows >= CHUNK_ROWS) {
+            writeRows();
+        }
+    }
+
+    /**
+     * Writes the changed rows of every device.
+     */
+    private void writeRows() throws HDF5Exception {
+        for (Device device : devices.values()) {
+            device.flush();
+        }
+        unwrittenRows = 0;
+        lastWriteNanos = System.nanoTime();
+    }
+
+    @Override
+    public void flush() throws Exception {
+        writer.flush();
+        writeRows();
+    }
+
+    @Override
+    public void idle() throws Exception {
+        writer.idle();
+        if (unwrittenRows > 0 && System.nanoTime() - lastWriteNanos >= TimeUnit.MILLISECONDS.toNanos(ConversionPipeline.IDLE_MILLIS)) {
+            writeRows();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        try {
+            writer.close();
+        } finally {
+            try {
+                writeRows();
+            } finally {
+                devices.clear();
+                H5.H5Gclose(groupId);
+            }
+        }
+    }
+
+    /**
+     * The index rows of one device, in start time order.
+     */
+    private final class Device {
+
+        private final String redvoxId;
+        private int rows;
+        private long[] startMicros = new long[16];
+        private long[] endMicros = new long[16];
+        private long[] sampleCounts = new long[16];
+        private double[] sampleRatesHz = new double[16];
+        private long[] offsets = new long[16];
+        private String[] names = new String[16];
+        /**
+         * The first row that changed since the index was last written.
+         */
+        private int firstUnwrittenRow;
+
+        /**
+         * Loads the rows of the device already in the file.
+         */
+        Device(String redvoxId) throws HDF5Exception {
+            this.redvoxId = redvoxId;
+            if (!H5.H5Lexists(groupId, redvoxId, HDF5Constants.H5P_DEFAULT)) {
+                return;
+            }
+            try (ExtendibleDataset start = open("startMicros", SampleType.INT64)) {
+                rows = Math.toIntExact(start.length());
+            }
+            grow(rows);
+            read("startMicros", SampleType.INT64, startMicros);
+            read("endMicros", SampleType.INT64, endMicros);
+            read("sampleCount", SampleType.INT64, sampleCounts);
+            read("sampleRateHz", SampleType.FLOAT64, sampleRatesHz);
+            read("offset", SampleType.INT64, offsets);
+            read("name", SampleType.STRING, names);
+            firstUnwrittenRow = rows;
+        }
+
+        void add(long start, long sampleCount, double sampleRateHz, long offset, String name) {
+            grow(rows + 1);
+            // Binary search for the insertion point, after rows starting at
+            // the same time. Packets mostly arrive in order, so this is
+            // usually the end.
+            int row = rows;
+            if (rows > 0 && startMicros[rows - 1] > start) {
+                int index = Arrays.binarySearch(startMicros, 0, rows, start);
+                row = index < 0 ? -index - 1 : index;
+                while (row < rows && startMicros[row] <= start) {
+                    row++;
+                }
+                int moved = rows - row;
+                System.arraycopy(startMicros, row, startMicros, row + 1, moved);
+                System.arraycopy(endMicros, row, endMicros, row + 1, moved);
+                System.arraycopy(sampleCounts, row, sampleCounts, row + 1, moved);
+                System.arraycopy(sampleRatesHz, row, sampleRatesHz, row + 1, moved);
+                System.arraycopy(offsets, row, offsets, row + 1, moved);
+                System.arraycopy(names, row, names, row + 1, moved);
+            }
+            startMicros[row] = start;
+            endMicros[row] = endMicros(start, sampleCount, sampleRateHz);
+            sampleCounts[row] = sampleCount;
+            sampleRatesHz[row] = sampleRateHz;
+            offsets[row] = offset;
+            names[row] = name;
+            rows++;
+            firstUnwrittenRow = Math.min(firstUnwrittenRow, row);
+        }
+
+        /**
+         * Writes the rows from the first one that changed on.
+         */
+        void flush() throws HDF5Exception {
+            if (firstUnwrittenRow == rows) {
+                return;
+            }
+            if (!H5.H5Lexists(groupId, redvoxId, HDF5Constants.H5P_DEFAULT)) {
+                H5.H5Gclose(H5.H5Gcreate(groupId, redvoxId, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT, HDF5Constants.H5P_DEFAULT));
+            }
+            write("startMicros", SampleType.INT64, startMicros);
+            write("endMicros", SampleType.INT64, endMicros);
+            write("sampleCount", SampleType.INT64, sampleCounts);
+            write("sampleRateHz", SampleType.FLOAT64, sampleRatesHz);
+            write("offset", SampleType.INT64, offsets);
+            write("name", SampleType.STRING, names);
+            firstUnwrittenRow = rows;
+        }
+
+        private void grow(int capacity) {
+            if (capacity > startMicros.length) {
+                int newCapacity = Math.max(capacity, 2 * startMicros.length);
+                startMicros = Arrays.copyOf(startMicros, newCapacity);
+                endMicros = Arrays.copyOf(endMicros, newCapacity);
+                sampleCounts = Arrays.copyOf(sampleCounts, newCapacity);
+                sampleRatesHz = Arrays.copyOf(sampleRatesHz, newCapacity);
+                offsets = Arrays.copyOf(offsets, newCapacity);
+                names = Arrays.copyOf(names, newCapacity);
+            }
+        }
+
+        private ExtendibleDataset open(String column, SampleType type) throws HDF5Exception {
+            return ExtendibleDataset.openOrCreate(groupId, redvoxId + "/" + column, type, DatasetStorage.UNFILTERED, CHUNK_ROWS);
+        }
+
+        private void read(String column, SampleType type, Object values) throws HDF5Exception {
+            try (ExtendibleDataset dataset = open(column, type)) {
+                dataset.read(0, values, rows);
+            }
+        }
+
+        private void write(String column, SampleType type, Object values) throws HDF5Exception {
+            try (ExtendibleDataset dataset = open(column, type)) {
+                dataset.write(firstUnwrittenRow, values instanceof String[]
+                        ? Arrays.copyOfRange((String[]) values, firstUnwrittenRow, rows)
+                        : copyOfRange(values), rows - firstUnwrittenRow);
+            }
+        }
+
+        private Object copyOfRange(Object values) {
+            if (values instanceof long[]) {
+                return Arrays.copyOfRange((long[]) values, firstUnwrittenRow, rows);
+            }
+            return Arrays.copyOfRange((double[]) values, firstUnwrittenRow, rows);
+        }
+    }
+}
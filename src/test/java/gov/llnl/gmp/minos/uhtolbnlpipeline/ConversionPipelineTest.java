@@ -0,0 +1,131 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class ConversionPipelineTest {
+
+    @Test(timeout = 10000)
+    public void returnsOnEmptyInput() throws Exception {
+        ConversionMetrics metrics = new ConversionMetrics();
+        new ConversionPipeline(2, 4, metrics, false).run(Collections.<PacketSource>emptyList(), packet -> fail("No packet to write"));
+
+        assertEquals(0, metrics.convertedPackets());
+        assertEquals(0, metrics.failedPackets());
+    }
+
+    @Test(timeout = 10000)
+    public void countsPacketsThatFailToDecode() throws Exception {
+        ConversionMetrics metrics = new ConversionMetrics();
+        new ConversionPipeline(2, 4, metrics, false).run(Collections.singletonList(notAPacket("notes.txt")),
+                packet -> fail("No packet to write"));
+
+        assertEquals(1, metrics.failedPackets());
+    }
+
+    @Test(timeout = 10000)
+    public void throwsInputFailureWithoutHanging() throws Exception {
+        RuntimeException failure = new RuntimeException("The archive is corrupt");
+        ConversionMetrics metrics = new ConversionMetrics();
+        try {
+            new ConversionPipeline(2, 1, metrics, false).run(() -> new FailingIterator(failure, notAPacket("notes.txt")),
+                    packet -> fail("No packet to write"));
+            fail("The input failure was not thrown");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e.getCause());
+        }
+        // The packets found before the failure are still handled.
+        assertEquals(1, metrics.failedPackets());
+    }
+
+    @Test(timeout = 10000)
+    public void keepsTheWriterBusyWhileTheInputIsQuiet() throws Exception {
+        AtomicInteger idle = new AtomicInteger();
+        Iterable<PacketSource> quiet = () -> new Iterator<PacketSource>() {
+            @Override
+            public boolean hasNext() {
+                try {
+                    Thread.sleep(2 * ConversionPipeline.IDLE_MILLIS + 500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+
+            @Override
+            public PacketSource next() {
+                throw new NoSuchElementException();
+            }
+        };
+        new ConversionPipeline(1, 1, new ConversionMetrics(), false).run(quiet, new PacketWriter() {
+            @Override
+            public void write(DecodedPacket packet) {
+                fail("No packet to write");
+            }
+
+            @Override
+            public void idle() {
+                idle.incrementAndGet();
+            }
+        });
+
+        assertTrue("idle() was called " + idle.get() + " times", idle.get() >= 2);
+    }
+
+    private static PacketSource notAPacket(String name) {
+        return PacketSource.ofEntry(Paths.get("test.zip"), name, new byte[16], 0);
+    }
+
+    /**
+     * Returns its packets, then throws the failure.
+     */
+    private static final class FailingIterator implements Iterator<PacketSource> {
+
+        private final RuntimeException failure;
+        private final Iterator<PacketSource> packets;
+
+        FailingIterator(RuntimeException failure, PacketSource... packets) {
+            this.failure = failure;
+            this.packets = Arrays.asList(packets).iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (packets.hasNext()) {
+                return true;
+            }
+            throw failure;
+        }
+
+        @Override
+        public PacketSource next() {
+            return packets.next();
+        }
+    }
+}
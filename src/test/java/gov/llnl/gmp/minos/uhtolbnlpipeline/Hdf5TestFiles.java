@@ -0,0 +1,65 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import hdf.hdf5lib.H5;
+import hdf.hdf5lib.exceptions.HDF5LibraryException;
+import hdf.object.h5.H5File;
+import java.nio.file.Path;
+import org.junit.Assume;
+
+/**
+ * Small HDF5 files for the tests. The tests using them are skipped when the
+ * HDF5 native library can not be loaded, give its location with
+ * {@code -DargLine=-Djava.library.path=<path>} to run them.
+ */
+final class Hdf5TestFiles {
+
+    private Hdf5TestFiles() {
+    }
+
+    /**
+     * Skips the calling test if the HDF5 native library is not available.
+     */
+    static void assumeHdf5() {
+        try {
+            H5.H5open();
+        } catch (LinkageError | HDF5LibraryException e) {
+            Assume.assumeNoException("The HDF5 native library is not available: " + e, e);
+        }
+    }
+
+    /**
+     * @param path The path of the new file.
+     * @return A new, open HDF5 file, skipping the calling test if HDF5 is not
+     * available.
+     * @throws Exception If the file could not be created.
+     */
+    static H5File create(Path path) throws Exception {
+        assumeHdf5();
+        return PackageRedvoxToHdf5.openOutputFile(path, false);
+    }
+
+    /**
+     * @param path The path of an existing file.
+     * @return The file, open for writing.
+     * @throws Exception If the file could not be opened.
+     */
+    static H5File open(Path path) throws Exception {
+        return PackageRedvoxToHdf5.openOutputFile(path, true);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void reportsZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.meanNanos(), 0);
+        assertEquals(0, histogram.percentileNanos(50));
+        assertEquals(0, histogram.percentileNanos(100));
+    }
+
+    @Test
+    public void keepsSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long nanos = 0; nanos < 8; nanos++) {
+            histogram.record(nanos);
+        }
+
+        for (int i = 1; i <= 8; i++) {
+            assertEquals(i - 1, histogram.percentileNanos(100.0 * i / 8));
+        }
+    }
+
+    @Test
+    public void boundsEveryValueWithinABucketWidth() {
+        for (long nanos = 1; nanos > 0 && nanos < Long.MAX_VALUE / 2; nanos = nanos * 3 / 2 + 1) {
+            for (long value : new long[]{nanos, Long.highestOneBit(nanos), Long.highestOneBit(nanos) - 1}) {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(value);
+                // A larger value so the percentile is not capped at the maximum.
+                histogram.record(Long.MAX_VALUE);
+
+                long bound = histogram.percentileNanos(50);
+                assertTrue(value + " reported as " + bound, bound >= value);
+                assertTrue(value + " reported as " + bound, bound <= value + value / 8);
+            }
+        }
+    }
+
+    @Test
+    public void holdsTheLongestDuration() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.percentileNanos(100));
+    }
+
+    @Test
+    public void capsPercentilesAtTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001);
+
+        assertEquals(1_000_001, histogram.percentileNanos(50));
+        assertEquals(1_000_001, histogram.percentileNanos(100));
+    }
+
+    @Test
+    public void findsPercentilesOfADistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long millis = 1000; millis >= 1; millis--) {
+            histogram.record(millis * 1_000_000);
+        }
+
+        assertWithinBucket(500_000_000, histogram.percentileNanos(50));
+        assertWithinBucket(990_000_000, histogram.percentileNanos(99));
+        assertEquals(1_000_000_000, histogram.percentileNanos(100));
+        assertWithinBucket(1_000_000, histogram.percentileNanos(0));
+    }
+
+    @Test
+    public void recordsNegativeDurationsAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(1, histogram.count());
+        assertEquals(0, histogram.totalNanos());
+        assertEquals(0, histogram.maxNanos());
+        assertEquals(0, histogram.percentileNanos(100));
+    }
+
+    @Test
+    public void sumsTheDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        histogram.record(300);
+        histogram.record(800);
+
+        assertEquals(3, histogram.count());
+        assertEquals(1200, histogram.totalNanos());
+        assertEquals(800, histogram.maxNanos());
+        assertEquals(400, histogram.meanNanos(), 0);
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue(expected + " reported as " + actual, actual >= expected && actual <= expected + expected / 8);
+    }
+}
@@ -0,0 +1,277 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PacketArchiveTest {
+
+    private static final String LONG_DIRECTORY = "2019/08/01/a-directory-name-long-enough-to-push-the-entry-name-past-the-100-bytes-of-a-tar-header/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsPlainUstarEntries() throws IOException {
+        Tar tar = new Tar().file("0000000001_1000.rdvxz", bytes("one")).file("notes.txt", bytes("skipped"));
+        List<PacketSource> packets = read(tar.write(folder.getRoot().toPath().resolve("packets.tar")));
+
+        assertEquals(1, packets.size());
+        assertEquals("0000000001_1000.rdvxz", packets.get(0).fileName());
+        assertArrayEquals(bytes("one"), packets.get(0).contents());
+    }
+
+    @Test
+    public void readsGnuLongNames() throws IOException {
+        String name = LONG_DIRECTORY + "0000000001_1000.rdvxz";
+        Tar tar = new Tar().gnuLongName(name).file(name.substring(0, 100), bytes("long"));
+        Path archive = tar.write(folder.getRoot().toPath().resolve("packets.tar"));
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(1, packets.size());
+        assertEquals("0000000001_1000.rdvxz", packets.get(0).fileName());
+        assertEquals(archive.toAbsolutePath().normalize() + "!/" + name, packets.get(0).location());
+        assertArrayEquals(bytes("long"), packets.get(0).contents());
+    }
+
+    @Test
+    public void readsPaxPaths() throws IOException {
+        String name = LONG_DIRECTORY + "0000000001_1000.pb";
+        Tar tar = new Tar().paxPath(name).file("PaxHeaders/truncated.pb", bytes("pax"));
+        List<PacketSource> packets = read(tar.write(folder.getRoot().toPath().resolve("packets.tar")));
+
+        assertEquals(1, packets.size());
+        assertEquals("0000000001_1000.pb", packets.get(0).fileName());
+        assertArrayEquals(bytes("pax"), packets.get(0).contents());
+    }
+
+    @Test
+    public void joinsUstarPrefixAndName() throws IOException {
+        Tar tar = new Tar().file("0000000001_1000.rdvxz", "2019/08/01", bytes("prefix"));
+        Path archive = tar.write(folder.getRoot().toPath().resolve("packets.tar"));
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(1, packets.size());
+        assertEquals("0000000001_1000.rdvxz", packets.get(0).fileName());
+        assertEquals(archive.toAbsolutePath().normalize() + "!/2019/08/01/0000000001_1000.rdvxz", packets.get(0).location());
+    }
+
+    @Test
+    public void readsGzipCompressedTar() throws IOException {
+        Path archive = folder.getRoot().toPath().resolve("packets.tar.gz");
+        byte[] tar = new Tar().file("0000000001_1000.rdvxz", bytes("one")).file("0000000001_2000.rdvxz", bytes("two")).toByteArray();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            out.write(tar);
+        }
+
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(2, packets.size());
+        assertArrayEquals(bytes("two"), packets.get(1).contents());
+    }
+
+    @Test
+    public void keepsThePacketsBeforeATruncatedEntry() throws IOException {
+        byte[] tar = new Tar().file("0000000001_1000.rdvxz", bytes("one")).file("0000000001_2000.rdvxz", new byte[2000]).toByteArray();
+        Path archive = folder.getRoot().toPath().resolve("packets.tar");
+        // Cut the archive in the middle of the second entry's contents.
+        Files.write(archive, Arrays.copyOf(tar, 3 * 512 + 100));
+
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(1, packets.size());
+        assertEquals("0000000001_1000.rdvxz", packets.get(0).fileName());
+    }
+
+    @Test
+    public void skipsEntriesTheFilterRejects() throws IOException {
+        Tar tar = new Tar().file("0000000001_1000.rdvxz", bytes("one")).file("0000000002_1000.rdvxz", bytes("two"));
+        Path archive = tar.write(folder.getRoot().toPath().resolve("packets.tar"));
+
+        List<PacketSource> packets = new ArrayList<>();
+        for (PacketSource packet : new PacketArchive(archive, (String fileName) -> fileName.startsWith("0000000002"))) {
+            packets.add(packet);
+        }
+
+        assertEquals(1, packets.size());
+        assertArrayEquals(bytes("two"), packets.get(0).contents());
+    }
+
+    @Test
+    public void readsZipEntriesWithDataDescriptors() throws IOException {
+        // Deflated entries written to a stream have their sizes in a data
+        // descriptor after the contents instead of in the local header.
+        Path archive = folder.getRoot().toPath().resolve("packets.zip");
+        Files.write(archive, zip());
+
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(2, packets.size());
+        assertEquals("0000000001_1000.rdvxz", packets.get(0).fileName());
+        assertArrayEquals(packet(1), packets.get(0).contents());
+        assertArrayEquals(packet(2), packets.get(1).contents());
+    }
+
+    @Test
+    public void streamsZipWithoutCentralDirectory() throws IOException {
+        byte[] zip = zip();
+        int centralDirectory = indexOf(zip, new byte[]{'P', 'K', 1, 2});
+        Path archive = folder.getRoot().toPath().resolve("packets.zip");
+        Files.write(archive, Arrays.copyOf(zip, centralDirectory));
+
+        List<PacketSource> packets = read(archive);
+
+        assertEquals(2, packets.size());
+        assertArrayEquals(packet(1), packets.get(0).contents());
+        assertArrayEquals(packet(2), packets.get(1).contents());
+    }
+
+    private static List<PacketSource> read(Path archive) {
+        List<PacketSource> packets = new ArrayList<>();
+        for (PacketSource packet : new PacketArchive(archive, (String fileName) -> true)) {
+            packets.add(packet);
+        }
+        return packets;
+    }
+
+    private static byte[] zip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("0000000001_1000.rdvxz"));
+            zip.write(packet(1));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("readme.txt"));
+            zip.write(bytes("skipped"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("day/0000000001_2000.rdvxz"));
+            zip.write(packet(2));
+            zip.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return Compressible contents of a few blocks.
+     */
+    private static byte[] packet(int seed) {
+        byte[] contents = new byte[5000];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) (i % 13 + seed);
+        }
+        return contents;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + pattern.length), pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes tar archives block by block, with the entry types the reader
+     * has to understand.
+     */
+    private static final class Tar {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Tar file(String name, byte[] contents) {
+            return file(name, "", contents);
+        }
+
+        Tar file(String name, String prefix, byte[] contents) {
+            return entry(name, prefix, '0', contents);
+        }
+
+        Tar gnuLongName(String name) {
+            return entry("././@LongLink", "", 'L', bytes(name + '\0'));
+        }
+
+        Tar paxPath(String path) {
+            String record = " path=" + path + "\n";
+            // The length of a record counts its own digits.
+            int length = record.length() + Integer.toString(record.length()).length();
+            if (Integer.toString(length).length() != Integer.toString(record.length()).length()) {
+                length++;
+            }
+            return entry("PaxHeaders/entry", "", 'x', bytes(length + record));
+        }
+
+        private Tar entry(String name, String prefix, char type, byte[] contents) {
+            byte[] header = new byte[512];
+            put(header, 0, 100, name);
+            put(header, 100, 8, "0000644");
+            put(header, 108, 8, "0000000");
+            put(header, 116, 8, "0000000");
+            put(header, 124, 12, String.format("%011o", contents.length));
+            put(header, 136, 12, String.format("%011o", 1564617600L));
+            header[156] = (byte) type;
+            put(header, 257, 6, "ustar");
+            put(header, 263, 2, "00");
+            put(header, 345, 155, prefix);
+            Arrays.fill(header, 148, 156, (byte) ' ');
+            int checksum = 0;
+            for (byte b : header) {
+                checksum += b & 0xff;
+            }
+            put(header, 148, 8, String.format("%06o", checksum));
+            out.write(header, 0, header.length);
+            out.write(contents, 0, contents.length);
+            out.write(new byte[(512 - contents.length % 512) % 512], 0, (512 - contents.length % 512) % 512);
+            return this;
+        }
+
+        private static void put(byte[] header, int offset, int length, String value) {
+            byte[] bytes = bytes(value);
+            System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+        }
+
+        byte[] toByteArray() {
+            byte[] archive = out.toByteArray();
+            // The end of archive marker.
+            return Arrays.copyOf(archive, archive.length + 1024);
+        }
+
+        Path write(Path path) throws IOException {
+            return Files.write(path, toByteArray());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hdf.object.h5.H5File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RedvoxHdf5ReaderTest {
+
+    private static final String DEVICE = "0000000001";
+    private static final String OTHER_DEVICE = "0000000002";
+    private static final long SAMPLE_MICROS = Math.round(1e6 / TestPackets.SAMPLE_RATE_HZ);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void stitchesWindowsAcrossPacketsOfTheDeviceLayout() throws Exception {
+        assertStitchesWindows("device");
+    }
+
+    @Test
+    public void stitchesWindowsAcrossPacketsOfThePacketLayout() throws Exception {
+        assertStitchesWindows("packet");
+    }
+
+    @Test
+    public void reportsAFileWithoutIndex() throws Exception {
+        Path path = folder.getRoot().toPath().resolve("packets.h5");
+        Hdf5TestFiles.create(path).close();
+
+        try (RedvoxHdf5Reader reader = RedvoxHdf5Reader.open(path)) {
+            assertTrue(!reader.hasTimeIndex());
+            assertEquals(0, reader.read(DEVICE, 0, Long.MAX_VALUE).samples().length);
+        }
+    }
+
+    private void assertStitchesWindows(String layout) throws Exception {
+        Path path = folder.getRoot().toPath().resolve(layout + ".h5");
+        H5File file = Hdf5TestFiles.create(path);
+        try (PacketWriter writer = PackageRedvoxToHdf5.createWriter(file,
+                ConversionOptions.parse(new String[]{"--layout", layout, "--time-index", "in", path.toString()}))) {
+            // Out of time order, as packets are converted.
+            for (int packet : new int[]{2, 0, 3, 1}) {
+                writer.write(TestPackets.packet(DEVICE, packet));
+            }
+            writer.write(TestPackets.packet(OTHER_DEVICE, 7));
+        } finally {
+            file.close();
+        }
+
+        try (RedvoxHdf5Reader reader = RedvoxHdf5Reader.open(path)) {
+            assertTrue(reader.hasTimeIndex());
+            assertEquals(Arrays.asList(DEVICE, OTHER_DEVICE), reader.devices());
+            assertArrayEquals(new long[]{TestPackets.startMicros(0), TestPackets.startMicros(4)}, reader.timeRange(DEVICE));
+            assertNull(reader.timeRange("0000000003"));
+
+            // Half of the first packet, all of the second and half of the third.
+            long start = TestPackets.startMicros(0) + TestPackets.DURATION_MICROS / 2;
+            RedvoxHdf5Reader.TimeSeries series = reader.read(DEVICE, start, start + 2 * TestPackets.DURATION_MICROS);
+            assertArrayEquals(samples(TestPackets.SAMPLES / 2, 2 * TestPackets.SAMPLES), series.samples());
+            List<RedvoxHdf5Reader.Segment> segments = series.segments();
+            assertEquals(3, segments.size());
+            assertEquals(start, segments.get(0).startMicros());
+            assertEquals(TestPackets.startMicros(1), segments.get(1).startMicros());
+            assertEquals(TestPackets.startMicros(2), segments.get(2).startMicros());
+
+            // The end is exclusive.
+            series = reader.read(DEVICE, TestPackets.startMicros(1), TestPackets.startMicros(2));
+            assertArrayEquals(samples(TestPackets.SAMPLES, TestPackets.SAMPLES), series.samples());
+            assertEquals(1, series.segments().size());
+
+            // A window inside one sample period.
+            series = reader.read(DEVICE, TestPackets.startMicros(3) + 1, TestPackets.startMicros(3) + SAMPLE_MICROS);
+            assertEquals(0, series.samples().length);
+
+            // Everything of the device, not of the other one.
+            series = reader.read(DEVICE, 0, Long.MAX_VALUE);
+            assertArrayEquals(samples(0, 4 * TestPackets.SAMPLES), series.samples());
+            assertEquals(4, series.segments().size());
+
+            series = reader.read(DEVICE, TestPackets.startMicros(4), TestPackets.startMicros(7));
+            assertEquals(0, series.samples().length);
+            assertEquals(0, series.segments().size());
+
+            series = reader.read(OTHER_DEVICE, 0, Long.MAX_VALUE);
+            assertArrayEquals(samples(7 * TestPackets.SAMPLES, TestPackets.SAMPLES), series.samples());
+        }
+    }
+
+    /**
+     * @return The values of consecutive samples of a device, see
+     * {@link TestPackets}.
+     */
+    private static long[] samples(long first, long count) {
+        return LongStream.range(first, first + count).toArray();
+    }
+}
@@ -0,0 +1,142 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class SampleArrayPoolTest {
+
+    private final SampleArrayPool pool = new SampleArrayPool(SampleArrayPool.DEFAULT_MAX_BYTES);
+
+    @Test
+    public void reusesReleasedArraysOfTheSameLength() {
+        long[] longs = pool.longs(4096);
+        double[] doubles = pool.doubles(4096);
+        pool.release(longs);
+        pool.release(doubles);
+
+        assertSame(longs, pool.longs(4096));
+        assertSame(doubles, pool.doubles(4096));
+        // Taken, so the pool is empty again.
+        assertNotSame(longs, pool.longs(4096));
+    }
+
+    @Test
+    public void returnsArraysOfExactlyTheRequestedLength() {
+        pool.release(new long[4096]);
+
+        assertEquals(4095, pool.longs(4095).length);
+        assertEquals(4097, pool.longs(4097).length);
+        assertEquals(4096, pool.longs(4096).length);
+    }
+
+    @Test
+    public void keepsLongsAndDoublesApart() {
+        long[] longs = new long[4096];
+        pool.release(longs);
+
+        assertEquals(4096, pool.doubles(4096).length);
+        assertSame(longs, pool.longs(4096));
+    }
+
+    @Test
+    public void leavesShortArraysToTheGarbageCollector() {
+        long[] shortArray = new long[SampleArrayPool.MIN_POOLED_LENGTH - 1];
+        long[] pooledArray = new long[SampleArrayPool.MIN_POOLED_LENGTH];
+        pool.release(shortArray);
+        pool.release(pooledArray);
+
+        assertNotSame(shortArray, pool.longs(shortArray.length));
+        assertSame(pooledArray, pool.longs(pooledArray.length));
+    }
+
+    @Test
+    public void ignoresArraysOfOtherTypes() {
+        pool.release(new int[4096]);
+        pool.release("not an array");
+        pool.release(null);
+
+        assertEquals(4096, pool.longs(4096).length);
+    }
+
+    @Test
+    public void boundsTheArraysPerLength() {
+        List<long[]> released = new ArrayList<>();
+        for (int i = 0; i < SampleArrayPool.MAX_ARRAYS_PER_LENGTH + 1; i++) {
+            long[] array = new long[4096];
+            released.add(array);
+            pool.release(array);
+        }
+
+        for (int i = 0; i < SampleArrayPool.MAX_ARRAYS_PER_LENGTH; i++) {
+            assertSame(released.get(i), pool.longs(4096));
+        }
+        assertNotSame(released.get(SampleArrayPool.MAX_ARRAYS_PER_LENGTH), pool.longs(4096));
+    }
+
+    @Test
+    public void dropsTheLeastRecentlyUsedLengthsBeyondTheBudget() {
+        // Room for four arrays of a little over 4096 samples, not five.
+        SampleArrayPool small = new SampleArrayPool(5 * 8 * 4096);
+        long[] microphone = new long[4096];
+        small.release(microphone);
+        for (int i = 1; i <= 3; i++) {
+            small.release(new double[4096 + i]);
+        }
+        // The microphone length is taken again, the others become older.
+        assertSame(microphone, small.longs(4096));
+        small.release(microphone);
+        // Beyond the budget: the oldest length goes, not the microphone's.
+        small.release(new double[4096 + 4]);
+
+        assertSame(microphone, small.longs(4096));
+        assertEquals(8 * (4096 + 2 + 4096 + 3 + 4096 + 4), small.pooledBytes());
+    }
+
+    @Test
+    public void neverRetainsMoreThanTheBudget() {
+        SampleArrayPool small = new SampleArrayPool(1 << 20);
+        for (int length = SampleArrayPool.MIN_POOLED_LENGTH; length < 20000; length += 7) {
+            small.release(new double[length]);
+            small.release(new long[length]);
+            assertTrue(small.pooledBytes() <= 1 << 20);
+        }
+        // An array larger than the whole budget is not pooled.
+        long[] huge = new long[(1 << 17) + 1];
+        small.release(huge);
+        assertNotSame(huge, small.longs(huge.length));
+    }
+
+    @Test
+    public void countsTheBytesTakenAndReleased() {
+        pool.release(new long[4096]);
+        pool.release(new double[1000]);
+        assertEquals(8 * (4096 + 1000), pool.pooledBytes());
+
+        pool.longs(4096);
+        assertEquals(8 * 1000, pool.pooledBytes());
+        pool.longs(4096);
+        assertEquals(8 * 1000, pool.pooledBytes());
+    }
+}
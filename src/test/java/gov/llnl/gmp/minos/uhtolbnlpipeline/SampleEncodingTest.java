@@ -0,0 +1,134 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import hdf.object.h5.H5File;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SampleEncodingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void narrowsIntegersToTheirRange() {
+        assertEquals(SampleType.INT8, SampleType.narrowest(new long[0]));
+        assertEquals(SampleType.INT8, SampleType.narrowest(new long[]{Byte.MIN_VALUE, Byte.MAX_VALUE}));
+        assertEquals(SampleType.INT16, SampleType.narrowest(new long[]{Byte.MIN_VALUE - 1, 0}));
+        assertEquals(SampleType.INT16, SampleType.narrowest(new long[]{Short.MIN_VALUE, Short.MAX_VALUE}));
+        assertEquals(SampleType.INT32, SampleType.narrowest(new long[]{0, Short.MAX_VALUE + 1}));
+        assertEquals(SampleType.INT32, SampleType.narrowest(new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE}));
+        assertEquals(SampleType.INT64, SampleType.narrowest(new long[]{Integer.MAX_VALUE + 1L}));
+        assertEquals(SampleType.INT64, SampleType.narrowest(new long[]{Long.MIN_VALUE}));
+    }
+
+    @Test
+    public void narrowsDoublesOnlyWithoutLoss() {
+        assertEquals(SampleType.FLOAT32, SampleType.narrowest(new double[]{0.5, -2.25, 1e6, Double.NaN, Double.POSITIVE_INFINITY}));
+        assertEquals(SampleType.FLOAT64, SampleType.narrowest(new double[]{0.5, 0.1}));
+        assertEquals(SampleType.FLOAT64, SampleType.narrowest(new double[]{1e300}));
+    }
+
+    @Test
+    public void keepsOtherTypes() {
+        assertEquals(SampleType.INT8, SampleType.narrowest(new byte[]{1}));
+        assertEquals(SampleType.STRING, SampleType.narrowest(new String[]{"a"}));
+        assertEquals(SampleType.INT64, SampleEncoding.NATIVE.type(new long[]{1}));
+        assertEquals(SampleType.INT64, SampleEncoding.BIG_ENDIAN.type(new long[]{1}));
+        assertEquals(SampleType.INT16, SampleEncoding.NARROW.type(new long[]{1000}));
+    }
+
+    @Test
+    public void parsesEncodingNames() {
+        assertEquals(SampleEncoding.BIG_ENDIAN, SampleEncoding.parse("big-endian"));
+        assertEquals(SampleEncoding.NARROW, SampleEncoding.parse("Narrow"));
+        assertEquals("big-endian", SampleEncoding.BIG_ENDIAN.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownEncodings() {
+        SampleEncoding.parse("wide");
+    }
+
+    @Test
+    public void roundTripsNarrowIntegers() throws Exception {
+        long[] samples = new long[5000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i % 2 == 0 ? 1 : -1) * (i * 6L % Short.MAX_VALUE);
+        }
+
+        long[] read = new long[samples.length];
+        assertEquals(SampleType.INT16, roundTrip(samples, read));
+        assertArrayEquals(samples, read);
+    }
+
+    @Test
+    public void roundTripsNarrowFloats() throws Exception {
+        double[] samples = new double[5000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (Math.sin(i / 100.0) * 9.81);
+        }
+
+        double[] read = new double[samples.length];
+        assertEquals(SampleType.FLOAT32, roundTrip(samples, read));
+        assertArrayEquals(samples, read, 0);
+    }
+
+    @Test
+    public void keepsSixtyFourBitsForWideSamples() throws Exception {
+        long[] samples = {1_546_300_800_000_000L, 1_546_300_800_012_500L, -1};
+
+        long[] read = new long[samples.length];
+        assertEquals(SampleType.INT64, roundTrip(samples, read));
+        assertArrayEquals(samples, read);
+    }
+
+    /**
+     * Writes the samples to a new file with the narrow encoding, then reopens
+     * the file and reads them back.
+     *
+     * @return The type of the dataset in the file.
+     */
+    private SampleType roundTrip(Object samples, Object read) throws Exception {
+        Path path = folder.getRoot().toPath().resolve("samples.h5");
+        DatasetStorage storage = DatasetStorage.UNFILTERED.with("types=narrow,chunk=1024,shuffle,deflate=4");
+        H5File file = Hdf5TestFiles.create(path);
+        try (ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(file.getFID(), "samples",
+                storage.encoding().type(samples), storage, 1024)) {
+            dataset.append(samples);
+        } finally {
+            file.close();
+        }
+
+        file = Hdf5TestFiles.open(path);
+        try (ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(file.getFID(), "samples",
+                SampleType.of(samples), storage, 1024)) {
+            assertEquals(Array.getLength(samples), dataset.length());
+            dataset.read(read);
+            return dataset.type();
+        } finally {
+            file.close();
+        }
+    }
+}
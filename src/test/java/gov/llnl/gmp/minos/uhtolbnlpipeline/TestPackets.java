@@ -0,0 +1,73 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import io.redvox.apis.Api900;
+import java.nio.file.Paths;
+
+/**
+ * Builds decoded packets of a single microphone channel. The samples of
+ * consecutive packets of a device count up, so a sample's value is its index
+ * in the device's recording and stitched windows are easy to check.
+ */
+final class TestPackets {
+
+    static final long START_MICROS = 1_546_300_800_000_000L;
+    static final double SAMPLE_RATE_HZ = 80.0;
+    static final int SAMPLES = 800;
+    static final long DURATION_MICROS = Math.round(SAMPLES * 1e6 / SAMPLE_RATE_HZ);
+
+    private TestPackets() {
+    }
+
+    /**
+     * @param redvoxId The device.
+     * @param index The index of the packet in the device's recording.
+     * @return The decoded packet.
+     * @throws Exception If the packet could not be decoded.
+     */
+    static DecodedPacket packet(String redvoxId, int index) throws Exception {
+        long startMicros = START_MICROS + index * DURATION_MICROS;
+        Api900.Int32Payload.Builder payload = Api900.Int32Payload.newBuilder();
+        for (int i = 0; i < SAMPLES; i++) {
+            payload.addPayload(index * SAMPLES + i);
+        }
+        Api900.RedvoxPacket packet = Api900.RedvoxPacket.newBuilder()
+                .setApi(900)
+                .setUuid(redvoxId + "-" + index)
+                .setRedvoxId(redvoxId)
+                .setAppFileStartTimestampEpochMicrosecondsUtc(startMicros)
+                .addEvenlySampledChannels(Api900.EvenlySampledChannel.newBuilder()
+                        .addChannelTypes(Api900.ChannelType.MICROPHONE)
+                        .setSensorName("I/INTERNAL MIC")
+                        .setSampleRateHz(SAMPLE_RATE_HZ)
+                        .setFirstSampleTimestampEpochMicrosecondsUtc(startMicros)
+                        .setInt32Payload(payload))
+                .build();
+        String name = redvoxId + "_" + startMicros / 1000;
+        PacketSource source = PacketSource.ofEntry(Paths.get("test.zip"), name + ".pb", packet.toByteArray(), 0);
+        return PacketDecoder.decode(source, name, packet);
+    }
+
+    /**
+     * @param index The index of a packet in its device's recording.
+     * @return The time of the packet's first sample.
+     */
+    static long startMicros(int index) {
+        return START_MICROS + index * DURATION_MICROS;
+    }
+}
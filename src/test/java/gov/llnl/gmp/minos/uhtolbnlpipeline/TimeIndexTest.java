@@ -0,0 +1,162 @@
+/*
+    Copyright 2019 Lawrence Livermore National Security
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package gov.llnl.gmp.minos.uhtolbnlpipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import hdf.object.h5.H5File;
+import java.lang.reflect.Array;
+import java.nio.file.Path;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TimeIndexTest {
+
+    private static final String DEVICE = "0000000001";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path path;
+
+    @Before
+    public void setUp() {
+        path = folder.getRoot().toPath().resolve("index.h5");
+    }
+
+    @Test
+    public void computesTheEndOfThePacket() {
+        assertEquals(11_000_000, TimeIndex.endMicros(1_000_000, 800, 80.0));
+        assertEquals(1_012_500, TimeIndex.endMicros(1_000_000, 1, 80.0));
+        assertEquals(1_000_000, TimeIndex.endMicros(1_000_000, 800, 0));
+    }
+
+    @Test
+    public void sortsPacketsByStartTime() throws Exception {
+        H5File file = Hdf5TestFiles.create(path);
+        try (TimeIndex index = TimeIndex.openOrCreate(file, packet -> {
+        })) {
+            index.write(TestPackets.packet(DEVICE, 2));
+            index.write(TestPackets.packet(DEVICE, 0));
+            index.write(TestPackets.packet(DEVICE, 3));
+            index.write(TestPackets.packet(DEVICE, 1));
+        } finally {
+            file.close();
+        }
+
+        assertRows(0, 1, 2, 3);
+    }
+
+    @Test
+    public void rewritesTheRowsAfterAnEarlierPacket() throws Exception {
+        H5File file = Hdf5TestFiles.create(path);
+        try (TimeIndex index = TimeIndex.openOrCreate(file, packet -> {
+        })) {
+            index.write(TestPackets.packet(DEVICE, 1));
+            index.write(TestPackets.packet(DEVICE, 3));
+            index.flush();
+            index.write(TestPackets.packet(DEVICE, 0));
+            index.flush();
+            index.write(TestPackets.packet(DEVICE, 2));
+        } finally {
+            file.close();
+        }
+
+        assertRows(0, 1, 2, 3);
+    }
+
+    @Test
+    public void insertsIntoTheIndexOfAnExistingFile() throws Exception {
+        H5File file = Hdf5TestFiles.create(path);
+        try (TimeIndex index = TimeIndex.openOrCreate(file, packet -> {
+        })) {
+            index.write(TestPackets.packet(DEVICE, 0));
+            index.write(TestPackets.packet(DEVICE, 2));
+        } finally {
+            file.close();
+        }
+
+        file = Hdf5TestFiles.open(path);
+        try (TimeIndex index = TimeIndex.openOrCreate(file, packet -> {
+        })) {
+            index.write(TestPackets.packet(DEVICE, 1));
+        } finally {
+            file.close();
+        }
+
+        assertRows(0, 1, 2);
+    }
+
+    @Test
+    public void keepsPacketsStartingAtTheSameTime() throws Exception {
+        H5File file = Hdf5TestFiles.create(path);
+        try (TimeIndex index = TimeIndex.openOrCreate(file, packet -> {
+        })) {
+            index.write(TestPackets.packet(DEVICE, 2));
+            index.write(TestPackets.packet(DEVICE, 1));
+            index.write(TestPackets.packet(DEVICE, 1));
+            index.write(TestPackets.packet(DEVICE, 0));
+        } finally {
+            file.close();
+        }
+
+        assertRows(0, 1, 1, 2);
+    }
+
+    /**
+     * Checks the start and end times, sample counts and packet names of the
+     * device's index rows.
+     *
+     * @param packets The index of the packet of every row.
+     */
+    private void assertRows(int... packets) throws Exception {
+        long[] expectedStarts = new long[packets.length];
+        long[] expectedEnds = new long[packets.length];
+        long[] expectedCounts = new long[packets.length];
+        String[] expectedNames = new String[packets.length];
+        for (int row = 0; row < packets.length; row++) {
+            DecodedPacket packet = TestPackets.packet(DEVICE, packets[row]);
+            expectedStarts[row] = TestPackets.startMicros(packets[row]);
+            expectedEnds[row] = expectedStarts[row] + TestPackets.DURATION_MICROS;
+            expectedCounts[row] = TestPackets.SAMPLES;
+            expectedNames[row] = packet.name;
+        }
+
+        H5File file = Hdf5TestFiles.open(path);
+        try {
+            String group = "/" + TimeIndex.GROUP + "/" + DEVICE + "/";
+            assertArrayEquals(expectedStarts, read(file, group + "startMicros", new long[packets.length]));
+            assertArrayEquals(expectedEnds, read(file, group + "endMicros", new long[packets.length]));
+            assertArrayEquals(expectedCounts, read(file, group + "sampleCount", new long[packets.length]));
+            assertArrayEquals(expectedNames, read(file, group + "name", new String[packets.length]));
+        } finally {
+            file.close();
+        }
+    }
+
+    private static <T> T read(H5File file, String path, T values) throws Exception {
+        try (ExtendibleDataset dataset = ExtendibleDataset.openOrCreate(file.getFID(), path,
+                SampleType.of(values), DatasetStorage.UNFILTERED, 1)) {
+            assertEquals(Array.getLength(values), dataset.length());
+            dataset.read(values);
+        }
+        return values;
+    }
+}